@@ -0,0 +1,226 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/*
+ * AStarSearch.java
+ *
+ * A* search over a RoadmapGraph with straight-line distance as heuristic.
+ * The open set is an IndexedMinHeap keyed by f-score, g-scores and parents
+ * live in primitive arrays indexed by vertex, and closed vertices are
+ * stamped with the query's generation. All of it is kept in a reusable
+ * SearchContext, so a query costs O(E log V) and, given a context and a
+ * path buffer, allocates nothing. Given a LandmarkTable the heuristic is
+ * the larger of the landmark bound and straight-line distance.
+ * algorithm based on: http://en.wikipedia.org/wiki/A*_search_algorithm
+ */
+public class AStarSearch {
+
+	// plan a path from start to dest over the edges not marked
+	// ProbRoadMap.EDGE_INVALID in edgestates (null means all edges are usable)
+	// returns the last node of the path, following prev leads back to start, or null
+	public static Node search(RoadmapGraph graph, int pts[][], byte edgestates[], int start, int dest) {
+		SearchContext context = new SearchContext(graph.numVertices());
+		if(search(graph, pts, edgestates, start, dest, context, null) < 0) {
+			return null;
+		}
+		return createNodes(context, dest);
+	}
+
+	// same search in a reusable context, the path from start to dest is written into
+	// path as far as it fits (path may be null), the context keeps the whole search tree
+	// returns the number of vertices on the path, or -1 if there is none
+	public static int search(RoadmapGraph graph, int pts[][], byte edgestates[], int start, int dest,
+	                         SearchContext context, int path[]) {
+		return search(graph, pts, edgestates, start, dest, null, context, path);
+	}
+
+	// same search guided by landmarks (may be null, which means straight-line distance only)
+	public static int search(RoadmapGraph graph, int pts[][], byte edgestates[], int start, int dest,
+	                         LandmarkTable landmarks, SearchContext context, int path[]) {
+		context.ensureCapacity(graph.numVertices());
+		context.begin();
+		if(landmarks != null && !landmarks.mayConnect(start, dest)) {
+			return -1;
+		}
+		IndexedMinHeap open = context.getOpenSet();
+
+		int endx = pts[dest][0], endy = pts[dest][1];
+		context.reach(start, 0.0, -1);
+		open.insertOrDecrease(start, (landmarks != null) ? landmarks.estimate(pts, start, dest)
+		                                                 : distance(pts[start][0], pts[start][1], endx, endy));
+
+		while(!open.isEmpty()) {
+			int x = open.poll();
+			if(x == dest) {
+				return (path != null) ? context.copyPath(dest, path) : context.pathLength(dest);
+			}
+			context.close(x);
+			double gx = context.gscore(x);
+
+			// iterate over x neighbors
+			for(int e = graph.firstEdge(x); e < graph.endEdge(x); e++) {
+				if(edgestates != null && edgestates[e] == ProbRoadMap.EDGE_INVALID) {
+					continue;
+				}
+				int y = graph.target(e);
+				if(context.isClosed(y)) {
+					continue;
+				}
+				double tmpgscore = gx + graph.length(e);
+				if(tmpgscore < context.gscore(y)) {
+					// best found so far
+					context.reach(y, tmpgscore, x);
+					open.insertOrDecrease(y, tmpgscore + ((landmarks != null) ? landmarks.estimate(pts, y, dest)
+					                                                          : distance(pts[y][0], pts[y][1], endx, endy)));
+				}
+			}
+		}
+		// if we made it this far without returning, a path cannot be formed
+		return -1;
+	}
+
+	// Node chain for the path ending at dest in the last search of context
+	static Node createNodes(SearchContext context, int dest) {
+		Node last = null, next = null;
+		for(int v = dest; v >= 0; v = context.parent(v)) {
+			Node node = new Node(v, context.gscore(v));
+			node.gscore = context.gscore(v);
+			if(next == null) {
+				last = node;
+			} else {
+				next.prev = node;
+			}
+			next = node;
+		}
+		return last;
+	}
+
+	static double distance(int x0, int y0, int x1, int y1) {
+		double dx = x1 - x0, dy = y1 - y0;
+		return Math.sqrt(dx*dx + dy*dy);
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Legacy
+	///////////////////////////////////////////////////////////////////
+
+	// the list-based search planPath used before this class (kept for comparison only):
+	// sorted ArrayList open set, linear contains() on both sets and a new Node per neighbor
+	static Node searchLegacy(RoadmapGraph graph, int pts[][], byte edgestates[], int startindex, int destindex) {
+		int endx, endy;
+		double fscore, tmpgscore, hscore;
+		boolean tmpbetter;
+		Node xnode, ynode;
+
+		endx = pts[destindex][0]; endy = pts[destindex][1];
+		NodeComparator comparator = new NodeComparator();
+
+		List<Node> openset = new ArrayList<Node>();
+		List<Node> closedset = new ArrayList<Node>();
+
+		fscore = distance(pts[startindex][0], pts[startindex][1], endx, endy);
+		xnode = new Node(startindex,fscore);
+		openset.add(xnode);
+
+		while(!openset.isEmpty()) {
+			xnode = openset.get(0);
+			if(xnode.index == destindex) {
+				return xnode;
+			}
+			openset.remove(xnode);
+			closedset.add(xnode);
+
+			for(int e = graph.firstEdge(xnode.index); e < graph.endEdge(xnode.index); e++) {
+				if(edgestates != null && edgestates[e] == ProbRoadMap.EDGE_INVALID) {
+					continue;
+				}
+				ynode = new Node(graph.target(e),0.0);
+				if(!closedset.contains(ynode)) {
+					tmpgscore = xnode.gscore + graph.length(e);
+					hscore = distance(pts[ynode.index][0], pts[ynode.index][1], endx, endy);
+					tmpbetter = false;
+					if(!openset.contains(ynode)) {
+						openset.add(ynode);
+						tmpbetter = true;
+					} else if(tmpgscore < ynode.gscore) {
+						tmpbetter = true;
+					}
+					if(tmpbetter) {
+						ynode.prev = xnode;
+						ynode.gscore = tmpgscore;
+						ynode.fscore = ynode.gscore + hscore;
+						Collections.sort(openset,comparator);
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+
+	// TEST - compare the heap and list based searches on a roadmap
+	// usage: java AStarSearch [map_file] [num_pts] [connection] [seed]
+	public static void main(String args[]) throws IOException {
+		String mapfile = (args.length > 0) ? args[0] : ProbRoadMap.DEFAULT_MAP_FILE;
+		int numpts = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+		String spec = (args.length > 2) ? args[2] : "prmstar";
+		long seed = (args.length > 3) ? Long.parseLong(args[3]) : 42L;
+
+		MapLoader.LoadedMap map = MapLoader.load(mapfile);
+		ConfigurationSpace cspace = new ConfigurationSpace(map.grid);
+		DistanceField field = new DistanceField(map.grid);
+		FreeSpaceIndex index = new FreeSpaceIndex(cspace.getLayer(ProbRoadMap.POINT_BUFFER_ZONE));
+		EdgeValidator validator = new EdgeValidator(field, cspace, ProbRoadMap.PATH_BUFFER_ZONE-1);
+		int pts[][] = new int[numpts][2];
+		new ParallelSampler().sample(index, seed, pts, 0, numpts);
+		long pairs[] = ConnectionStrategy.parse(spec).candidatePairs(pts, index.size());
+		RoadmapGraph graph = new RoadmapGraph(pts, new ParallelEdgeBuilder().validate(validator, pts, pairs));
+
+		int numqueries = 200;
+		int queries[][] = new int[numqueries][2];
+		SplittableRandom rand = new SplittableRandom(seed);
+		for(int q = 0; q < numqueries; q++) {
+			queries[q][0] = rand.nextInt(numpts);
+			queries[q][1] = rand.nextInt(numpts);
+		}
+
+		int rounds = 5;
+		for(int round = 0; round < rounds; round++) { // only the last round is reported, the rest warm up
+			double heapcost = 0.0, legacycost = 0.0;
+			int found = 0, disagree = 0, longer = 0;
+			long theap = 0, tlegacy = 0, t;
+			for(int q = 0; q < numqueries; q++) {
+				t = System.nanoTime();
+				Node heap = search(graph, pts, null, queries[q][0], queries[q][1]);
+				theap += System.nanoTime() - t;
+				t = System.nanoTime();
+				Node legacy = searchLegacy(graph, pts, null, queries[q][0], queries[q][1]);
+				tlegacy += System.nanoTime() - t;
+
+				if((heap == null) != (legacy == null)) {
+					disagree++;
+				} else if(heap != null) {
+					found++;
+					heapcost += heap.gscore;
+					legacycost += legacy.gscore;
+					if(heap.gscore > legacy.gscore + 1e-3) {
+						longer++;
+					}
+				}
+			}
+			if(round == rounds-1) {
+				System.out.printf("%d vertices, %d edges, %d queries, %d paths found, %d reachability mismatches\n",
+				                  graph.numVertices(), graph.numEdges(), numqueries, found, disagree);
+				System.out.printf("heap A*: %.2f ms/query, total cost %.0f px (%d longer than list)\n",
+				                  theap/1e6/numqueries, heapcost, longer);
+				System.out.printf("list A*: %.2f ms/query, total cost %.0f px\n",
+				                  tlegacy/1e6/numqueries, legacycost);
+				System.out.printf("speedup: %.1fx\n", (double) tlegacy / theap);
+			}
+		}
+	}
+}
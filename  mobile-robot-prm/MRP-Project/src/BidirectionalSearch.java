@@ -0,0 +1,114 @@
+/*
+ * BidirectionalSearch.java
+ *
+ * Bidirectional A* over a RoadmapGraph. One search grows from the start
+ * and one from the destination, and each step expands the side whose
+ * smallest key is lower. Both sides use the average potential
+ * p(v) = (h(v,dest) - h(v,start)) / 2, with p for the forward search and
+ * -p for the reverse one. h is LandmarkTable.estimate, or straight-line
+ * distance without landmarks. The potentials are consistent, so the
+ * search can stop as soon as the two smallest keys add up to the best
+ * meeting cost found so far, and the path is optimal.
+ *
+ * The state of each side lives in its own SearchContext. When a path is
+ * found, the reverse half is spliced into the forward context, so the
+ * forward context's parents lead from dest back to start exactly as
+ * after a one-directional AStarSearch.
+ */
+public class BidirectionalSearch {
+
+	// plan a path from start to dest over the edges not marked ProbRoadMap.EDGE_INVALID
+	// in edgestates (null means all edges are usable), landmarks may be null
+	// the path is written into path as far as it fits (path may be null)
+	// returns the number of vertices on the path, or -1 if there is none
+	public static int search(RoadmapGraph graph, int pts[][], byte edgestates[], int start, int dest,
+	                         LandmarkTable landmarks, SearchContext forward, SearchContext reverse, int path[]) {
+		forward.ensureCapacity(graph.numVertices());
+		reverse.ensureCapacity(graph.numVertices());
+		forward.begin();
+		reverse.begin();
+		if(landmarks != null && !landmarks.mayConnect(start, dest)) {
+			return -1;
+		}
+		IndexedMinHeap fopen = forward.getOpenSet(), ropen = reverse.getOpenSet();
+
+		forward.reach(start, 0.0, -1);
+		reverse.reach(dest, 0.0, -1);
+		fopen.insertOrDecrease(start, potential(pts, landmarks, start, start, dest));
+		ropen.insertOrDecrease(dest, -potential(pts, landmarks, dest, start, dest));
+		double best = (start == dest) ? 0.0 : Double.POSITIVE_INFINITY; // cost of the best meeting so far
+		int meet = (start == dest) ? start : -1;
+
+		while(!fopen.isEmpty() && !ropen.isEmpty()) {
+			double fkey = fopen.key(fopen.peek()), rkey = ropen.key(ropen.peek());
+			if(fkey + rkey >= best) {
+				break; // no shorter path can still be found
+			}
+			boolean isforward = fkey <= rkey;
+			SearchContext context = isforward ? forward : reverse;
+			SearchContext other = isforward ? reverse : forward;
+			IndexedMinHeap open = isforward ? fopen : ropen;
+			double sign = isforward ? 1.0 : -1.0;
+
+			int x = open.poll();
+			context.close(x);
+			double gx = context.gscore(x);
+
+			// iterate over x neighbors, edges are undirected so both sides use the same rows
+			for(int e = graph.firstEdge(x); e < graph.endEdge(x); e++) {
+				if(edgestates != null && edgestates[e] == ProbRoadMap.EDGE_INVALID) {
+					continue;
+				}
+				int y = graph.target(e);
+				if(context.isClosed(y)) {
+					continue;
+				}
+				double tmpgscore = gx + graph.length(e);
+				if(tmpgscore < context.gscore(y)) {
+					// best found so far
+					context.reach(y, tmpgscore, x);
+					open.insertOrDecrease(y, tmpgscore + sign * potential(pts, landmarks, y, start, dest));
+					if(tmpgscore + other.gscore(y) < best) {
+						best = tmpgscore + other.gscore(y);
+						meet = y;
+					}
+				}
+			}
+		}
+		if(meet < 0) {
+			// if we made it this far without meeting, a path cannot be formed
+			return -1;
+		}
+		splice(forward, reverse, meet);
+		return (path != null) ? forward.copyPath(dest, path) : forward.pathLength(dest);
+	}
+
+	// forward potential of v for a query from start to dest
+	private static double potential(int pts[][], LandmarkTable landmarks, int v, int start, int dest) {
+		if(landmarks != null) {
+			return 0.5 * (landmarks.estimate(pts, v, dest) - landmarks.estimate(pts, v, start));
+		}
+		return 0.5 * (AStarSearch.distance(pts[v][0], pts[v][1], pts[dest][0], pts[dest][1]) -
+		              AStarSearch.distance(pts[v][0], pts[v][1], pts[start][0], pts[start][1]));
+	}
+
+	// append the reverse path from meet to the destination onto the forward path to meet
+	private static void splice(SearchContext forward, SearchContext reverse, int meet) {
+		// zero length edges (coincident points) can put a vertex on both halves,
+		// meeting at the last such vertex instead keeps the joined path simple
+		for(int w = reverse.parent(meet); w >= 0; w = reverse.parent(w)) {
+			for(int v = forward.parent(meet); v >= 0; v = forward.parent(v)) {
+				if(v == w) {
+					meet = w;
+					break;
+				}
+			}
+		}
+		double g = forward.gscore(meet);
+		for(int v = meet; reverse.parent(v) >= 0; v = reverse.parent(v)) {
+			int w = reverse.parent(v);
+			g += reverse.gscore(v) - reverse.gscore(w);
+			forward.reach(w, g, v);
+		}
+	}
+}
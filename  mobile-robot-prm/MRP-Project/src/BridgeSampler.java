@@ -0,0 +1,108 @@
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+/*
+ * BridgeSampler.java
+ *
+ * Bridge test sampling for narrow passages. Based on: Hsu, Jiang, Reif and
+ * Sun, "The Bridge Test for Sampling Narrow Passages with Probabilistic
+ * Roadmap Planners" (2003). A candidate is a pair of invalid cells a
+ * normally distributed distance apart. When the midpoint between them is
+ * valid, the pair is a short bridge across free space and the midpoint is
+ * kept. Wide open areas almost never pass, doorways and gaps often do.
+ */
+public class BridgeSampler implements Sampler {
+
+	private final OccupancyGrid layer;
+	private final double sigma; // spread of the bridge ends in px
+
+	public BridgeSampler(OccupancyGrid layer, double sigma) {
+		this.layer = layer;
+		this.sigma = sigma;
+	}
+
+	public void prepare(long seed) {
+		// nothing to prepare, the chunk streams carry all randomness
+	}
+
+	public boolean sample(long i, SplittableRandom rand, int pt[]) {
+		int x1 = rand.nextInt(layer.getWidth());
+		int y1 = rand.nextInt(layer.getHeight());
+		if(layer.isFree(x1,y1)) {
+			return false;
+		}
+		int x2 = x1 + (int) Math.round(GaussianSampler.nextGaussian(rand) * sigma);
+		int y2 = y1 + (int) Math.round(GaussianSampler.nextGaussian(rand) * sigma);
+		if(layer.isFree(x2,y2)) {
+			return false;
+		}
+		int mx = (x1 + x2) >> 1;
+		int my = (y1 + y2) >> 1;
+		if(!layer.isFree(mx,my)) {
+			return false;
+		}
+		pt[0] = mx;
+		pt[1] = my;
+		return true;
+	}
+
+
+	// TEST - compare how well the samplers connect a roadmap
+	// usage: java BridgeSampler [map_file] [num_pts] [seed]
+	public static void main(String args[]) throws IOException {
+		String mapfile = (args.length > 0) ? args[0] : ProbRoadMap.DEFAULT_MAP_FILE;
+		int numpts = (args.length > 1) ? Integer.parseInt(args[1]) : 300;
+		long seed = (args.length > 2) ? Long.parseLong(args[2]) : 42L;
+
+		MapLoader.LoadedMap map = MapLoader.load(mapfile);
+		ConfigurationSpace cspace = new ConfigurationSpace(map.grid);
+		DistanceField field = new DistanceField(map.grid);
+		OccupancyGrid layer = cspace.getLayer(ProbRoadMap.POINT_BUFFER_ZONE);
+		FreeSpaceIndex index = new FreeSpaceIndex(layer);
+		EdgeValidator validator = new EdgeValidator(field, cspace, ProbRoadMap.PATH_BUFFER_ZONE-1);
+		ParallelSampler engine = new ParallelSampler();
+		double sigma = ProbRoadMap.NARROW_PASSAGE_SIGMA;
+
+		String names[] = {"uniform", "gaussian", "bridge", "medial", "uniform:0.5,bridge:0.25,medial:0.25"};
+		Sampler mixes[][] = {
+			{new UniformSampler(index)},
+			{new GaussianSampler(layer, sigma)},
+			{new BridgeSampler(layer, sigma)},
+			{new MedialAxisSampler(index, field)},
+			{new UniformSampler(index), new BridgeSampler(layer, sigma), new MedialAxisSampler(index, field)}};
+		double ratios[][] = {{1}, {1}, {1}, {1}, {0.5, 0.25, 0.25}};
+		int trials = 20;
+		for(int s = 0; s < mixes.length; s++) {
+			SplittableRandom seeds = new SplittableRandom(seed);
+			int components = 0, connected = 0;
+			for(int t = 0; t < trials; t++) {
+				int pts[][] = new int[numpts][2];
+				engine.sample(mixes[s], ratios[s], seeds.nextLong(), pts, 0, numpts);
+
+				// components of the all-pairs roadmap
+				int parent[] = new int[numpts];
+				for(int i = 0; i < numpts; i++) {
+					parent[i] = i;
+				}
+				int count = numpts;
+				for(int i = 0; i < numpts; i++) {
+					for(int j = i+1; j < numpts; j++) {
+						int a = i, b = j;
+						while(parent[a] != a) { a = parent[a]; }
+						while(parent[b] != b) { b = parent[b]; }
+						if(a != b && validator.isPathClear(pts[i][0], pts[i][1], pts[j][0], pts[j][1])) {
+							parent[a] = b;
+							count--;
+						}
+					}
+				}
+				components += count;
+				if(count == 1) {
+					connected++;
+				}
+			}
+			System.out.printf("%-36s %d pts: %.1f components on average, connected %d of %d\n",
+			                  names[s], numpts, (double) components/trials, connected, trials);
+		}
+	}
+}
@@ -0,0 +1,165 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/*
+ * ConfigurationSpace.java
+ *
+ * Configuration space layers for circular robot footprints. Each layer is
+ * the obstacle map dilated by a disk of the footprint radius, so a robot
+ * centered on a free layer cell touches no obstacle, and point and path
+ * tests read one bit per pixel instead of scanning a neighbourhood.
+ *
+ * Layers are computed on demand and cached per radius, so several robot
+ * sizes share one obstacle map. The dilation is bit-parallel: every row
+ * is dilated horizontally with 64-cell word shifts, and the disk is the
+ * union of one horizontally dilated row per vertical offset.
+ */
+public class ConfigurationSpace {
+
+	private final OccupancyGrid grid;
+	private final Map<Integer,OccupancyGrid> layers = new HashMap<Integer,OccupancyGrid>();
+
+	public ConfigurationSpace(OccupancyGrid grid) {
+		this.grid = grid;
+	}
+
+	public OccupancyGrid getObstacleMap() { return grid; }
+
+	// pixels needed to cover a footprint radius given in meters
+	public static int radiusFor(double meters, double mpp) {
+		return (int) Math.ceil(meters / mpp);
+	}
+
+	// obstacle map dilated by a disk of radius px (cells with dx^2 + dy^2 <= radius^2)
+	// a layer cell is free exactly when DistanceField.isClear(x,y,radius) holds
+	public synchronized OccupancyGrid getLayer(int radius) {
+		OccupancyGrid layer = layers.get(radius);
+		if(layer == null) {
+			layer = dilate(grid, radius);
+			layers.put(radius, layer);
+		}
+		return layer;
+	}
+
+	// add an obstacle to the map and to every cached layer
+	public synchronized void addObstacle(int x, int y) {
+		if(!grid.inBounds(x,y)) {
+			return;
+		}
+		grid.setObstacleUnchecked(x,y);
+		Iterator<Map.Entry<Integer,OccupancyGrid>> iter = layers.entrySet().iterator();
+		while(iter.hasNext()) {
+			Map.Entry<Integer,OccupancyGrid> entry = iter.next();
+			int radius = entry.getKey();
+			OccupancyGrid layer = entry.getValue();
+			for(int dy = -radius; dy <= radius; dy++) {
+				int halfwidth = halfWidth(radius, dy);
+				int row = y + dy;
+				if(row >= 0 && row < layer.getHeight()) {
+					for(int cx = Math.max(x-halfwidth, 0); cx <= Math.min(x+halfwidth, layer.getWidth()-1); cx++) {
+						layer.setObstacleUnchecked(cx,row);
+					}
+				}
+			}
+		}
+	}
+
+	// forget cached layers, e.g. after cells were cleared
+	public synchronized void invalidate() {
+		layers.clear();
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Dilation
+	///////////////////////////////////////////////////////////////////
+
+	// half width of the disk row dy rows from the center
+	private static int halfWidth(int radius, int dy) {
+		int hw = (int) Math.sqrt((double) radius*radius - (double) dy*dy);
+		// guard against sqrt rounding
+		while((long) (hw+1)*(hw+1) + (long) dy*dy <= (long) radius*radius) { hw++; }
+		while((long) hw*hw + (long) dy*dy > (long) radius*radius) { hw--; }
+		return hw;
+	}
+
+	// dilate by a disk, cells outside of the map are free
+	static OccupancyGrid dilate(OccupancyGrid grid, int radius) {
+		if(radius <= 0) {
+			return new OccupancyGrid(grid);
+		}
+		int width = grid.getWidth(), height = grid.getHeight();
+		int wpr = grid.getWordsPerRow();
+		long src[] = grid.getWords();
+		OccupancyGrid out = new OccupancyGrid(width,height);
+		long dst[] = out.getWords();
+
+		int halfwidths[] = new int[2*radius+1];
+		for(int dy = -radius; dy <= radius; dy++) {
+			halfwidths[dy+radius] = halfWidth(radius, dy);
+		}
+
+		// intermediate doubling steps stay within radius cells of the original bits,
+		// margins on both sides keep bits that leave the map and come back
+		int margin = (radius + 63) >>> 6;
+		long row[] = new long[wpr + 2*margin];
+		long tmp[] = new long[wpr + 2*margin];
+		long lastmask = ((width & 63) == 0) ? -1L : (1L << (width & 63)) - 1;
+
+		for(int y = 0; y < height; y++) {
+			int dststart = y * wpr;
+			for(int dy = -radius; dy <= radius; dy++) {
+				int sy = y + dy;
+				if(sy < 0 || sy >= height) {
+					continue;
+				}
+				Arrays.fill(row, 0L);
+				System.arraycopy(src, sy*wpr, row, margin, wpr);
+				dilateRow(row, tmp, halfwidths[dy+radius]);
+				for(int w = 0; w < wpr; w++) {
+					dst[dststart + w] |= row[margin + w];
+				}
+			}
+			dst[dststart + wpr-1] &= lastmask; // keep the row padding clear
+		}
+		return out;
+	}
+
+	// row |= row shifted by every offset in [-halfwidth, halfwidth], by doubling
+	private static void dilateRow(long row[], long tmp[], int halfwidth) {
+		int covered = 0;
+		while(covered < halfwidth) {
+			int shift = Math.min(covered+1, halfwidth-covered);
+			System.arraycopy(row, 0, tmp, 0, row.length);
+			orShifted(row, tmp, shift);
+			orShifted(row, tmp, -shift);
+			covered += shift;
+		}
+	}
+
+	// row |= src shifted by shift cells (positive shifts move cells to higher x)
+	private static void orShifted(long row[], long src[], int shift) {
+		int n = row.length;
+		int words = Math.abs(shift) >>> 6;
+		int bits = Math.abs(shift) & 63;
+		if(shift > 0) {
+			for(int i = n-1; i >= words; i--) {
+				long v = src[i-words] << bits;
+				if(bits != 0 && i-words-1 >= 0) {
+					v |= src[i-words-1] >>> (64-bits);
+				}
+				row[i] |= v;
+			}
+		} else {
+			for(int i = 0; i + words < n; i++) {
+				long v = src[i+words] >>> bits;
+				if(bits != 0 && i+words+1 < n) {
+					v |= src[i+words+1] << (64-bits);
+				}
+				row[i] |= v;
+			}
+		}
+	}
+}
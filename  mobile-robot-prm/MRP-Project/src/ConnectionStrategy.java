@@ -0,0 +1,242 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+ * ConnectionStrategy.java
+ *
+ * Chooses which pairs of roadmap points are tested for an edge. Instead of
+ * every pair, a point is only tried against its k nearest neighbours or the
+ * points within a radius, found with a KDTree (or a PointGrid for points
+ * added later). The PRM* variants scale k or the radius with log(n) as in
+ * Karaman and Frazzoli, "Sampling-based Algorithms for Optimal Motion
+ * Planning" (2011), which keeps the roadmap connected as it grows while
+ * testing O(n log n) pairs.
+ */
+public class ConnectionStrategy {
+
+	public static final int ALL = 0;             // every pair, as genAllEdges always did
+	public static final int K_NEAREST = 1;       // k nearest neighbours
+	public static final int RADIUS = 2;          // neighbours within a radius in px
+	public static final int PRM_STAR_K = 3;      // k = e (1 + 1/d) log n
+	public static final int PRM_STAR_RADIUS = 4; // r = gamma (log n / n)^(1/d)
+
+	private static final int DIMENSIONS = 2;
+	private static final int MAX_PAIRS = Integer.MAX_VALUE - 8; // largest array the VM reliably allocates
+
+	private final int mode;
+	private final double param; // k or radius
+
+	public ConnectionStrategy(int mode, double param) {
+		this.mode = mode;
+		this.param = param;
+	}
+
+	// strategy for a spec: all, knn:k, radius:r, prmstar or prmstar:radius
+	public static ConnectionStrategy parse(String spec) {
+		String part[] = spec.trim().split(":");
+		String name = part[0];
+		if(name.equals("all") && part.length == 1) {
+			return new ConnectionStrategy(ALL, 0);
+		} else if(name.equals("knn") && part.length == 2) {
+			return new ConnectionStrategy(K_NEAREST, Integer.parseInt(part[1]));
+		} else if(name.equals("radius") && part.length == 2) {
+			return new ConnectionStrategy(RADIUS, Double.parseDouble(part[1]));
+		} else if(name.equals("prmstar") && part.length == 1) {
+			return new ConnectionStrategy(PRM_STAR_K, 0);
+		} else if(name.equals("prmstar") && part.length == 2 && part[1].equals("radius")) {
+			return new ConnectionStrategy(PRM_STAR_RADIUS, 0);
+		}
+		throw new IllegalArgumentException("unknown connection strategy: " + spec);
+	}
+
+	public int getMode() { return mode; }
+
+	// true if radius() depends on the size of free space
+	public boolean usesFreeSpace() { return mode == PRM_STAR_RADIUS; }
+
+	// number of neighbours tried per point for n points
+	public int neighbours(int n) {
+		if(mode == K_NEAREST) {
+			return (int) param;
+		}
+		// kPRM* with d = 2
+		return (int) Math.ceil(Math.E * (1.0 + 1.0/DIMENSIONS) * Math.log(Math.max(n,2)));
+	}
+
+	// connection radius in px for n points in freecells of free space
+	public double radius(int n, long freecells) {
+		if(mode == RADIUS) {
+			return param;
+		}
+		// gamma just above 2 (1 + 1/d)^(1/d) (free area / unit disk area)^(1/d), d = 2
+		double gamma = 1.001 * 2.0 * Math.sqrt(1.0 + 1.0/DIMENSIONS) * Math.sqrt(freecells / Math.PI);
+		return gamma * Math.sqrt(Math.log(Math.max(n,2)) / Math.max(n,1));
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Candidate Pairs
+	///////////////////////////////////////////////////////////////////
+
+	// pairs to test as edges, each encoded as (i << 32 | j) with i < j, sorted and unique
+	// freecells is the size of the valid space, used by PRM_STAR_RADIUS
+	public long[] candidatePairs(int pts[][], long freecells) {
+		int n = pts.length;
+		if(mode == ALL) {
+			long total = (long) n * (n-1) / 2;
+			if(total > MAX_PAIRS) {
+				throw new IllegalArgumentException("connection strategy all needs " + total + " pairs for "
+				                                   + n + " points, more than " + MAX_PAIRS + "; use knn or prmstar");
+			}
+			long pairs[] = new long[(int) total];
+			int count = 0;
+			for(int i = 0; i < n; i++) {
+				for(int j = i+1; j < n; j++) {
+					pairs[count++] = pair(i,j);
+				}
+			}
+			return pairs;
+		}
+
+		KDTree tree = new KDTree(pts);
+		long pairs[] = new long[Math.max(16, n * 8)];
+		int count = 0;
+		if(mode == K_NEAREST || mode == PRM_STAR_K) {
+			// ask for one extra since the point itself is among its nearest
+			int k = Math.min(neighbours(n) + 1, n);
+			int near[] = new int[k];
+			for(int i = 0; i < n; i++) {
+				int found = tree.nearest(pts[i][0], pts[i][1], k, near);
+				for(int m = 0; m < found; m++) {
+					if(near[m] != i) {
+						if(count == pairs.length) {
+							pairs = Arrays.copyOf(pairs, 2 * count);
+						}
+						pairs[count++] = pair(Math.min(i, near[m]), Math.max(i, near[m]));
+					}
+				}
+			}
+		} else {
+			double r = radius(n, freecells);
+			for(int i = 0; i < n; i++) {
+				int near[] = tree.withinRadius(pts[i][0], pts[i][1], r);
+				for(int m = 0; m < near.length; m++) {
+					if(near[m] > i) { // symmetric, keep each pair once
+						if(count == pairs.length) {
+							pairs = Arrays.copyOf(pairs, 2 * count);
+						}
+						pairs[count++] = pair(i, near[m]);
+					}
+				}
+			}
+		}
+
+		// sort and drop duplicates (k nearest is not symmetric)
+		Arrays.sort(pairs, 0, count);
+		int unique = 0;
+		for(int m = 0; m < count; m++) {
+			if(unique == 0 || pairs[m] != pairs[unique-1]) {
+				pairs[unique++] = pairs[m];
+			}
+		}
+		return Arrays.copyOf(pairs, unique);
+	}
+
+	// pairs between point i and the points it would be connected to, sorted
+	// used to connect a point added after the roadmap was built, points is the spatial
+	// index of the roadmap points, i included, so no tree over every point is built
+	public long[] candidatePairs(PointGrid points, int pts[][], int i, long freecells) {
+		int n = points.size();
+		int near[];
+		int found;
+		if(mode == ALL) {
+			near = points.withinRadius(pts[i][0], pts[i][1], Double.POSITIVE_INFINITY);
+			found = near.length;
+		} else if(mode == K_NEAREST || mode == PRM_STAR_K) {
+			near = new int[Math.min(neighbours(n) + 1, n)];
+			found = points.nearest(pts[i][0], pts[i][1], near.length, near);
+		} else {
+			near = points.withinRadius(pts[i][0], pts[i][1], radius(n, freecells));
+			found = near.length;
+		}
+		long pairs[] = new long[found];
+		int count = 0;
+		for(int m = 0; m < found; m++) {
+			if(near[m] != i) {
+				pairs[count++] = pair(Math.min(i, near[m]), Math.max(i, near[m]));
+			}
+		}
+		Arrays.sort(pairs, 0, count);
+		return Arrays.copyOf(pairs, count);
+	}
+
+	public static long pair(int i, int j) {
+		return ((long) i << 32) | j;
+	}
+
+	public static int first(long pair) {
+		return (int) (pair >>> 32);
+	}
+
+	public static int second(long pair) {
+		return (int) pair;
+	}
+
+	public String toString() {
+		switch(mode) {
+			case ALL:             return "all";
+			case K_NEAREST:       return "knn:" + (int) param;
+			case RADIUS:          return "radius:" + param;
+			case PRM_STAR_K:      return "prmstar";
+			default:              return "prmstar:radius";
+		}
+	}
+
+
+	// TEST - edge checks and roadmap components per strategy
+	// usage: java ConnectionStrategy [map_file] [num_pts] [seed]
+	public static void main(String args[]) throws IOException {
+		String mapfile = (args.length > 0) ? args[0] : ProbRoadMap.DEFAULT_MAP_FILE;
+		int numpts = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+		long seed = (args.length > 2) ? Long.parseLong(args[2]) : 42L;
+
+		MapLoader.LoadedMap map = MapLoader.load(mapfile);
+		ConfigurationSpace cspace = new ConfigurationSpace(map.grid);
+		DistanceField field = new DistanceField(map.grid);
+		FreeSpaceIndex index = new FreeSpaceIndex(cspace.getLayer(ProbRoadMap.POINT_BUFFER_ZONE));
+		EdgeValidator validator = new EdgeValidator(field, cspace, ProbRoadMap.PATH_BUFFER_ZONE-1);
+		int pts[][] = new int[numpts][2];
+		new ParallelSampler().sample(index, seed, pts, 0, numpts);
+
+		String specs[] = {"all", "knn:10", "knn:15", "radius:60", "prmstar", "prmstar:radius"};
+		for(int s = 0; s < specs.length; s++) {
+			ConnectionStrategy strategy = parse(specs[s]);
+			long t = System.nanoTime();
+			long pairs[] = strategy.candidatePairs(pts, index.size());
+			long tpairs = System.nanoTime() - t;
+
+			int parent[] = new int[numpts];
+			for(int i = 0; i < numpts; i++) {
+				parent[i] = i;
+			}
+			int components = numpts, edges = 0;
+			t = System.nanoTime();
+			for(int m = 0; m < pairs.length; m++) {
+				int i = first(pairs[m]), j = second(pairs[m]);
+				if(validator.isPathClear(pts[i][0], pts[i][1], pts[j][0], pts[j][1])) {
+					edges++;
+					int a = i, b = j;
+					while(parent[a] != a) { a = parent[a]; }
+					while(parent[b] != b) { b = parent[b]; }
+					if(a != b) {
+						parent[a] = b;
+						components--;
+					}
+				}
+			}
+			long tedges = System.nanoTime() - t;
+			System.out.printf("%-15s %7d checks, %6d edges, %2d components, pairs %.1f ms, edges %.1f ms\n",
+			                  specs[s], pairs.length, edges, components, tpairs/1e6, tedges/1e6);
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * DistanceField.java
+ *
+ * Exact Euclidean distance transform of an OccupancyGrid.
+ * Algorithm based on: Felzenszwalb and Huttenlocher, "Distance Transforms
+ * of Sampled Functions" (2004). Two separable passes, linear in the number
+ * of map cells.
+ */
+
+// distance from every map cell to the nearest obstacle cell, in pixels
+// stored row-major as unsigned 8.8 fixed point, 2 bytes per cell
+// distances saturate at MAX_CLEARANCE, cells beyond the map edge are not obstacles
+public class DistanceField {
+
+	public static final int FRACTION_BITS = 8;
+	public static final int ONE = 1 << FRACTION_BITS;
+	public static final float MAX_CLEARANCE = (float) Character.MAX_VALUE / ONE; // ~256 px
+
+	private static final char INF = Character.MAX_VALUE;
+
+	private final int width;
+	private final int height;
+	private final char dist[];
+
+	// compute the distance field of a grid
+	public DistanceField(OccupancyGrid grid) {
+		this.width = grid.getWidth();
+		this.height = grid.getHeight();
+		this.dist = new char[width * height];
+		columnPass(grid);
+		rowPass();
+	}
+
+	public int getWidth() { return width; }
+
+	public int getHeight() { return height; }
+
+
+	///////////////////////////////////////////////////////////////////
+	// Queries
+	///////////////////////////////////////////////////////////////////
+
+	// distance in pixels to the nearest obstacle, 0 on an obstacle or outside of the map
+	public float clearanceAt(int x, int y) {
+		if(x < 0 || x >= width || y < 0 || y >= height) {
+			return 0.0f;
+		}
+		return (float) dist[y * width + x] / ONE;
+	}
+
+	// no obstacle within radius px of the cell, i.e. clearanceAt(x,y) > radius
+	// exact for integer radii below MAX_CLEARANCE/2
+	public boolean isClear(int x, int y, int radius) {
+		if(x < 0 || x >= width || y < 0 || y >= height) {
+			return false;
+		}
+		return dist[y * width + x] > radius * ONE;
+	}
+
+	// same as clearanceAt(), caller guarantees the cell is in the map
+	public float clearanceAtUnchecked(int x, int y) {
+		return (float) dist[y * width + x] / ONE;
+	}
+
+	// approximate heap footprint of the distance data in bytes
+	public long sizeInBytes() {
+		return 2L * dist.length;
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Transform
+	///////////////////////////////////////////////////////////////////
+
+	// vertical distance to the nearest obstacle in the same column
+	// computed for all columns at once so the scans run along rows
+	private void columnPass(OccupancyGrid grid) {
+		// top down
+		for(int y = 0; y < height; y++) {
+			int row = y * width;
+			for(int x = 0; x < width; x++) {
+				if(!grid.isFreeUnchecked(x,y)) {
+					dist[row + x] = 0;
+				} else if(y > 0 && dist[row - width + x] != INF) {
+					dist[row + x] = (char) (dist[row - width + x] + 1);
+				} else {
+					dist[row + x] = INF;
+				}
+			}
+		}
+		// bottom up
+		for(int y = height-2; y >= 0; y--) {
+			int row = y * width;
+			for(int x = 0; x < width; x++) {
+				int below = dist[row + width + x];
+				if(below != INF && below + 1 < dist[row + x]) {
+					dist[row + x] = (char) (below + 1);
+				}
+			}
+		}
+	}
+
+	// combine the column distances along each row with the lower envelope of parabolas
+	// each row is overwritten in place with its final fixed point distances
+	private void rowPass() {
+		double f[] = new double[width];  // squared column distance
+		int v[] = new int[width];        // parabola locations in the lower envelope
+		double z[] = new double[width+1];// envelope boundaries
+
+		for(int y = 0; y < height; y++) {
+			int row = y * width;
+
+			// build the lower envelope of the finite parabolas
+			int k = -1;
+			for(int q = 0; q < width; q++) {
+				int g = dist[row + q];
+				if(g == INF) {
+					continue;
+				}
+				f[q] = (double) g * g;
+				if(k < 0) {
+					k = 0; v[0] = q; z[0] = Double.NEGATIVE_INFINITY; z[1] = Double.POSITIVE_INFINITY;
+					continue;
+				}
+				double s = intersect(f, q, v[k]);
+				while(s <= z[k]) {
+					k--;
+					s = intersect(f, q, v[k]);
+				}
+				k++;
+				v[k] = q;
+				z[k] = s;
+				z[k+1] = Double.POSITIVE_INFINITY;
+			}
+
+			// no obstacle in any column that reaches this row
+			if(k < 0) {
+				for(int q = 0; q < width; q++) {
+					dist[row + q] = INF;
+				}
+				continue;
+			}
+
+			// sample the envelope
+			int j = 0;
+			for(int q = 0; q < width; q++) {
+				while(z[j+1] < q) {
+					j++;
+				}
+				double dq = q - v[j];
+				dist[row + q] = toFixed(Math.sqrt(dq*dq + f[v[j]]));
+			}
+		}
+	}
+
+	// intersection of the parabolas rooted at q and p
+	private static double intersect(double f[], int q, int p) {
+		return ((f[q] + (double) q*q) - (f[p] + (double) p*p)) / (2.0*q - 2.0*p);
+	}
+
+	// distances are rounded down so clearance tests never overestimate
+	private static char toFixed(double d) {
+		double fixed = Math.floor(d * ONE);
+		return (fixed >= INF) ? INF : (char) fixed;
+	}
+}
@@ -0,0 +1,186 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * DistanceMatrix.java
+ *
+ * Shortest roadmap distances between every pair of a few chosen vertices
+ * (the stops of a mission). Each row is one Dijkstra search from its stop,
+ * and it ends as soon as every other stop is settled. Rows are computed in
+ * parallel on a ForkJoinPool, one search per task with its own heap, so no
+ * state is shared. Edges marked EDGE_INVALID are skipped. Unchecked edges of a lazy
+ * roadmap count with their length, so distances there are optimistic.
+ */
+public class DistanceMatrix {
+
+	private final RoadmapGraph graph;
+	private final int stops[];     // vertex of each stop
+	private final double dist[][]; // dist[a][b] from stop a to stop b, infinite if unreachable
+
+	public DistanceMatrix(RoadmapGraph graph, int stops[]) {
+		this(graph, stops, ForkJoinPool.commonPool());
+	}
+
+	public DistanceMatrix(RoadmapGraph graph, int stops[], ForkJoinPool pool) {
+		this.graph = graph;
+		this.stops = stops.clone();
+		this.dist = new double[stops.length][];
+		if(stops.length > 0) {
+			pool.invoke(new RowTask(graph, this.stops, dist, 0, stops.length));
+		}
+	}
+
+	public RoadmapGraph getGraph() { return graph; }
+
+	public int numStops() { return stops.length; }
+
+	public int getStop(int a) { return stops[a]; }
+
+	// stop number of vertex v, or -1 if it is not a stop
+	public int indexOf(int v) {
+		for(int a = 0; a < stops.length; a++) {
+			if(stops[a] == v) {
+				return a;
+			}
+		}
+		return -1;
+	}
+
+	public double distance(int a, int b) {
+		return dist[a][b];
+	}
+
+	// row of source: the distance from it to every stop
+	// (sequential, a search that stops once every stop is settled)
+	public static double[] row(RoadmapGraph graph, int stops[], int source) {
+		int n = graph.numVertices();
+		double d[] = new double[n];
+		Arrays.fill(d, Double.POSITIVE_INFINITY);
+		boolean isstop[] = new boolean[n];
+		int remaining = 0;
+		for(int b = 0; b < stops.length; b++) {
+			if(!isstop[stops[b]]) {
+				isstop[stops[b]] = true;
+				remaining++;
+			}
+		}
+		IndexedMinHeap heap = new IndexedMinHeap(n);
+		d[source] = 0.0;
+		heap.insertOrDecrease(source, 0.0);
+		while(!heap.isEmpty() && remaining > 0) {
+			int x = heap.poll();
+			if(isstop[x]) {
+				remaining--;
+			}
+			for(int e = graph.firstEdge(x); e < graph.endEdge(x); e++) {
+				if(graph.state(e) == ProbRoadMap.EDGE_INVALID) {
+					continue;
+				}
+				int y = graph.target(e);
+				double dy = d[x] + graph.length(e);
+				if(dy < d[y]) {
+					d[y] = dy;
+					heap.insertOrDecrease(y, dy);
+				}
+			}
+		}
+		double row[] = new double[stops.length];
+		for(int b = 0; b < stops.length; b++) {
+			row[b] = d[stops[b]]; // settled, or infinite if the search ran out
+		}
+		return row;
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Tasks
+	///////////////////////////////////////////////////////////////////
+
+	// computes rows [lo,hi), halving until a single row is left
+	private static class RowTask extends RecursiveAction {
+
+		private static final long serialVersionUID = -4261274696254681412L;
+
+		private final RoadmapGraph graph;
+		private final int stops[];
+		private final double dist[][];
+		private final int lo, hi;
+
+		RowTask(RoadmapGraph graph, int stops[], double dist[][], int lo, int hi) {
+			this.graph = graph;
+			this.stops = stops;
+			this.dist = dist;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		protected void compute() {
+			if(hi - lo > 1) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new RowTask(graph, stops, dist, lo, mid),
+				          new RowTask(graph, stops, dist, mid, hi));
+				return;
+			}
+			dist[lo] = row(graph, stops, stops[lo]);
+		}
+	}
+
+
+	// TEST - compare matrix entries with A* and time parallel against sequential rows
+	// usage: java DistanceMatrix [map_file] [num_pts] [num_stops] [connection] [seed]
+	public static void main(String args[]) throws IOException {
+		String mapfile = (args.length > 0) ? args[0] : ProbRoadMap.DEFAULT_MAP_FILE;
+		int numpts = (args.length > 1) ? Integer.parseInt(args[1]) : 5000;
+		int numstops = (args.length > 2) ? Integer.parseInt(args[2]) : 20;
+		String spec = (args.length > 3) ? args[3] : "prmstar";
+		long seed = (args.length > 4) ? Long.parseLong(args[4]) : 42L;
+
+		MapLoader.LoadedMap map = MapLoader.load(mapfile);
+		ConfigurationSpace cspace = new ConfigurationSpace(map.grid);
+		DistanceField field = new DistanceField(map.grid);
+		FreeSpaceIndex index = new FreeSpaceIndex(cspace.getLayer(ProbRoadMap.POINT_BUFFER_ZONE));
+		EdgeValidator validator = new EdgeValidator(field, cspace, ProbRoadMap.PATH_BUFFER_ZONE-1);
+		int pts[][] = new int[numpts][2];
+		new ParallelSampler().sample(index, seed, pts, 0, numpts);
+		long pairs[] = ConnectionStrategy.parse(spec).candidatePairs(pts, index.size());
+		RoadmapGraph graph = new RoadmapGraph(pts, new ParallelEdgeBuilder().validate(validator, pts, pairs));
+		graph.fillStates(ProbRoadMap.EDGE_VALID);
+		int stops[] = new int[numstops];
+		for(int a = 0; a < numstops; a++) {
+			stops[a] = (int) ((long) a * numpts / numstops);
+		}
+
+		DistanceMatrix matrix = new DistanceMatrix(graph, stops);
+		SearchContext context = new SearchContext(numpts);
+		int errors = 0, unreachable = 0;
+		for(int a = 0; a < numstops; a++) {
+			for(int b = 0; b < numstops; b++) {
+				int length = AStarSearch.search(graph, pts, null, stops[a], stops[b], context, null);
+				double cost = (length < 0) ? Double.POSITIVE_INFINITY : context.gscore(stops[b]);
+				if(cost != matrix.distance(a,b) && Math.abs(cost - matrix.distance(a,b)) > 1e-6 * cost) {
+					errors++;
+				}
+				unreachable += (length < 0) ? 1 : 0;
+			}
+		}
+		System.out.printf("%d stops on %d vertices, %d edges: %d errors against A*, %d unreachable pairs\n",
+		                  numstops, numpts, graph.numEdges(), errors, unreachable);
+
+		int rounds = 5;
+		long tseq = 0, tpar = 0;
+		for(int round = 0; round < rounds; round++) { // only the last round is reported, the rest warm up
+			long t = System.nanoTime();
+			for(int a = 0; a < numstops; a++) {
+				row(graph, stops, stops[a]);
+			}
+			tseq = System.nanoTime() - t;
+			t = System.nanoTime();
+			new DistanceMatrix(graph, stops);
+			tpar = System.nanoTime() - t;
+		}
+		System.out.printf("sequential rows %.2f ms, parallel %.2f ms (%d threads)\n", tseq/1e6, tpar/1e6,
+		                  ForkJoinPool.commonPool().getParallelism());
+	}
+}
@@ -0,0 +1,292 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/*
+ * EdgeBucketGrid.java
+ *
+ * Spatial index of roadmap edges for map updates. The map is cut into
+ * square tiles, and each tile keeps a bucket of the edges whose corridor
+ * (the segment grown by reach px) overlaps it. A new obstacle cell marks
+ * its tile dirty. When the roadmap is brought up to date, only the edges
+ * in dirty tiles are checked again, so a sonar hit costs work proportional
+ * to the edges near it rather than to the whole roadmap.
+ *
+ * Edges are stored as point pairs (see ConnectionStrategy.pair) rather than
+ * edge slots, so buckets stay valid when the graph is rebuilt with more
+ * vertices or edges.
+ */
+public class EdgeBucketGrid {
+
+	public static final int DEFAULT_TILE = 16; // px
+
+	private final int tile;    // tile side in px
+	private final int reach;   // corridor half width in px
+	private final int tilesx, tilesy;
+	private long buckets[][];  // pairs whose corridor overlaps each tile
+	private int counts[];      // used length of each bucket
+	private boolean dirty[];   // tiles with new obstacles
+	private int dirtytiles[];  // the dirty tiles, in the order they were marked
+	private int numdirty;
+	private long numentries;
+
+	public EdgeBucketGrid(int width, int height, int tile, int reach) {
+		this.tile = tile;
+		this.reach = reach;
+		tilesx = (width + tile-1) / tile;
+		tilesy = (height + tile-1) / tile;
+		buckets = new long[tilesx * tilesy][];
+		counts = new int[tilesx * tilesy];
+		dirty = new boolean[tilesx * tilesy];
+		dirtytiles = new int[16];
+	}
+
+	public int getTile() { return tile; }
+
+	public int getReach() { return reach; }
+
+
+	///////////////////////////////////////////////////////////////////
+	// Edges
+	///////////////////////////////////////////////////////////////////
+
+	// forget all edges (dirty tiles are kept)
+	public void clear() {
+		Arrays.fill(buckets, null);
+		Arrays.fill(counts, 0);
+		numentries = 0;
+	}
+
+	// add every edge of graph
+	public void addAll(RoadmapGraph graph, int pts[][]) {
+		for(int u = 0; u < graph.numVertices(); u++) {
+			for(int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+				if(graph.target(e) > u) {
+					add(pts, u, graph.target(e));
+				}
+			}
+		}
+	}
+
+	// add the edge between points i and j to the tiles its corridor overlaps
+	public void add(int pts[][], int i, int j) {
+		update(pts, i, j, true);
+	}
+
+	// remove the edge between points i and j, added before with the same point positions,
+	// from the tiles its corridor overlaps
+	public void remove(int pts[][], int i, int j) {
+		update(pts, i, j, false);
+	}
+
+	private void update(int pts[][], int i, int j, boolean add) {
+		long pair = ConnectionStrategy.pair(Math.min(i,j), Math.max(i,j));
+		double x0 = pts[i][0], y0 = pts[i][1], x1 = pts[j][0], y1 = pts[j][1];
+		int ty0 = tileY(Math.min(y0, y1) - reach), ty1 = tileY(Math.max(y0, y1) + reach);
+		for(int ty = ty0; ty <= ty1; ty++) {
+			// part of the segment within the rows of this tile grown by reach
+			double lo = (double) ty*tile - reach, hi = (double) (ty+1)*tile - 1 + reach;
+			double xmin, xmax;
+			if(y0 == y1) {
+				xmin = Math.min(x0, x1);
+				xmax = Math.max(x0, x1);
+			} else {
+				double ta = (lo - y0) / (y1 - y0), tb = (hi - y0) / (y1 - y0);
+				double tmin = Math.max(0.0, Math.min(ta, tb)), tmax = Math.min(1.0, Math.max(ta, tb));
+				xmin = Math.min(x0 + tmin * (x1-x0), x0 + tmax * (x1-x0));
+				xmax = Math.max(x0 + tmin * (x1-x0), x0 + tmax * (x1-x0));
+			}
+			int tx0 = tileX(xmin - reach), tx1 = tileX(xmax + reach);
+			for(int tx = tx0; tx <= tx1; tx++) {
+				if(add) {
+					append(ty * tilesx + tx, pair);
+				} else {
+					delete(ty * tilesx + tx, pair);
+				}
+			}
+		}
+	}
+
+	private void append(int t, long pair) {
+		if(buckets[t] == null) {
+			buckets[t] = new long[4];
+		} else if(counts[t] == buckets[t].length) {
+			buckets[t] = Arrays.copyOf(buckets[t], 2 * counts[t]);
+		}
+		buckets[t][counts[t]++] = pair;
+		numentries++;
+	}
+
+	// order within a bucket does not matter, the last entry takes the place of the removed one
+	private void delete(int t, long pair) {
+		for(int m = 0; m < counts[t]; m++) {
+			if(buckets[t][m] == pair) {
+				buckets[t][m] = buckets[t][--counts[t]];
+				numentries--;
+				return;
+			}
+		}
+	}
+
+	private int tileX(double x) {
+		return Math.max(0, Math.min(tilesx-1, (int) Math.floor(x / tile)));
+	}
+
+	private int tileY(double y) {
+		return Math.max(0, Math.min(tilesy-1, (int) Math.floor(y / tile)));
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Dirty Tiles
+	///////////////////////////////////////////////////////////////////
+
+	// an obstacle appeared at map cell (x,y)
+	public void markDirty(int x, int y) {
+		int t = tileY(y) * tilesx + tileX(x);
+		if(!dirty[t]) {
+			dirty[t] = true;
+			if(numdirty == dirtytiles.length) {
+				dirtytiles = Arrays.copyOf(dirtytiles, 2 * numdirty);
+			}
+			dirtytiles[numdirty++] = t;
+		}
+	}
+
+	public boolean isDirty() { return numdirty > 0; }
+
+	public int getNumDirtyTiles() { return numdirty; }
+
+	// the edges in dirty tiles, sorted and unique, and mark every tile clean again
+	public long[] takeDirtyEdges() {
+		int total = 0;
+		for(int d = 0; d < numdirty; d++) {
+			total += counts[dirtytiles[d]];
+		}
+		long pairs[] = new long[total];
+		int count = 0;
+		for(int d = 0; d < numdirty; d++) {
+			int t = dirtytiles[d];
+			if(counts[t] > 0) {
+				System.arraycopy(buckets[t], 0, pairs, count, counts[t]);
+				count += counts[t];
+			}
+			dirty[t] = false;
+		}
+		numdirty = 0;
+
+		// an edge is in every tile its corridor overlaps
+		Arrays.sort(pairs);
+		int unique = 0;
+		for(int m = 0; m < count; m++) {
+			if(unique == 0 || pairs[m] != pairs[unique-1]) {
+				pairs[unique++] = pairs[m];
+			}
+		}
+		return Arrays.copyOf(pairs, unique);
+	}
+
+	// approximate heap footprint in bytes
+	public long sizeInBytes() {
+		return 8L * numentries + 16L * buckets.length;
+	}
+
+
+	// TEST - drop small obstacles on a roadmap and compare the rechecked edges with a full recheck
+	// usage: java EdgeBucketGrid [map_file] [num_pts] [obstacles] [seed]
+	public static void main(String args[]) throws IOException {
+		String mapfile = (args.length > 0) ? args[0] : ProbRoadMap.DEFAULT_MAP_FILE;
+		int numpts = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+		int numobstacles = (args.length > 2) ? Integer.parseInt(args[2]) : 50;
+		long seed = (args.length > 3) ? Long.parseLong(args[3]) : 42L;
+		int buffer = ProbRoadMap.PATH_BUFFER_ZONE-1;
+
+		MapLoader.LoadedMap map = MapLoader.load(mapfile);
+		OccupancyGrid grid = map.grid;
+		ConfigurationSpace cspace = new ConfigurationSpace(grid);
+		DistanceField field = new DistanceField(grid);
+		FreeSpaceIndex index = new FreeSpaceIndex(cspace.getLayer(ProbRoadMap.POINT_BUFFER_ZONE));
+		int pts[][] = new int[numpts][2];
+		new ParallelSampler().sample(index, seed, pts, 0, numpts);
+		long pairs[] = ConnectionStrategy.parse("prmstar").candidatePairs(pts, index.size());
+		long edges[] = new ParallelEdgeBuilder().validate(new EdgeValidator(field, cspace, buffer), pts, pairs);
+		RoadmapGraph graph = new RoadmapGraph(pts, edges);
+
+		long t = System.nanoTime();
+		EdgeBucketGrid buckets = new EdgeBucketGrid(grid.getWidth(), grid.getHeight(), DEFAULT_TILE, buffer+1);
+		buckets.addAll(graph, pts);
+		t = System.nanoTime() - t;
+		System.out.printf("%d edges, %dx%d px tiles: %.1f ms to build, %.1f KB\n",
+		                  graph.numEdges(), DEFAULT_TILE, DEFAULT_TILE, t/1e6, buckets.sizeInBytes()/1024.0);
+
+		// sonar-sized clusters of a few cells next to existing walls and in the open
+		EdgeValidator repair = new EdgeValidator(cspace, buffer);
+		boolean valid[] = new boolean[edges.length];
+		Arrays.fill(valid, true);
+		SplittableRandom rand = new SplittableRandom(seed);
+		long tgrid = 0, tfull = 0, rechecked = 0;
+		int missed = 0, blocked = 0;
+		for(int o = 0; o < numobstacles; o++) {
+			int cx = rand.nextInt(grid.getWidth()), cy = rand.nextInt(grid.getHeight());
+			for(int c = 0; c < 8; c++) {
+				int x = cx + rand.nextInt(5) - 2, y = cy + rand.nextInt(5) - 2;
+				if(grid.isFree(x,y)) {
+					cspace.addObstacle(x,y);
+					buckets.markDirty(x,y);
+				}
+			}
+
+			// only the edges near the obstacle
+			t = System.nanoTime();
+			long dirtyedges[] = buckets.takeDirtyEdges();
+			for(int m = 0; m < dirtyedges.length; m++) {
+				int i = ConnectionStrategy.first(dirtyedges[m]), j = ConnectionStrategy.second(dirtyedges[m]);
+				repair.isPathClear(pts[i][0], pts[i][1], pts[j][0], pts[j][1]);
+			}
+			tgrid += System.nanoTime() - t;
+			rechecked += dirtyedges.length;
+
+			// every edge, anything that changed must have been among the rechecked ones
+			t = System.nanoTime();
+			for(int m = 0; m < edges.length; m++) {
+				int i = ConnectionStrategy.first(edges[m]), j = ConnectionStrategy.second(edges[m]);
+				if(valid[m] && !repair.isPathClear(pts[i][0], pts[i][1], pts[j][0], pts[j][1])) {
+					valid[m] = false;
+					blocked++;
+					if(Arrays.binarySearch(dirtyedges, edges[m]) < 0) {
+						missed++;
+					}
+				}
+			}
+			tfull += System.nanoTime() - t;
+		}
+		System.out.printf("%d obstacles, %d edges blocked, %d blocked edges missed by the grid\n",
+		                  numobstacles, blocked, missed);
+		System.out.printf("grid: %.1f edges rechecked, %.3f ms per obstacle\n",
+		                  (double) rechecked/numobstacles, tgrid/1e6/numobstacles);
+		System.out.printf("full: %d edges rechecked, %.3f ms per obstacle\n", edges.length, tfull/1e6/numobstacles);
+
+		// robot points connected and removed again, like ProbRoadMap.addPoint and removePoint
+		long size = buckets.sizeInBytes();
+		int allpts[][] = Arrays.copyOf(pts, numpts+1);
+		int neighbours[] = new int[16];
+		int stale = 0;
+		for(int r = 0; r < 1000; r++) {
+			allpts[numpts] = new int[] {rand.nextInt(grid.getWidth()), rand.nextInt(grid.getHeight())};
+			for(int m = 0; m < neighbours.length; m++) {
+				neighbours[m] = rand.nextInt(numpts);
+				buckets.add(allpts, numpts, neighbours[m]);
+			}
+			for(int m = 0; m < neighbours.length; m++) {
+				buckets.remove(allpts, numpts, neighbours[m]);
+			}
+			buckets.markDirty(allpts[numpts][0], allpts[numpts][1]);
+			long dirtyedges[] = buckets.takeDirtyEdges();
+			for(int m = 0; m < dirtyedges.length; m++) {
+				stale += (ConnectionStrategy.second(dirtyedges[m]) == numpts) ? 1 : 0;
+			}
+		}
+		System.out.printf("1000 points added and removed: %.1f KB before, %.1f KB after, %d stale pairs\n",
+		                  size/1024.0, buckets.sizeInBytes()/1024.0, stale);
+	}
+}
@@ -0,0 +1,273 @@
+import java.io.IOException;
+import java.util.Random;
+
+/*
+ * EdgeValidator.java
+ *
+ * Corridor test for roadmap edges: every Bresenham pixel of the segment after
+ * the start must have no obstacle within a buffer radius. Based on sphere tracing (conservative
+ * advancement): the distance field gives the free clearance at the current
+ * step, and every later step that provably stays inside that free disk is
+ * skipped without a lookup. Long edges in open hallways need a handful of
+ * lookups instead of one per pixel, and the answer is the same as testing
+ * every step against the configuration space layer for the buffer radius.
+ * Without a distance field every step is tested against the layer, which
+ * ConfigurationSpace.addObstacle keeps current while the field goes stale.
+ *
+ * The corridor is not the one the original genEdge tested, which probed
+ * only the perpendicular through each step. Near obstacles about buffer
+ * px away the two disagree, main lists every such pair.
+ */
+public class EdgeValidator {
+
+	// Bresenham rounds the minor axis to the nearest pixel, so two pixels j steps
+	// apart are less than j*steplength + 1 apart
+	private static final double ROUNDING_SLACK = 1.0 + 1e-9;
+
+	private final DistanceField field;
+	private final OccupancyGrid grid;  // obstacle map, only the legacy check reads it
+	private final OccupancyGrid layer; // c-space layer, free where clearance > buffer
+	private final int buffer;          // required clearance in px, exclusive
+
+	// stateless, so one instance serves every caller
+	private final LineTraversal.PixelVisitor clearvisitor = new LineTraversal.PixelVisitor() {
+		public boolean visit(int x, int y) {
+			return layer.isFree(x,y);
+		}
+	};
+
+	public EdgeValidator(DistanceField field, ConfigurationSpace cspace, int buffer) {
+		this.field = field;
+		this.grid = cspace.getObstacleMap();
+		this.layer = cspace.getLayer(buffer);
+		this.buffer = buffer;
+	}
+
+	// c-space layer only, for checking a few edges right after obstacles were added
+	public EdgeValidator(ConfigurationSpace cspace, int buffer) {
+		this(null, cspace, buffer);
+	}
+
+	public int getBuffer() { return buffer; }
+
+
+	///////////////////////////////////////////////////////////////////
+	// Edge Tests
+	///////////////////////////////////////////////////////////////////
+
+	// determine if the corridor from (x0,y0) to (x1,y1) is free
+	public boolean isPathClear(int x0, int y0, int x1, int y1) {
+		if(field == null) {
+			return isPathClearStepwise(x0,y0,x1,y1);
+		}
+		return trace(x0,y0,x1,y1) >= 0;
+	}
+
+	// steps k = 1 .. numSteps() of the Bresenham segment are tested
+	// returns the number of lookups if the path is clear, or -(lookups+1) if it is blocked
+	int trace(int x0, int y0, int x1, int y1) {
+		int numsteps = LineTraversal.numSteps(x0,y0,x1,y1);
+		if(numsteps == 0) {
+			return 0;
+		}
+		int dx = x1 - x0, dy = y1 - y0;
+		double steplength = Math.sqrt((double) dx*dx + (double) dy*dy) / numsteps;
+
+		int lookups = 0;
+		int k = 1;
+		while(k <= numsteps) {
+			int x = LineTraversal.stepX(x0,y0,x1,y1,k);
+			int y = LineTraversal.stepY(x0,y0,x1,y1,k);
+			lookups++;
+			float clearance = field.clearanceAt(x,y);
+			if(!(clearance > buffer)) {
+				return -(lookups+1);
+			}
+			// steps that stay strictly inside the free disk need no lookup
+			double margin = clearance - buffer - ROUNDING_SLACK;
+			int skip = (margin > 0.0) ? (int) Math.ceil(margin / steplength) - 1 : 0;
+			k += 1 + skip;
+		}
+		return lookups;
+	}
+
+	// [x,y] of the first Bresenham step that is not clear, or null if the path is clear
+	int[] firstBlockedPixel(int x0, int y0, int x1, int y1) {
+		for(int k = 1; k <= LineTraversal.numSteps(x0,y0,x1,y1); k++) {
+			int x = LineTraversal.stepX(x0,y0,x1,y1,k), y = LineTraversal.stepY(x0,y0,x1,y1,k);
+			if(!layer.isFree(x,y)) {
+				return new int[] { x, y };
+			}
+		}
+		return null;
+	}
+
+	// reference version: one c-space bit per Bresenham step
+	public boolean isPathClearStepwise(int x0, int y0, int x1, int y1) {
+		return LineTraversal.segment(x0,y0,x1,y1, 1, Integer.MAX_VALUE, clearvisitor);
+	}
+
+	// the genEdge of the original code (kept for comparison only): one pixel trigonometric steps,
+	// each probing the obstacle map along the perpendicular, 0 .. buffer px to the left and
+	// 1 .. buffer px to the right (cells off the map count as obstacles)
+	// the original probed PATH_BUFFER_ZONE-1 px, construct with that buffer to compare
+	public boolean isPathClearLegacy(int x0, int y0, int x1, int y1) {
+		return legacyBlockingCell(x0,y0,x1,y1) == null;
+	}
+
+	// [x,y] of the first probe of the legacy loop that hits an obstacle, or null if the path is clear
+	int[] legacyBlockingCell(int x0, int y0, int x1, int y1) {
+		int x, y;
+		double oldy, oldx, curry, currx, endy, endx;
+		double theta, totaldist, dist, deltay, deltax;
+
+		currx = x0; curry = y0;
+		endx  = x1; endy  = y1;
+		totaldist = Math.sqrt( Math.pow(endx-currx, 2) + Math.pow(endy-curry, 2) );
+		theta = Math.atan2(endy-curry, endx-currx);
+		dist = 0.0;
+
+		while(dist < totaldist) {
+			// step along path
+			oldy = curry; oldx = currx;
+			deltay = Math.sin(theta);
+			deltax = Math.cos(theta);
+			curry = curry + deltay;
+			currx = currx + deltax;
+			dist += Math.sqrt( Math.pow(currx-oldx, 2) + Math.pow(curry-oldy, 2) );
+			y = (int)Math.round(curry); x = (int)Math.round(currx);
+
+			// left
+			float ldeltay, ldeltax, ltheta = (float) (theta + Math.toRadians(90));
+			int ly, lx;
+			for(int l = 0; l <= buffer; l++) {
+				ldeltay = (float) Math.sin(ltheta) * l;  ldeltax = (float) Math.cos(ltheta) * l;
+				ly = Math.round(ldeltay+y); 		 lx = Math.round(ldeltax+x);
+				if(!grid.isFree(lx,ly)) {
+					return new int[] { lx, ly };
+				}
+			}
+
+			// right
+			float rdeltay, rdeltax, rtheta = (float) (theta - Math.toRadians(90));
+			int ry, rx;
+			for(int r = 1; r <= buffer; r++) {
+				rdeltay = (float) Math.sin(rtheta) * r;  rdeltax = (float) Math.cos(rtheta) * r;
+				ry = Math.round(rdeltay+y); 		 rx = Math.round(rdeltax+x);
+				if(!grid.isFree(rx,ry)) {
+					return new int[] { rx, ry };
+				}
+			}
+		}
+		return null;
+	}
+
+
+	// TEST - compare the sphere-traced, stepwise and legacy checks on a map, listing every pair
+	// the corridor test and the original genEdge loop disagree on and why
+	// usage: java EdgeValidator [map_file] [num_pts]
+	public static void main(String args[]) throws IOException {
+		String mapfile = (args.length > 0) ? args[0] : ProbRoadMap.DEFAULT_MAP_FILE;
+		int numpts = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+
+		MapLoader.LoadedMap map = MapLoader.load(mapfile);
+		OccupancyGrid grid = map.grid;
+		DistanceField field = new DistanceField(grid);
+		ConfigurationSpace cspace = new ConfigurationSpace(grid);
+		EdgeValidator validator = new EdgeValidator(field, cspace, ProbRoadMap.PATH_BUFFER_ZONE-1);
+		OccupancyGrid pointspace = cspace.getLayer(ProbRoadMap.POINT_BUFFER_ZONE);
+
+		// same point test as ProbRoadMap.genAllPoints, fixed seed
+		Random rand = new Random(0);
+		int pts[][] = new int[numpts][2];
+		int count = 0;
+		while(count < numpts) {
+			int x = rand.nextInt(grid.getWidth());
+			int y = rand.nextInt(grid.getHeight());
+			if(pointspace.isFree(x,y)) {
+				pts[count][0] = x; pts[count][1] = y;
+				count++;
+			}
+		}
+
+		int pairs = 0, accepted = 0, mismatches = 0, onlylegacyrejects = 0, onlycorridorrejects = 0;
+		long lookups = 0, steps = 0; // over accepted edges
+		long tstep = 0, ttrace = 0, tlegacy = 0, t;
+		for(int i = 0; i < numpts; i++) {
+			for(int j = i+1; j < numpts; j++) {
+				int x0 = pts[i][0], y0 = pts[i][1], x1 = pts[j][0], y1 = pts[j][1];
+
+				t = System.nanoTime();
+				boolean stepwise = validator.isPathClearStepwise(x0,y0,x1,y1);
+				tstep += System.nanoTime() - t;
+
+				t = System.nanoTime();
+				int result = validator.trace(x0,y0,x1,y1);
+				ttrace += System.nanoTime() - t;
+
+				t = System.nanoTime();
+				boolean legacy = validator.isPathClearLegacy(x0,y0,x1,y1);
+				tlegacy += System.nanoTime() - t;
+
+				boolean traced = result >= 0;
+				if(traced) {
+					lookups += result;
+					steps += LineTraversal.numSteps(x0,y0,x1,y1);
+				}
+				pairs++;
+				if(traced) { accepted++; }
+				if(traced != stepwise) {
+					mismatches++;
+					System.out.println("MISMATCH [" + x0 + "," + y0 + "] => [" + x1 + "," + y1 + "]");
+				}
+				if(traced && !legacy) {
+					// the probe that hit lies farther than buffer px from every path pixel
+					int cell[] = validator.legacyBlockingCell(x0,y0,x1,y1);
+					onlylegacyrejects++;
+					System.out.printf("ONLY LEGACY REJECTS [%d,%d] => [%d,%d]: probe hit [%d,%d], %.2f px from the path\n",
+					                  x0, y0, x1, y1, cell[0], cell[1], distanceToPath(x0,y0,x1,y1, cell[0], cell[1]));
+				} else if(!traced && legacy) {
+					// an obstacle within buffer px of a path pixel that no perpendicular probe lands on
+					int pixel[] = validator.firstBlockedPixel(x0,y0,x1,y1);
+					int cell[] = nearestObstacle(grid, pixel[0], pixel[1], validator.getBuffer());
+					onlycorridorrejects++;
+					System.out.printf("ONLY CORRIDOR REJECTS [%d,%d] => [%d,%d]: obstacle [%d,%d] %.2f px from path pixel [%d,%d], between the probes\n",
+					                  x0, y0, x1, y1, cell[0], cell[1], Math.hypot(cell[0]-pixel[0], cell[1]-pixel[1]), pixel[0], pixel[1]);
+				}
+			}
+		}
+
+		System.out.println("pairs: " + pairs + " accepted: " + accepted);
+		System.out.println("sphere-traced (distance field) vs stepwise (c-space) mismatches: " + mismatches);
+		System.out.println("sphere-traced vs legacy genEdge mismatches: " + (onlylegacyrejects + onlycorridorrejects) +
+		                   " (" + onlylegacyrejects + " only legacy rejects, " + onlycorridorrejects + " only the corridor rejects)");
+		System.out.printf("lookups per accepted edge: %.1f sphere-traced, %.1f stepwise\n",
+		                  (double) lookups / Math.max(accepted,1), (double) steps / Math.max(accepted,1));
+		System.out.printf("time stepwise: %.1f ms  sphere-traced: %.1f ms  legacy: %.1f ms\n",
+		                  tstep/1e6, ttrace/1e6, tlegacy/1e6);
+	}
+
+	// shortest distance from (cx,cy) to the Bresenham pixels 1 .. numSteps() of the segment
+	private static double distanceToPath(int x0, int y0, int x1, int y1, int cx, int cy) {
+		double best = Double.POSITIVE_INFINITY;
+		for(int k = 1; k <= LineTraversal.numSteps(x0,y0,x1,y1); k++) {
+			int x = LineTraversal.stepX(x0,y0,x1,y1,k), y = LineTraversal.stepY(x0,y0,x1,y1,k);
+			best = Math.min(best, Math.hypot(cx-x, cy-y));
+		}
+		return best;
+	}
+
+	// obstacle cell nearest to (x,y) within radius px, or null
+	private static int[] nearestObstacle(OccupancyGrid grid, int x, int y, int radius) {
+		int best[] = null;
+		for(int dy = -radius; dy <= radius; dy++) {
+			for(int dx = -radius; dx <= radius; dx++) {
+				if(dx*dx + dy*dy <= radius*radius && !grid.isFree(x+dx, y+dy) &&
+				   (best == null || dx*dx + dy*dy < (best[0]-x)*(best[0]-x) + (best[1]-y)*(best[1]-y))) {
+					best = new int[] { x+dx, y+dy };
+				}
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * FreeSpaceIndex.java
+ *
+ * Index of the free cells of an OccupancyGrid (usually a c-space layer) for
+ * uniform sampling without rejection. The free cells of every row are
+ * stored as runs with a running count of the free cells before each run, so
+ * the cell of a given rank is found by one binary search over the runs.
+ */
+public class FreeSpaceIndex {
+
+	private int runx[];   // first cell of each run
+	private int runy[];   // row of each run
+	private long before[]; // free cells in all earlier runs, plus a final total
+	private int numruns;
+
+	// collect the free runs of every row
+	public FreeSpaceIndex(OccupancyGrid grid) {
+		int capacity = Math.max(grid.getHeight(), 16);
+		runx = new int[capacity];
+		runy = new int[capacity];
+		before = new long[capacity+1];
+
+		long total = 0;
+		int width = grid.getWidth();
+		for(int y = 0; y < grid.getHeight(); y++) {
+			int x = grid.nextFree(y,0);
+			while(x < width) {
+				int end = grid.nextObstacle(y,x);
+				if(numruns == runx.length) {
+					grow();
+				}
+				runx[numruns] = x;
+				runy[numruns] = y;
+				before[numruns] = total;
+				numruns++;
+				total += end - x;
+				x = grid.nextFree(y,end);
+			}
+		}
+		before[numruns] = total;
+	}
+
+	// number of free cells
+	public long size() {
+		return before[numruns];
+	}
+
+	public int getNumRuns() { return numruns; }
+
+	// store the free cell with the given rank (0 <= rank < size()) in pt as [x,y],
+	// cells are ranked row by row
+	public void select(long rank, int pt[]) {
+		if(rank < 0 || rank >= size()) {
+			throw new IndexOutOfBoundsException("rank " + rank + " of " + size());
+		}
+		// last run with before[run] <= rank
+		int lo = 0, hi = numruns-1;
+		while(lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if(before[mid] <= rank) {
+				lo = mid;
+			} else {
+				hi = mid-1;
+			}
+		}
+		pt[0] = runx[lo] + (int) (rank - before[lo]);
+		pt[1] = runy[lo];
+	}
+
+	// approximate heap footprint of the index in bytes
+	public long sizeInBytes() {
+		return 16L * runx.length;
+	}
+
+	private void grow() {
+		int capacity = 2 * runx.length;
+		int newx[] = new int[capacity];
+		int newy[] = new int[capacity];
+		long newbefore[] = new long[capacity+1];
+		System.arraycopy(runx, 0, newx, 0, numruns);
+		System.arraycopy(runy, 0, newy, 0, numruns);
+		System.arraycopy(before, 0, newbefore, 0, numruns);
+		runx = newx;
+		runy = newy;
+		before = newbefore;
+	}
+}
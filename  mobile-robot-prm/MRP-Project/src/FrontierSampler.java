@@ -0,0 +1,42 @@
+import java.util.SplittableRandom;
+
+/*
+ * FrontierSampler.java
+ *
+ * Points around chosen roadmap vertices, for growing a roadmap where it is
+ * still disconnected. A candidate is one of the vertices, picked uniformly,
+ * moved a normally distributed distance, and it is kept if that cell is
+ * valid. Given the vertices of the components that are cut off, new points
+ * gather around them, where the missing connections have to come from,
+ * instead of anywhere on the map.
+ */
+public class FrontierSampler implements Sampler {
+
+	private final OccupancyGrid layer;
+	private final int pts[][];
+	private final int vertices[]; // indexes into pts to sample around
+	private final double sigma;   // spread around a vertex in px
+
+	public FrontierSampler(OccupancyGrid layer, int pts[][], int vertices[], double sigma) {
+		this.layer = layer;
+		this.pts = pts;
+		this.vertices = vertices;
+		this.sigma = sigma;
+	}
+
+	public void prepare(long seed) {
+		// nothing to prepare, the chunk streams carry all randomness
+	}
+
+	public boolean sample(long i, SplittableRandom rand, int pt[]) {
+		int v = vertices[rand.nextInt(vertices.length)];
+		int x = pts[v][0] + (int) Math.round(GaussianSampler.nextGaussian(rand) * sigma);
+		int y = pts[v][1] + (int) Math.round(GaussianSampler.nextGaussian(rand) * sigma);
+		if(!layer.isFree(x,y)) {
+			return false;
+		}
+		pt[0] = x;
+		pt[1] = y;
+		return true;
+	}
+}
@@ -0,0 +1,52 @@
+import java.util.SplittableRandom;
+
+/*
+ * GaussianSampler.java
+ *
+ * Gaussian sampling near obstacle boundaries. Based on: Boor, Overmars and
+ * van der Stappen, "The Gaussian Sampling Strategy for Probabilistic
+ * Roadmap Planners" (1999). A candidate is a pair of cells, the first
+ * uniform over the map and the second a normally distributed distance
+ * away. When exactly one of the two is valid, that one is kept, so the
+ * points gather along the edges of free space, where passages are.
+ */
+public class GaussianSampler implements Sampler {
+
+	private final OccupancyGrid layer;
+	private final double sigma; // spread of the pair in px
+
+	public GaussianSampler(OccupancyGrid layer, double sigma) {
+		this.layer = layer;
+		this.sigma = sigma;
+	}
+
+	public void prepare(long seed) {
+		// nothing to prepare, the chunk streams carry all randomness
+	}
+
+	public boolean sample(long i, SplittableRandom rand, int pt[]) {
+		int x1 = rand.nextInt(layer.getWidth());
+		int y1 = rand.nextInt(layer.getHeight());
+		int x2 = x1 + (int) Math.round(nextGaussian(rand) * sigma);
+		int y2 = y1 + (int) Math.round(nextGaussian(rand) * sigma);
+		boolean free1 = layer.isFree(x1,y1);
+		boolean free2 = layer.isFree(x2,y2);
+		if(free1 == free2) {
+			return false;
+		}
+		pt[0] = free1 ? x1 : x2;
+		pt[1] = free1 ? y1 : y2;
+		return true;
+	}
+
+	// standard normal deviate (Marsaglia polar method)
+	static double nextGaussian(SplittableRandom rand) {
+		double u, v, s;
+		do {
+			u = 2.0 * rand.nextDouble() - 1.0;
+			v = 2.0 * rand.nextDouble() - 1.0;
+			s = u*u + v*v;
+		} while(s >= 1.0 || s == 0.0);
+		return u * Math.sqrt(-2.0 * Math.log(s) / s);
+	}
+}
@@ -0,0 +1,58 @@
+import java.util.SplittableRandom;
+
+/*
+ * HaltonSampler.java
+ *
+ * Low-discrepancy samples from the 2-D Halton sequence (bases 2 and 3),
+ * spread over the whole map and kept where a c-space layer is free. Each
+ * roadmap shifts the sequence by a random Cranley-Patterson rotation, so a
+ * rebuilt roadmap gets new points with the same even coverage.
+ */
+public class HaltonSampler implements Sampler {
+
+	private final OccupancyGrid layer;
+	private double shiftx, shifty; // rotation of the unit square for this roadmap
+
+	public HaltonSampler(OccupancyGrid layer) {
+		this.layer = layer;
+	}
+
+	public void prepare(long seed) {
+		SplittableRandom rand = new SplittableRandom(seed);
+		shiftx = rand.nextDouble();
+		shifty = rand.nextDouble();
+	}
+
+	public boolean sample(long i, SplittableRandom rand, int pt[]) {
+		// index 0 is the origin in every base, start at 1
+		double u = rotate(radicalInverse(i+1, 2), shiftx);
+		double v = rotate(radicalInverse(i+1, 3), shifty);
+		int x = (int) (u * layer.getWidth());
+		int y = (int) (v * layer.getHeight());
+		pt[0] = x;
+		pt[1] = y;
+		return layer.isFree(x,y);
+	}
+
+	// digits of i in the given base mirrored around the radix point
+	static double radicalInverse(long i, int base) {
+		double inv = 1.0 / base;
+		double f = inv;
+		double r = 0.0;
+		while(i > 0) {
+			r += f * (i % base);
+			i /= base;
+			f *= inv;
+		}
+		return r;
+	}
+
+	// u + shift modulo 1, kept below 1 despite rounding
+	static double rotate(double u, double shift) {
+		double r = u + shift;
+		if(r >= 1.0) {
+			r -= 1.0;
+		}
+		return (r < 1.0) ? r : Math.nextDown(1.0);
+	}
+}
@@ -0,0 +1,487 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/*
+ * IncrementalPlanner.java
+ *
+ * D* Lite over a RoadmapGraph. The search runs backwards from a fixed goal,
+ * so g(v) is the cost from v to the goal, and the tree is kept between
+ * queries. When the robot moves, edges get blocked or vertices are added,
+ * only the vertices whose cost-to-goal changed are expanded again. That is
+ * usually a small part of the graph next to the change, where a search
+ * from scratch would expand everything again.
+ *
+ * Edges marked ProbRoadMap.EDGE_INVALID in edgestates cost infinity, every
+ * other edge costs its length. The caller changes edgestates or the graph
+ * and then reports the change with edgeChanged / setGraph.
+ *
+ * The heuristic is straight-line distance, or with setLandmarks the ALT
+ * bound of a LandmarkTable, which follows the roadmap around walls. Both
+ * obey the triangle inequality, which the km offset for moves of the start
+ * relies on. A table stays usable while edges only get blocked, since
+ * that only makes distances longer, and while it follows added and removed
+ * vertices (LandmarkTable.addVertex). setGraph drops a table that is not
+ * for the graph any more.
+ * algorithm based on: Koenig and Likhachev, "D* Lite" (AAAI 2002),
+ * the optimized version in figure 4
+ */
+public class IncrementalPlanner {
+
+	private static final double INF = Double.POSITIVE_INFINITY;
+	// edge lengths are floats, and one rounded down would leave the straight line distance a
+	// hair longer than the edge, the heuristic would not be consistent and computePath could
+	// stop before the start is up to date
+	private static final double HEURISTIC_SCALE = 1.0 - 1e-6;
+	// coincident points give zero length edges, and two vertices joined by one would keep
+	// each other's stale cost alive after their path is blocked, D* Lite needs positive costs
+	private static final double MIN_EDGE_COST = 1e-6; // px
+
+	private RoadmapGraph graph;
+	private int pts[][];
+	private byte edgestates[];
+	private final int goal;
+	private int start;
+	private double km;       // heuristic offset accumulated over moves of the start
+	private double g[];      // cost to the goal as of the last expansion
+	private double rhs[];    // one step lookahead of g
+	private IndexedMinHeap open; // inconsistent vertices, keyed lexicographically
+	private LandmarkTable landmarks; // heuristic bounds, null for straight-line distance
+	private int landmarkrevision;    // of landmarks when the queued keys were computed
+	private long expanded;   // vertex expansions so far, for measurements
+	private int numvertices; // of the graph as of the last setGraph
+
+	public IncrementalPlanner(RoadmapGraph graph, int pts[][], byte edgestates[], int start, int goal) {
+		this.goal = goal;
+		this.start = start;
+		g = new double[0];
+		rhs = new double[0];
+		open = new IndexedMinHeap(0);
+		setGraph(graph, pts, edgestates);
+		rhs[goal] = 0.0;
+		updateVertex(goal);
+	}
+
+	public int getGoal() { return goal; }
+
+	public int getStart() { return start; }
+
+	public long getNumExpanded() { return expanded; }
+
+	// cost from the start to the goal after computePath, infinite if there is no path
+	public double getPathCost() { return rhs[start]; }
+
+	public LandmarkTable getLandmarks() { return landmarks; }
+
+	// use the bounds of table as heuristic (null for straight-line distance), the table must be
+	// for the current graph and built over edge states no less usable than the current ones
+	// queued keys were computed with the old heuristic, so all of them are computed again
+	public void setLandmarks(LandmarkTable table) {
+		if(table == landmarks && (table == null || table.getRevision() == landmarkrevision)) {
+			return;
+		}
+		landmarks = table;
+		rekey();
+	}
+
+	// compute every queued key again with the heuristic as it is now
+	private void rekey() {
+		landmarkrevision = (landmarks != null) ? landmarks.getRevision() : 0;
+		km = 0.0; // keys are fresh for the current start
+		for(int v = 0; v < numvertices; v++) {
+			if(open.contains(v)) {
+				open.update(v, key1(v), key2(v));
+			}
+		}
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Changes
+	///////////////////////////////////////////////////////////////////
+
+	// the robot moved, later paths start at newstart
+	public void moveStart(int newstart) {
+		km += heuristic(start, newstart);
+		start = newstart;
+	}
+
+	// use a new graph over the same vertex numbers, or the same graph after it changed, e.g. with
+	// vertices appended or removed or edge slots moved
+	// report the edges that were added with edgeChanged(u, v, infinity) afterwards, and the ones
+	// that were removed with edgeChanged(u, v, old length) before, so that vertices removed from
+	// the end are forgotten here last
+	public void setGraph(RoadmapGraph graph, int pts[][], byte edgestates[]) {
+		this.graph = graph;
+		this.pts = pts;
+		this.edgestates = edgestates;
+		int n = graph.numVertices();
+		for(int v = n; v < numvertices; v++) {
+			// vertices removed from the end, their numbers may come back as new vertices
+			g[v] = INF;
+			rhs[v] = INF;
+			open.remove(v);
+		}
+		numvertices = n;
+		if(n > g.length) {
+			int oldn = g.length;
+			int capacity = Math.max(n, oldn + (oldn >>> 1));
+			g = Arrays.copyOf(g, capacity);
+			rhs = Arrays.copyOf(rhs, capacity);
+			Arrays.fill(g, oldn, capacity, INF);
+			Arrays.fill(rhs, oldn, capacity, INF);
+			open.ensureCapacity(capacity);
+		}
+		if(landmarks != null && !landmarks.isFor(graph)) {
+			setLandmarks(null); // distances may have shrunk, and new vertices are not in the table
+		} else if(landmarks != null && landmarks.getRevision() != landmarkrevision) {
+			rekey(); // landmark scales changed, so did the bounds between queued vertices
+		}
+	}
+
+	// the cost of edge u-v changed from oldcost (infinite for a new edge) to what the
+	// graph and edgestates say now
+	public void edgeChanged(int u, int v, double oldcost) {
+		oldcost = Math.max(oldcost, MIN_EDGE_COST);
+		double newcost = cost(u, v);
+		repairEnd(u, v, oldcost, newcost);
+		repairEnd(v, u, oldcost, newcost);
+	}
+
+	private void repairEnd(int u, int v, double oldcost, double newcost) {
+		if(u == goal) {
+			return;
+		}
+		if(newcost < oldcost) {
+			rhs[u] = Math.min(rhs[u], newcost + g[v]);
+		} else if(rhs[u] == oldcost + g[v]) {
+			rhs[u] = lookahead(u); // u lost the successor it relied on
+		}
+		updateVertex(u);
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Search
+	///////////////////////////////////////////////////////////////////
+
+	// bring the costs on the way from the start to the goal up to date
+	// returns true if a path exists
+	public boolean computePath() {
+		while(!open.isEmpty() && (keyLess(open.peek(), start) || rhs[start] > g[start])) {
+			int u = open.peek();
+			double k1 = key1(u), k2 = key2(u);
+			if(open.key(u) < k1 || (open.key(u) == k1 && open.tie(u) < k2)) {
+				open.update(u, k1, k2); // queued before the start moved
+			} else if(g[u] > rhs[u]) {
+				// overconsistent, u's cost drops to rhs
+				expanded++;
+				g[u] = rhs[u];
+				open.remove(u);
+				for(int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+					int s = graph.target(e);
+					if(s != goal) {
+						rhs[s] = Math.min(rhs[s], cost(e) + g[u]);
+						updateVertex(s);
+					}
+				}
+			} else {
+				// underconsistent, u and the vertices relying on it look for new successors
+				expanded++;
+				double gold = g[u];
+				g[u] = INF;
+				for(int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+					int s = graph.target(e);
+					if(s != goal && rhs[s] == cost(e) + gold) {
+						rhs[s] = lookahead(s);
+					}
+					updateVertex(s);
+				}
+				if(u != goal) {
+					rhs[u] = lookahead(u);
+				}
+				updateVertex(u);
+			}
+		}
+		return rhs[start] < INF; // the start itself need not be expanded
+	}
+
+	// next vertex after v on the best path to the goal, or -1 if there is none
+	public int next(int v) {
+		int best = -1;
+		double bestcost = INF;
+		for(int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+			int s = graph.target(e);
+			double c = cost(e) + g[s];
+			// prefer lower g on ties, so zero length edges cannot send the walk back and forth
+			if(c < bestcost || (c == bestcost && c < INF && g[s] < g[best])) {
+				best = s;
+				bestcost = c;
+			}
+		}
+		return best;
+	}
+
+	// write the path from the start to the goal into path as far as it fits (path may be null)
+	// returns the number of vertices on the whole path, or -1 if there is none
+	public int copyPath(int path[]) {
+		if(!(rhs[start] < INF)) {
+			return -1;
+		}
+		int length = 0;
+		for(int v = start; v >= 0; v = (v == goal) ? -1 : next(v)) {
+			if(path != null && length < path.length) {
+				path[length] = v;
+			}
+			length++;
+			if(length > graph.numVertices()) {
+				return -1; // costs are not consistent along the path, should never happen
+			}
+		}
+		return length;
+	}
+
+	private void updateVertex(int u) {
+		if(g[u] != rhs[u]) {
+			open.update(u, key1(u), key2(u));
+		} else {
+			open.remove(u);
+		}
+	}
+
+	// best one step lookahead of u over its usable edges
+	private double lookahead(int u) {
+		double best = INF;
+		for(int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+			best = Math.min(best, cost(e) + g[graph.target(e)]);
+		}
+		return best;
+	}
+
+	private double key1(int u) {
+		return Math.min(g[u], rhs[u]) + heuristic(start, u) + km;
+	}
+
+	private double key2(int u) {
+		return Math.min(g[u], rhs[u]);
+	}
+
+	// true if the queued key of u is below the current key of v
+	private boolean keyLess(int u, int v) {
+		double k1 = key1(v);
+		return open.key(u) < k1 || (open.key(u) == k1 && open.tie(u) < key2(v));
+	}
+
+	private double cost(int e) {
+		if(edgestates != null && edgestates[e] == ProbRoadMap.EDGE_INVALID) {
+			return INF;
+		}
+		return Math.max(graph.length(e), MIN_EDGE_COST);
+	}
+
+	private double cost(int u, int v) {
+		int e = graph.findEdge(u, v);
+		return (e < 0) ? INF : cost(e);
+	}
+
+	private double heuristic(int u, int v) {
+		if(landmarks != null) {
+			return HEURISTIC_SCALE * landmarks.estimate(pts, u, v);
+		}
+		return HEURISTIC_SCALE * AStarSearch.distance(pts[u][0], pts[u][1], pts[v][0], pts[v][1]);
+	}
+
+
+	// TEST - block the path of a moving robot, add its position as a point as RobotControl does, and
+	// compare replanning, with straight-line and landmark heuristics, against a search from scratch
+	// usage: java IncrementalPlanner [map_file] [num_pts] [scenarios] [block_radius] [seed]
+	public static void main(String args[]) throws IOException {
+		String mapfile = (args.length > 0) ? args[0] : ProbRoadMap.DEFAULT_MAP_FILE;
+		int numpts = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+		int numscenarios = (args.length > 2) ? Integer.parseInt(args[2]) : 20;
+		int blockradius = (args.length > 3) ? Integer.parseInt(args[3]) : ProbRoadMap.POINT_BUFFER_ZONE;
+		long seed = (args.length > 4) ? Long.parseLong(args[4]) : 42L;
+		int buffer = ProbRoadMap.PATH_BUFFER_ZONE-1;
+
+		MapLoader.LoadedMap map = MapLoader.load(mapfile);
+		ConfigurationSpace cspace = new ConfigurationSpace(map.grid);
+		DistanceField field = new DistanceField(map.grid);
+		FreeSpaceIndex index = new FreeSpaceIndex(cspace.getLayer(ProbRoadMap.POINT_BUFFER_ZONE));
+		EdgeValidator validator = new EdgeValidator(field, cspace, buffer);
+		int pts[][] = new int[numpts][2];
+		new ParallelSampler().sample(index, seed, pts, 0, numpts);
+		ConnectionStrategy connection = ConnectionStrategy.parse("prmstar");
+		long pairs[] = connection.candidatePairs(pts, index.size());
+		RoadmapGraph graph = new RoadmapGraph(pts, new ParallelEdgeBuilder().validate(validator, pts, pairs));
+		// room for the robot's point, vertex numpts, added and removed again in every scenario
+		int allpts[][] = Arrays.copyOf(pts, numpts+1);
+		PointGrid pointindex = new PointGrid(map.grid.getWidth(), map.grid.getHeight(), PointGrid.DEFAULT_CELL,
+		                                     pts, numpts);
+		// built once over every edge, blocking edges later only makes its bounds looser, and it
+		// follows the robot's points like ProbRoadMap's table does
+		long t = System.nanoTime();
+		LandmarkTable table = new LandmarkTable(graph, null, ProbRoadMap.NUM_LANDMARKS);
+		long ttable = System.nanoTime() - t;
+
+		SplittableRandom rand = new SplittableRandom(seed);
+		SearchContext context = new SearchContext(numpts+1);
+		int path[] = new int[numpts+1];
+		int changed[] = new int[2 * graph.numEdges()]; // u, v of each edge the block cut
+		int scenarios = 0, detours = 0, mismatches = 0, blocked = 0;
+		long trepair = 0, tadd = 0, treplan = 0, trebuild = 0, tfresh = 0, tfirst = 0, replanexpanded = 0, firstexpanded = 0;
+		long taltfirst = 0, taltreplan = 0, altfirstexpanded = 0, altreplanexpanded = 0;
+		int altmismatches = 0;
+		double minscale = 1.0;
+		while(scenarios < numscenarios) {
+			// every scenario starts from the original map
+			map = MapLoader.load(mapfile);
+			cspace = new ConfigurationSpace(map.grid);
+			EdgeValidator repair = new EdgeValidator(cspace, buffer); // layer only, stays current
+			graph.fillStates(ProbRoadMap.EDGE_VALID);
+
+			int s = rand.nextInt(numpts), d = rand.nextInt(numpts);
+			t = System.nanoTime();
+			IncrementalPlanner planner = new IncrementalPlanner(graph, allpts, graph.getStates(), s, d);
+			boolean found = planner.computePath();
+			long tplan = System.nanoTime() - t;
+			int length = planner.copyPath(path);
+			if(!found || length < 8) {
+				continue; // want a path long enough to block in the middle
+			}
+			tfirst += tplan;
+			firstexpanded += planner.getNumExpanded();
+			long expandedbefore = planner.getNumExpanded();
+			t = System.nanoTime();
+			IncrementalPlanner altplanner = new IncrementalPlanner(graph, allpts, graph.getStates(), s, d);
+			altplanner.setLandmarks(table);
+			altplanner.computePath();
+			taltfirst += System.nanoTime() - t;
+			altfirstexpanded += altplanner.getNumExpanded();
+			long altexpandedbefore = altplanner.getNumExpanded();
+
+			// the robot got a third of the way, a few px off the roadmap, and finds the hallway ahead blocked
+			int near = path[length/3], rx, ry;
+			do {
+				rx = pts[near][0] + rand.nextInt(5) - 2;
+				ry = pts[near][1] + rand.nextInt(5) - 2;
+			} while(!cspace.getLayer(ProbRoadMap.POINT_BUFFER_ZONE).isFree(rx,ry));
+			int bx = pts[path[2*length/3]][0], by = pts[path[2*length/3]][1];
+			t = System.nanoTime();
+			for(int y = by-blockradius; y <= by+blockradius; y++) {
+				for(int x = bx-blockradius; x <= bx+blockradius; x++) {
+					if((x-bx)*(x-bx) + (y-by)*(y-by) <= blockradius*blockradius) {
+						cspace.addObstacle(x,y);
+					}
+				}
+			}
+			// recheck the edges whose corridors come near the block
+			int reach = blockradius + buffer + 1;
+			int numchanged = 0;
+			for(int u = 0; u < numpts; u++) {
+				for(int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+					int w = graph.target(e);
+					if(w < u ||
+					   Math.max(pts[u][0], pts[w][0]) < bx-reach || Math.min(pts[u][0], pts[w][0]) > bx+reach ||
+					   Math.max(pts[u][1], pts[w][1]) < by-reach || Math.min(pts[u][1], pts[w][1]) > by+reach) {
+						continue;
+					}
+					if(!repair.isPathClear(pts[u][0], pts[u][1], pts[w][0], pts[w][1])) {
+						graph.setState(u, w, ProbRoadMap.EDGE_INVALID);
+						changed[numchanged++] = u;
+						changed[numchanged++] = w;
+					}
+				}
+			}
+			trepair += System.nanoTime() - t;
+			blocked += numchanged/2;
+
+			// the robot's point, connected like ProbRoadMap.addPoint connects it
+			t = System.nanoTime();
+			int newstart = graph.addVertex();
+			allpts[newstart] = new int[] {rx, ry};
+			pointindex.insert(newstart, rx, ry);
+			long newpairs[] = connection.candidatePairs(pointindex, allpts, newstart, index.size());
+			newpairs = ParallelEdgeBuilder.validate(repair, allpts, newpairs, 0, newpairs.length);
+			for(int m = 0; m < newpairs.length; m++) {
+				graph.addEdge(allpts, ConnectionStrategy.first(newpairs[m]), ConnectionStrategy.second(newpairs[m]),
+				              ProbRoadMap.EDGE_VALID);
+			}
+			table.addVertex(graph.getStates(), newstart);
+			tadd += System.nanoTime() - t;
+			for(int l = 0; l < table.getNumLandmarks(); l++) {
+				minscale = Math.min(minscale, table.getScale(l));
+			}
+
+			// incremental replans
+			t = System.nanoTime();
+			planner.setGraph(graph, allpts, graph.getStates());
+			for(int m = 0; m < newpairs.length; m++) {
+				planner.edgeChanged(ConnectionStrategy.first(newpairs[m]), ConnectionStrategy.second(newpairs[m]), INF);
+			}
+			planner.moveStart(newstart);
+			for(int c = 0; c < numchanged; c += 2) {
+				planner.edgeChanged(changed[c], changed[c+1], graph.length(graph.findEdge(changed[c], changed[c+1])));
+			}
+			boolean replanned = planner.computePath();
+			planner.copyPath(path);
+			treplan += System.nanoTime() - t;
+			replanexpanded += planner.getNumExpanded() - expandedbefore;
+			t = System.nanoTime();
+			altplanner.setGraph(graph, allpts, graph.getStates());
+			for(int m = 0; m < newpairs.length; m++) {
+				altplanner.edgeChanged(ConnectionStrategy.first(newpairs[m]), ConnectionStrategy.second(newpairs[m]), INF);
+			}
+			altplanner.moveStart(newstart);
+			for(int c = 0; c < numchanged; c += 2) {
+				altplanner.edgeChanged(changed[c], changed[c+1], graph.length(graph.findEdge(changed[c], changed[c+1])));
+			}
+			boolean altreplanned = altplanner.computePath();
+			taltreplan += System.nanoTime() - t;
+			altreplanexpanded += altplanner.getNumExpanded() - altexpandedbefore;
+
+			// a search from scratch over the same graph
+			t = System.nanoTime();
+			boolean fresh = AStarSearch.search(graph, allpts, graph.getStates(), newstart, d, context, null) >= 0;
+			tfresh += System.nanoTime() - t;
+
+			// what run did before: distance field, every candidate edge and a search from scratch
+			t = System.nanoTime();
+			EdgeValidator newvalidator = new EdgeValidator(new DistanceField(map.grid), cspace, buffer);
+			RoadmapGraph rebuilt = new RoadmapGraph(pts, new ParallelEdgeBuilder().validate(newvalidator, pts, pairs));
+			AStarSearch.search(rebuilt, pts, null, near, d, new SearchContext(numpts), null);
+			trebuild += System.nanoTime() - t;
+
+			if(replanned != fresh ||
+			   (fresh && Math.abs(planner.getPathCost() - context.gscore(d)) > 1e-6 * context.gscore(d))) {
+				mismatches++;
+			}
+			if(altreplanned != fresh ||
+			   (fresh && Math.abs(altplanner.getPathCost() - context.gscore(d)) > 1e-6 * context.gscore(d))) {
+				altmismatches++;
+			}
+			detours += fresh ? 1 : 0;
+			scenarios++;
+
+			// the robot left its point, like ProbRoadMap.removePoint
+			graph.removeVertex(newstart);
+			pointindex.remove(newstart);
+			table.removeVertex(graph.getStates(), newstart);
+		}
+		System.out.printf("%d vertices, %d edges, block radius %d px\n", graph.numVertices(), graph.numEdges(), blockradius);
+		System.out.printf("%d scenarios, %d with a detour, %.1f edges blocked each\n",
+		                  scenarios, detours, (double) blocked/scenarios);
+		System.out.printf("cost mismatches against A* from scratch: %d straight-line, %d landmarks\n", mismatches, altmismatches);
+		System.out.printf("landmark table: %.3f ms to build once, %d landmarks scaled down to %.3f at most by robot points\n",
+		                  ttable/1e6, table.getNumLandmarks(), minscale);
+		System.out.printf("first plan: %7.3f ms, %6.1f expanded (landmarks: %7.3f ms, %6.1f expanded)\n",
+		                  tfirst/1e6/scenarios, (double) firstexpanded/scenarios,
+		                  taltfirst/1e6/scenarios, (double) altfirstexpanded/scenarios);
+		System.out.printf("replan:     %7.3f ms, %6.1f expanded (landmarks: %7.3f ms, %6.1f expanded)\n",
+		                  treplan/1e6/scenarios, (double) replanexpanded/scenarios,
+		                  taltreplan/1e6/scenarios, (double) altreplanexpanded/scenarios);
+		System.out.printf("            + %.3f ms to recheck edges near the block, %.3f ms to add the robot's point\n",
+		                  trepair/1e6/scenarios, tadd/1e6/scenarios);
+		System.out.printf("A* from scratch: %7.3f ms\n", tfresh/1e6/scenarios);
+		System.out.printf("rebuild:    %7.3f ms (distance field, all edges, A*)\n", trebuild/1e6/scenarios);
+	}
+}
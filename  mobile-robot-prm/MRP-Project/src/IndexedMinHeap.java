@@ -0,0 +1,164 @@
+import java.util.Arrays;
+
+/*
+ * IndexedMinHeap.java
+ *
+ * Binary min-heap of vertex ids 0 .. capacity-1 keyed by double priorities,
+ * with an optional second key that breaks ties (lexicographic order, as
+ * D* Lite needs). A position array maps every vertex to its heap slot, so
+ * the key of a queued vertex can be changed in O(log n) without searching
+ * for it.
+ */
+public class IndexedMinHeap {
+
+	private int heap[];    // vertex in each heap slot
+	private double keys[]; // key of each vertex
+	private double ties[]; // second key of each vertex
+	private int pos[];     // heap slot of each vertex, -1 if not queued
+	private int size;
+
+	public IndexedMinHeap(int capacity) {
+		heap = new int[capacity];
+		keys = new double[capacity];
+		ties = new double[capacity];
+		pos = new int[capacity];
+		Arrays.fill(pos, -1);
+	}
+
+	// make room for vertex ids up to capacity-1, queued vertices stay queued
+	public void ensureCapacity(int capacity) {
+		if(capacity > pos.length) {
+			int oldcapacity = pos.length;
+			heap = Arrays.copyOf(heap, capacity);
+			keys = Arrays.copyOf(keys, capacity);
+			ties = Arrays.copyOf(ties, capacity);
+			pos = Arrays.copyOf(pos, capacity);
+			Arrays.fill(pos, oldcapacity, capacity, -1);
+		}
+	}
+
+	public int capacity() { return pos.length; }
+
+	public int size() { return size; }
+
+	public boolean isEmpty() { return size == 0; }
+
+	public boolean contains(int v) { return pos[v] >= 0; }
+
+	public double key(int v) { return keys[v]; }
+
+	public double tie(int v) { return ties[v]; }
+
+	// queue v with a key, or lower the key of v if it is queued with a larger one
+	public void insertOrDecrease(int v, double key) {
+		if(pos[v] < 0) {
+			heap[size] = v;
+			pos[v] = size;
+			keys[v] = key;
+			ties[v] = 0.0;
+			siftUp(size++);
+		} else if(key < keys[v]) {
+			keys[v] = key;
+			ties[v] = 0.0;
+			siftUp(pos[v]);
+		}
+	}
+
+	// queue v with keys (key, tie), or move it if it is queued, whether the keys grow or shrink
+	public void update(int v, double key, double tie) {
+		keys[v] = key;
+		ties[v] = tie;
+		if(pos[v] < 0) {
+			heap[size] = v;
+			pos[v] = size;
+			siftUp(size++);
+		} else {
+			siftUp(pos[v]);
+			siftDown(pos[v]);
+		}
+	}
+
+	// take v out of the heap if it is queued
+	public void remove(int v) {
+		int i = pos[v];
+		if(i < 0) {
+			return;
+		}
+		pos[v] = -1;
+		size--;
+		if(i < size) {
+			int moved = heap[size];
+			heap[i] = moved;
+			pos[moved] = i;
+			siftUp(i);
+			siftDown(pos[moved]);
+		}
+	}
+
+	// vertex with the smallest key, the heap must not be empty
+	public int peek() { return heap[0]; }
+
+	// remove and return the vertex with the smallest key
+	public int poll() {
+		int top = heap[0];
+		pos[top] = -1;
+		size--;
+		if(size > 0) {
+			heap[0] = heap[size];
+			pos[heap[0]] = 0;
+			siftDown(0);
+		}
+		return top;
+	}
+
+	// empty the heap in O(size)
+	public void clear() {
+		for(int i = 0; i < size; i++) {
+			pos[heap[i]] = -1;
+		}
+		size = 0;
+	}
+
+	// true if a comes before b
+	private boolean less(int a, int b) {
+		return keys[a] < keys[b] || (keys[a] == keys[b] && ties[a] < ties[b]);
+	}
+
+	private void siftUp(int i) {
+		int v = heap[i];
+		while(i > 0) {
+			int parent = (i-1) >>> 1;
+			int p = heap[parent];
+			if(!less(v, p)) {
+				break;
+			}
+			heap[i] = p;
+			pos[p] = i;
+			i = parent;
+		}
+		heap[i] = v;
+		pos[v] = i;
+	}
+
+	private void siftDown(int i) {
+		int v = heap[i];
+		while(true) {
+			int child = 2*i + 1;
+			if(child >= size) {
+				break;
+			}
+			if(child+1 < size && less(heap[child+1], heap[child])) {
+				child++;
+			}
+			int c = heap[child];
+			if(!less(c, v)) {
+				break;
+			}
+			heap[i] = c;
+			pos[c] = i;
+			i = child;
+		}
+		heap[i] = v;
+		pos[v] = i;
+	}
+}
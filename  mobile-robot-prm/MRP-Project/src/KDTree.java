@@ -0,0 +1,275 @@
+import java.util.Random;
+
+/*
+ * KDTree.java
+ *
+ * Static 2-d tree over integer map points for nearest neighbour and radius
+ * queries. The tree is implicit: the points are permuted so that the median
+ * of every subrange [lo,hi) sits at (lo+hi)/2 and splits the range along
+ * x on even depths and y on odd depths. Queries do not modify the tree, so
+ * any number of threads may query it at once.
+ */
+public class KDTree {
+
+	private final int xs[], ys[]; // point coordinates in tree order
+	private final int ids[];      // index of each point in the array the tree was built from
+
+	// build over pts[i] = [x,y]
+	public KDTree(int pts[][]) {
+		int n = pts.length;
+		xs = new int[n];
+		ys = new int[n];
+		ids = new int[n];
+		for(int i = 0; i < n; i++) {
+			xs[i] = pts[i][0];
+			ys[i] = pts[i][1];
+			ids[i] = i;
+		}
+		build(0, n, 0);
+	}
+
+	public int size() { return ids.length; }
+
+
+	///////////////////////////////////////////////////////////////////
+	// Queries
+	///////////////////////////////////////////////////////////////////
+
+	// indices of the (up to) k points closest to (qx,qy), nearest first, ties by index
+	// returns the number of indices stored in out
+	public int nearest(int qx, int qy, int k, int out[]) {
+		k = Math.min(k, ids.length);
+		if(k <= 0) {
+			return 0;
+		}
+		// max-heap of the best k so far, keyed by (squared distance, index)
+		long heapdist[] = new long[k];
+		int heapid[] = new int[k];
+		int size = nearest(0, ids.length, 0, qx, qy, k, heapdist, heapid, 0);
+
+		// pop into out, farthest last
+		for(int i = size-1; i >= 0; i--) {
+			out[i] = heapid[0];
+			heapdist[0] = heapdist[i];
+			heapid[0] = heapid[i];
+			siftDown(heapdist, heapid, 0, i);
+		}
+		return size;
+	}
+
+	// indices of all points within radius of (qx,qy) (boundary included), in no particular order
+	public int[] withinRadius(int qx, int qy, double radius) {
+		long r2 = (long) Math.floor(radius * radius);
+		int found[] = new int[16];
+		int count = 0;
+		// explicit stack of subranges
+		int stack[] = new int[3 * 64];
+		int top = 0;
+		stack[top++] = 0; stack[top++] = ids.length; stack[top++] = 0;
+		while(top > 0) {
+			int depth = stack[--top], hi = stack[--top], lo = stack[--top];
+			if(lo >= hi) {
+				continue;
+			}
+			int mid = (lo + hi) >>> 1;
+			long dx = xs[mid] - qx, dy = ys[mid] - qy;
+			if(dx*dx + dy*dy <= r2) {
+				if(count == found.length) {
+					int tmp[] = new int[2 * count];
+					System.arraycopy(found, 0, tmp, 0, count);
+					found = tmp;
+				}
+				found[count++] = ids[mid];
+			}
+			long diff = ((depth & 1) == 0) ? qx - xs[mid] : qy - ys[mid];
+			if(diff <= 0 || diff*diff <= r2) {
+				stack[top++] = lo; stack[top++] = mid; stack[top++] = depth+1;
+			}
+			if(diff >= 0 || diff*diff <= r2) {
+				stack[top++] = mid+1; stack[top++] = hi; stack[top++] = depth+1;
+			}
+		}
+		int result[] = new int[count];
+		System.arraycopy(found, 0, result, 0, count);
+		return result;
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Internals
+	///////////////////////////////////////////////////////////////////
+
+	// arrange [lo,hi) so that its median along the depth's axis is in the middle
+	private void build(int lo, int hi, int depth) {
+		while(hi - lo > 1) {
+			int mid = (lo + hi) >>> 1;
+			select(lo, hi-1, mid, (depth & 1) == 0);
+			build(lo, mid, depth+1);
+			lo = mid+1;
+			depth++;
+		}
+	}
+
+	// quickselect the k-th smallest of [lo,hi] by x or y, ties by index
+	private void select(int lo, int hi, int k, boolean byx) {
+		while(hi > lo) {
+			int p = lo + ((hi - lo) >>> 1);
+			swap(p, hi);
+			int store = lo;
+			for(int i = lo; i < hi; i++) {
+				if(less(i, hi, byx)) {
+					swap(i, store++);
+				}
+			}
+			swap(store, hi);
+			if(store == k) {
+				return;
+			} else if(store < k) {
+				lo = store+1;
+			} else {
+				hi = store-1;
+			}
+		}
+	}
+
+	private boolean less(int a, int b, boolean byx) {
+		int ka = byx ? xs[a] : ys[a], kb = byx ? xs[b] : ys[b];
+		return (ka != kb) ? ka < kb : ids[a] < ids[b];
+	}
+
+	private void swap(int a, int b) {
+		int t = xs[a]; xs[a] = xs[b]; xs[b] = t;
+		t = ys[a]; ys[a] = ys[b]; ys[b] = t;
+		t = ids[a]; ids[a] = ids[b]; ids[b] = t;
+	}
+
+	// recursive k nearest search over [lo,hi), returns the new heap size
+	private int nearest(int lo, int hi, int depth, int qx, int qy, int k,
+	                    long heapdist[], int heapid[], int size) {
+		if(lo >= hi) {
+			return size;
+		}
+		int mid = (lo + hi) >>> 1;
+		long dx = xs[mid] - qx, dy = ys[mid] - qy;
+		long d2 = dx*dx + dy*dy;
+		if(size < k) {
+			heapdist[size] = d2;
+			heapid[size] = ids[mid];
+			siftUp(heapdist, heapid, size);
+			size++;
+		} else if(farther(heapdist[0], heapid[0], d2, ids[mid])) {
+			heapdist[0] = d2;
+			heapid[0] = ids[mid];
+			siftDown(heapdist, heapid, 0, size);
+		}
+
+		long diff = ((depth & 1) == 0) ? qx - xs[mid] : qy - ys[mid];
+		int nearlo = (diff <= 0) ? lo : mid+1, nearhi = (diff <= 0) ? mid : hi;
+		int farlo = (diff <= 0) ? mid+1 : lo, farhi = (diff <= 0) ? hi : mid;
+		size = nearest(nearlo, nearhi, depth+1, qx, qy, k, heapdist, heapid, size);
+		if(size < k || diff*diff <= heapdist[0]) {
+			size = nearest(farlo, farhi, depth+1, qx, qy, k, heapdist, heapid, size);
+		}
+		return size;
+	}
+
+	// (d1,id1) ranks after (d2,id2)
+	private static boolean farther(long d1, int id1, long d2, int id2) {
+		return (d1 != d2) ? d1 > d2 : id1 > id2;
+	}
+
+	private static void siftUp(long heapdist[], int heapid[], int i) {
+		while(i > 0) {
+			int parent = (i-1) >>> 1;
+			if(!farther(heapdist[i], heapid[i], heapdist[parent], heapid[parent])) {
+				return;
+			}
+			swapHeap(heapdist, heapid, i, parent);
+			i = parent;
+		}
+	}
+
+	private static void siftDown(long heapdist[], int heapid[], int i, int size) {
+		while(true) {
+			int child = 2*i + 1;
+			if(child >= size) {
+				return;
+			}
+			if(child+1 < size && farther(heapdist[child+1], heapid[child+1], heapdist[child], heapid[child])) {
+				child++;
+			}
+			if(!farther(heapdist[child], heapid[child], heapdist[i], heapid[i])) {
+				return;
+			}
+			swapHeap(heapdist, heapid, i, child);
+			i = child;
+		}
+	}
+
+	private static void swapHeap(long heapdist[], int heapid[], int a, int b) {
+		long td = heapdist[a]; heapdist[a] = heapdist[b]; heapdist[b] = td;
+		int ti = heapid[a]; heapid[a] = heapid[b]; heapid[b] = ti;
+	}
+
+
+	// TEST - compare the queries against brute force on random points
+	public static void main(String args[]) {
+		Random rand = new Random(0);
+		int errors = 0;
+		for(int trial = 0; trial < 200; trial++) {
+			int n = 1 + rand.nextInt(300);
+			int pts[][] = new int[n][2];
+			for(int i = 0; i < n; i++) {
+				// small range so there are duplicates and ties
+				pts[i][0] = rand.nextInt(60);
+				pts[i][1] = rand.nextInt(30);
+			}
+			KDTree tree = new KDTree(pts);
+			int qx = rand.nextInt(70) - 5, qy = rand.nextInt(40) - 5;
+
+			int k = 1 + rand.nextInt(20);
+			int out[] = new int[k];
+			int found = tree.nearest(qx, qy, k, out);
+			// brute force: rank of every point by (distance, index)
+			for(int i = 0; i < found; i++) {
+				int rank = 0;
+				long di = dist2(pts[out[i]], qx, qy);
+				for(int j = 0; j < n; j++) {
+					long dj = dist2(pts[j], qx, qy);
+					if(dj < di || (dj == di && j < out[i])) {
+						rank++;
+					}
+				}
+				if(rank != i) {
+					errors++;
+				}
+			}
+			if(found != Math.min(k, n)) {
+				errors++;
+			}
+
+			double radius = rand.nextDouble() * 20;
+			int within[] = tree.withinRadius(qx, qy, radius);
+			int expected = 0;
+			for(int j = 0; j < n; j++) {
+				if(dist2(pts[j], qx, qy) <= radius*radius) {
+					expected++;
+				}
+			}
+			for(int i = 0; i < within.length; i++) {
+				if(dist2(pts[within[i]], qx, qy) > radius*radius) {
+					errors++;
+				}
+			}
+			if(within.length != expected) {
+				errors++;
+			}
+		}
+		System.out.println("KDTree query errors: " + errors);
+	}
+
+	private static long dist2(int pt[], int qx, int qy) {
+		long dx = pt[0] - qx, dy = pt[1] - qy;
+		return dx*dx + dy*dy;
+	}
+}
@@ -0,0 +1,390 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/*
+ * LandmarkTable.java
+ *
+ * Landmark distance tables for ALT search (A*, landmarks, triangle
+ * inequality). For a landmark L and any vertices v, t the triangle
+ * inequality gives d(v,t) >= |d(L,t) - d(L,v)|. The largest such bound
+ * over all landmarks is an admissible and consistent heuristic that
+ * follows the roadmap around walls, where straight-line distance
+ * badly underestimates.
+ *
+ * Landmarks are picked by farthest selection inside the largest
+ * connected component. Each new landmark is the vertex farthest, by
+ * graph distance, from the landmarks picked so far. The table holds
+ * one Dijkstra distance row per landmark plus connected component labels,
+ * computed over every edge not marked EDGE_INVALID. Edges that turn out
+ * blocked later only make distances longer, so the bounds stay admissible,
+ * and vertices in different components stay unreachable.
+ *
+ * The table follows vertices added to and removed from the roadmap instead
+ * of being built again (see addVertex). The bounds only need each row to
+ * change by at most the edge length across every edge. A new vertex gets
+ * its value from its neighbours. When it is a shortcut between two of them,
+ * no value fits, and the row is scaled down until one does. Scaling a whole
+ * row down keeps every other edge within bounds. A robot position next to
+ * the roadmap is usually a shortcut by a few percent at most. The scales
+ * are worked out again when added vertices are removed.
+ */
+public class LandmarkTable {
+
+	private final RoadmapGraph graph;
+	private int version;              // of graph when the table was built or last followed it
+	private int revision;             // changes with the scales, see getRevision
+	private int base;                 // vertices below this have exact distances from the build
+	private final int landmarks[];
+	private final double dist[][];    // dist[l][v] graph distance from landmarks[l] to v
+	private final double scale[];     // factor of each row, below 1 after shortcuts were added
+	private int component[];          // connected component label of each vertex
+	private final UnionFind merged;   // labels of components joined by added vertices
+
+	// build tables for up to numlandmarks landmarks over the usable edges of graph
+	public LandmarkTable(RoadmapGraph graph, byte edgestates[], int numlandmarks) {
+		this.graph = graph;
+		this.version = graph.getVersion();
+		int n = graph.numVertices();
+		component = new int[n];
+		int largest = labelComponents(graph, edgestates, component);
+		int numlabels = 0;
+		for(int v = 0; v < n; v++) {
+			numlabels = Math.max(numlabels, component[v] + 1);
+		}
+		merged = new UnionFind(numlabels);
+
+		// farthest selection, starting from the vertex farthest from the first vertex in the component
+		numlandmarks = (largest < 0) ? 0 : numlandmarks;
+		int chosen[] = new int[numlandmarks];
+		double rows[][] = new double[numlandmarks][];
+		double mindist[] = new double[n];
+		IndexedMinHeap heap = new IndexedMinHeap(n);
+		int count = 0;
+		if(numlandmarks > 0) {
+			int first = 0;
+			while(component[first] != largest) {
+				first++;
+			}
+			double probe[] = new double[n];
+			dijkstra(graph, edgestates, first, heap, probe);
+			Arrays.fill(mindist, Double.POSITIVE_INFINITY);
+			int next = farthest(probe, mindist);
+			while(count < numlandmarks && next >= 0) {
+				chosen[count] = next;
+				rows[count] = new double[n];
+				dijkstra(graph, edgestates, next, heap, rows[count]);
+				for(int v = 0; v < n; v++) {
+					mindist[v] = Math.min(mindist[v], rows[count][v]);
+				}
+				count++;
+				next = farthest(mindist, mindist);
+			}
+		}
+		landmarks = Arrays.copyOf(chosen, count);
+		dist = Arrays.copyOf(rows, count);
+		scale = new double[count];
+		Arrays.fill(scale, 1.0);
+		base = n;
+	}
+
+	// vertex with the largest finite score among those with nonzero limit, or -1
+	private static int farthest(double score[], double limit[]) {
+		int best = -1;
+		for(int v = 0; v < score.length; v++) {
+			if(score[v] < Double.POSITIVE_INFINITY && limit[v] > 0.0 &&
+			   (best < 0 || score[v] > score[best])) {
+				best = v;
+			}
+		}
+		return best;
+	}
+
+	// single-source shortest distances from source into dist, infinite where unreachable
+	private static void dijkstra(RoadmapGraph graph, byte edgestates[], int source,
+	                             IndexedMinHeap heap, double dist[]) {
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		heap.clear();
+		dist[source] = 0.0;
+		heap.insertOrDecrease(source, 0.0);
+		while(!heap.isEmpty()) {
+			int x = heap.poll();
+			for(int e = graph.firstEdge(x); e < graph.endEdge(x); e++) {
+				if(edgestates != null && edgestates[e] == ProbRoadMap.EDGE_INVALID) {
+					continue;
+				}
+				int y = graph.target(e);
+				double d = dist[x] + graph.length(e);
+				if(d < dist[y]) {
+					dist[y] = d;
+					heap.insertOrDecrease(y, d);
+				}
+			}
+		}
+	}
+
+	// label connected components, returns the label of the largest one (-1 if there are no vertices)
+	private static int labelComponents(RoadmapGraph graph, byte edgestates[], int component[]) {
+		int n = graph.numVertices();
+		Arrays.fill(component, -1);
+		int queue[] = new int[n];
+		int numcomponents = 0, largest = -1, largestsize = 0;
+		for(int s = 0; s < n; s++) {
+			if(component[s] >= 0) {
+				continue;
+			}
+			int head = 0, tail = 0;
+			queue[tail++] = s;
+			component[s] = numcomponents;
+			while(head < tail) {
+				int x = queue[head++];
+				for(int e = graph.firstEdge(x); e < graph.endEdge(x); e++) {
+					if(edgestates != null && edgestates[e] == ProbRoadMap.EDGE_INVALID) {
+						continue;
+					}
+					int y = graph.target(e);
+					if(component[y] < 0) {
+						component[y] = numcomponents;
+						queue[tail++] = y;
+					}
+				}
+			}
+			if(tail > largestsize) {
+				largestsize = tail;
+				largest = numcomponents;
+			}
+			numcomponents++;
+		}
+		return largest;
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Changes
+	///////////////////////////////////////////////////////////////////
+
+	// vertex v was just appended to the graph (possibly reusing the number of a removed one)
+	// together with all of its edges, and the table was for the graph before that
+	// O(degree^2) per landmark, the table is for the graph again afterwards
+	public void addVertex(byte edgestates[], int v) {
+		if(v >= component.length) {
+			int capacity = Math.max(v+1, component.length + (component.length >>> 1));
+			component = Arrays.copyOf(component, capacity);
+			for(int l = 0; l < dist.length; l++) {
+				dist[l] = Arrays.copyOf(dist[l], capacity);
+			}
+		}
+		if(follow(edgestates, v)) {
+			revision++;
+		}
+		component[v] = -1;
+		for(int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+			if(edgestates != null && edgestates[e] == ProbRoadMap.EDGE_INVALID) {
+				continue;
+			}
+			if(component[v] < 0) {
+				component[v] = component[graph.target(e)];
+			} else {
+				merged.union(component[v], component[graph.target(e)]);
+			}
+		}
+		if(component[v] < 0) {
+			component[v] = merged.add(); // no usable edges, a component of its own
+		}
+		version = graph.getVersion();
+	}
+
+	// the edges of vertex v were removed (and v itself if it was the last one)
+	// the vertices added since the build are followed again without v, in the order they were
+	// added, which raises the scales v had lowered (components stay joined)
+	public void removeVertex(byte edgestates[], int v) {
+		int n = graph.numVertices();
+		base = Math.min(base, n);
+		if(v >= base) {
+			boolean changed = false;
+			for(int l = 0; l < scale.length; l++) {
+				changed |= scale[l] < 1.0;
+			}
+			Arrays.fill(scale, 1.0);
+			for(int w = base; w < n; w++) {
+				changed |= follow(edgestates, w);
+			}
+			if(changed) {
+				revision++; // conservative, the scales may have come out the same
+			}
+		}
+		version = graph.getVersion();
+	}
+
+	// work out the row entries of added vertex v from its neighbours with lower numbers, the
+	// ones that were there when it was added, lowering the scale of a row as far as needed for
+	// some entry to fit every edge of v: scale * |dist[u] - dist[w]| <= c(u,v) + c(v,w)
+	// returns true if a scale was lowered
+	private boolean follow(byte edgestates[], int v) {
+		boolean lowered = false;
+		for(int l = 0; l < dist.length; l++) {
+			double row[] = dist[l];
+			double s = scale[l];
+			boolean reached = false, unreached = false;
+			for(int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+				int u = graph.target(e);
+				if(u >= v || (edgestates != null && edgestates[e] == ProbRoadMap.EDGE_INVALID)) {
+					continue;
+				}
+				if(row[u] == Double.POSITIVE_INFINITY) {
+					unreached = true;
+					continue;
+				}
+				reached = true;
+				for(int f = e+1; f < graph.endEdge(v); f++) {
+					int w = graph.target(f);
+					if(w >= v || row[w] == Double.POSITIVE_INFINITY ||
+					   (edgestates != null && edgestates[f] == ProbRoadMap.EDGE_INVALID)) {
+						continue;
+					}
+					double diff = Math.abs(row[u] - row[w]), c = graph.length(e) + graph.length(f);
+					if(s * diff > c) {
+						s = c / diff; // v is a shortcut between u and w
+					}
+				}
+			}
+			if(reached && unreached) {
+				s = 0.0; // v joins the landmark's component to one it cannot reach, no bound is left
+			}
+			lowered |= s < scale[l];
+			scale[l] = s;
+			double value = Double.POSITIVE_INFINITY; // infinite if no neighbour is reached
+			if(s > 0.0) {
+				for(int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+					int u = graph.target(e);
+					if(u < v && (edgestates == null || edgestates[e] != ProbRoadMap.EDGE_INVALID)) {
+						value = Math.min(value, row[u] + graph.length(e) / s);
+					}
+				}
+			}
+			row[v] = value;
+		}
+		return lowered;
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Queries
+	///////////////////////////////////////////////////////////////////
+
+	// true if this table was built for graph as it is now (tables are tied to one graph
+	// instance, and go out of date when its vertices or edges change without addVertex or
+	// removeVertex being told)
+	public boolean isFor(RoadmapGraph graph) {
+		return this.graph == graph && version == graph.getVersion();
+	}
+
+	// changes whenever the scales may have, which changes the bounds between existing vertices
+	// (addVertex leaves them alone otherwise)
+	public int getRevision() { return revision; }
+
+	public int getNumLandmarks() { return landmarks.length; }
+
+	public int getLandmark(int l) { return landmarks[l]; }
+
+	public double getScale(int l) { return scale[l]; }
+
+	// false if no path can exist between u and v
+	public boolean mayConnect(int u, int v) {
+		return merged.connected(component[u], component[v]);
+	}
+
+	// landmark lower bound on the graph distance from v to t
+	public double lowerBound(int v, int t) {
+		double bound = 0.0;
+		for(int l = 0; l < dist.length; l++) {
+			double dv = dist[l][v], dt = dist[l][t];
+			if(dv < Double.POSITIVE_INFINITY && dt < Double.POSITIVE_INFINITY) {
+				bound = Math.max(bound, scale[l] * Math.abs(dt - dv));
+			}
+		}
+		return bound;
+	}
+
+	// A* heuristic from v to t: the larger of the landmark bound and straight-line distance
+	public double estimate(int pts[][], int v, int t) {
+		return Math.max(lowerBound(v,t), AStarSearch.distance(pts[v][0], pts[v][1], pts[t][0], pts[t][1]));
+	}
+
+	// approximate heap footprint in bytes
+	public long sizeInBytes() {
+		return 8L * dist.length * component.length + 4L * component.length + 8L * merged.numVertices() + 8L * scale.length;
+	}
+
+
+	// TEST - compare Euclidean A*, ALT A* and bidirectional ALT on a roadmap
+	// usage: java LandmarkTable [map_file] [num_pts] [num_landmarks] [connection] [seed]
+	public static void main(String args[]) throws IOException {
+		String mapfile = (args.length > 0) ? args[0] : ProbRoadMap.DEFAULT_MAP_FILE;
+		int numpts = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+		int numlandmarks = (args.length > 2) ? Integer.parseInt(args[2]) : ProbRoadMap.NUM_LANDMARKS;
+		String spec = (args.length > 3) ? args[3] : "prmstar";
+		long seed = (args.length > 4) ? Long.parseLong(args[4]) : 42L;
+
+		MapLoader.LoadedMap map = MapLoader.load(mapfile);
+		ConfigurationSpace cspace = new ConfigurationSpace(map.grid);
+		DistanceField field = new DistanceField(map.grid);
+		FreeSpaceIndex index = new FreeSpaceIndex(cspace.getLayer(ProbRoadMap.POINT_BUFFER_ZONE));
+		EdgeValidator validator = new EdgeValidator(field, cspace, ProbRoadMap.PATH_BUFFER_ZONE-1);
+		int pts[][] = new int[numpts][2];
+		new ParallelSampler().sample(index, seed, pts, 0, numpts);
+		long pairs[] = ConnectionStrategy.parse(spec).candidatePairs(pts, index.size());
+		RoadmapGraph graph = new RoadmapGraph(pts, new ParallelEdgeBuilder().validate(validator, pts, pairs));
+
+		long t = System.nanoTime();
+		LandmarkTable table = new LandmarkTable(graph, null, numlandmarks);
+		t = System.nanoTime() - t;
+		System.out.printf("%d vertices, %d edges, %d landmarks: %.1f ms to build, %.1f KB\n",
+		                  graph.numVertices(), graph.numEdges(), table.getNumLandmarks(), t/1e6, table.sizeInBytes()/1024.0);
+
+		int numqueries = 500;
+		int queries[] = new int[2*numqueries];
+		SplittableRandom rand = new SplittableRandom(seed);
+		for(int q = 0; q < queries.length; q++) {
+			queries[q] = rand.nextInt(numpts);
+		}
+		SearchContext forward = new SearchContext(numpts), reverse = new SearchContext(numpts);
+		String names[] = {"euclidean A*", "ALT A*", "bidirectional ALT"};
+		double reference[] = new double[numqueries];
+
+		int rounds = 5;
+		for(int round = 0; round < rounds; round++) { // only the last round is reported, the rest warm up
+			for(int m = 0; m < names.length; m++) {
+				long settled = 0, time = 0;
+				int found = 0, mismatches = 0;
+				for(int q = 0; q < numqueries; q++) {
+					int s = queries[2*q], d = queries[2*q+1];
+					t = System.nanoTime();
+					int length;
+					if(m == 0) {
+						length = AStarSearch.search(graph, pts, null, s, d, null, forward, null);
+					} else if(m == 1) {
+						length = AStarSearch.search(graph, pts, null, s, d, table, forward, null);
+					} else {
+						length = BidirectionalSearch.search(graph, pts, null, s, d, table, forward, reverse, null);
+					}
+					time += System.nanoTime() - t;
+					for(int v = 0; v < numpts; v++) {
+						settled += (forward.isClosed(v) ? 1 : 0) + ((m == 2 && reverse.isClosed(v)) ? 1 : 0);
+					}
+					double cost = (length < 0) ? -1.0 : forward.gscore(d);
+					if(m == 0) {
+						reference[q] = cost;
+					} else if(Math.abs(cost - reference[q]) > 1e-6 * Math.max(1.0, reference[q])) {
+						mismatches++;
+					}
+					found += (length < 0) ? 0 : 1;
+				}
+				if(round == rounds-1) {
+					System.out.printf("%-18s %.3f ms/query, %6.1f settled/query, %d paths, %d cost mismatches\n",
+					                  names[m], time/1e6/numqueries, (double) settled/numqueries, found, mismatches);
+				}
+			}
+		}
+	}
+}
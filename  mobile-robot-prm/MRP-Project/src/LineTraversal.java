@@ -0,0 +1,149 @@
+/*
+ * LineTraversal.java
+ *
+ * Integer line-walking kernels shared by edge validation, line drawing and
+ * the virtual sonar. Nothing here allocates, and no trigonometry is done
+ * per pixel.
+ *
+ * Segments use Bresenham's algorithm: one pixel per step along the major
+ * axis, with an integer error term for the minor axis. Rays use the
+ * Amanatides-Woo voxel traversal ("A Fast Voxel Traversal Algorithm for
+ * Ray Tracing", 1987), which visits every grid cell the ray passes through.
+ */
+public class LineTraversal {
+
+	// called for each pixel, return false to stop the traversal early
+	public interface PixelVisitor {
+		boolean visit(int x, int y);
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Segments (Bresenham)
+	///////////////////////////////////////////////////////////////////
+
+	// number of steps from (x0,y0) to (x1,y1), step 0 is the start and the last step is the end
+	public static int numSteps(int x0, int y0, int x1, int y1) {
+		return Math.max(Math.abs(x1-x0), Math.abs(y1-y0));
+	}
+
+	// minor axis offset at step k of a segment with numsteps major steps and
+	// minordelta (>= 0) minor steps, i.e. round(k * minordelta / numsteps) with ties up
+	// gives the same pixels as the incremental walk in segment(), in any order
+	public static int minorOffset(int k, int minordelta, int numsteps) {
+		return (int) ((2L*k*minordelta + numsteps) / (2L*numsteps));
+	}
+
+	// x of pixel k along the segment, 0 <= k <= numSteps()
+	public static int stepX(int x0, int y0, int x1, int y1, int k) {
+		int dx = x1-x0, dy = y1-y0;
+		int n = Math.max(Math.abs(dx), Math.abs(dy));
+		if(n == 0) {
+			return x0;
+		}
+		if(Math.abs(dx) >= Math.abs(dy)) {
+			return x0 + Integer.signum(dx)*k;
+		}
+		return x0 + Integer.signum(dx)*minorOffset(k, Math.abs(dx), n);
+	}
+
+	// y of pixel k along the segment, 0 <= k <= numSteps()
+	public static int stepY(int x0, int y0, int x1, int y1, int k) {
+		int dx = x1-x0, dy = y1-y0;
+		int n = Math.max(Math.abs(dx), Math.abs(dy));
+		if(n == 0) {
+			return y0;
+		}
+		if(Math.abs(dx) >= Math.abs(dy)) {
+			return y0 + Integer.signum(dy)*minorOffset(k, Math.abs(dy), n);
+		}
+		return y0 + Integer.signum(dy)*k;
+	}
+
+	// visit steps [from,to] of the segment from (x0,y0) to (x1,y1) in order
+	// returns true if every visited pixel was accepted
+	public static boolean segment(int x0, int y0, int x1, int y1, int from, int to, PixelVisitor visitor) {
+		int dx = x1-x0, dy = y1-y0;
+		int sx = Integer.signum(dx), sy = Integer.signum(dy);
+		int adx = Math.abs(dx), ady = Math.abs(dy);
+		boolean xmajor = adx >= ady;
+		int n = xmajor ? adx : ady;
+		int dm = xmajor ? ady : adx;
+		if(n == 0) {
+			return (from > 0 || to < 0) || visitor.visit(x0,y0);
+		}
+		from = Math.max(from, 0);
+		to = Math.min(to, n);
+		if(from > to) {
+			return true;
+		}
+
+		// error term e = (2k*dm + n) mod 2n, minor offset m = (2k*dm + n) div 2n
+		long num = 2L*from*dm + n;
+		int m = (int) (num / (2L*n));
+		long e = num - 2L*n*m;
+		long twon = 2L*n, twodm = 2L*dm;
+
+		int x, y;
+		for(int k = from; k <= to; k++) {
+			if(xmajor) {
+				x = x0 + sx*k; y = y0 + sy*m;
+			} else {
+				x = x0 + sx*m; y = y0 + sy*k;
+			}
+			if(!visitor.visit(x,y)) {
+				return false;
+			}
+			e += twodm;
+			if(e >= twon) {
+				e -= twon;
+				m++;
+			}
+		}
+		return true;
+	}
+
+	// visit every pixel of the segment, both end points included
+	public static boolean segment(int x0, int y0, int x1, int y1, PixelVisitor visitor) {
+		return segment(x0,y0,x1,y1, 0, Integer.MAX_VALUE, visitor);
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Rays (Amanatides-Woo DDA)
+	///////////////////////////////////////////////////////////////////
+
+	// walk the cells crossed by the ray from (ox,oy) along (dirx,diry) (unit length),
+	// cell (x,y) covers [x,x+1) x [y,y+1)
+	// returns the distance at which the visitor stopped the ray, or maxdist
+	public static double ray(double ox, double oy, double dirx, double diry, double maxdist,
+			                 PixelVisitor visitor) {
+		int x = (int) Math.floor(ox);
+		int y = (int) Math.floor(oy);
+		int stepx = (dirx > 0) ? 1 : -1;
+		int stepy = (diry > 0) ? 1 : -1;
+
+		// distance along the ray to the next vertical / horizontal cell boundary
+		double tdeltax = (dirx != 0) ? Math.abs(1.0 / dirx) : Double.POSITIVE_INFINITY;
+		double tdeltay = (diry != 0) ? Math.abs(1.0 / diry) : Double.POSITIVE_INFINITY;
+		double tmaxx = (dirx != 0) ? ((dirx > 0) ? (x + 1 - ox) : (ox - x)) * tdeltax : Double.POSITIVE_INFINITY;
+		double tmaxy = (diry != 0) ? ((diry > 0) ? (y + 1 - oy) : (oy - y)) * tdeltay : Double.POSITIVE_INFINITY;
+
+		double t = 0.0;
+		while(t < maxdist) {
+			if(!visitor.visit(x,y)) {
+				return t;
+			}
+			if(tmaxx < tmaxy) {
+				t = tmaxx;
+				tmaxx += tdeltax;
+				x += stepx;
+			} else {
+				t = tmaxy;
+				tmaxy += tdeltay;
+				y += stepy;
+			}
+		}
+		return maxdist;
+	}
+}
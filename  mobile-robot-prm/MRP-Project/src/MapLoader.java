@@ -0,0 +1,727 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.InflaterInputStream;
+
+/*
+ * MapLoader.java
+ *
+ * Loads an occupancy file straight into an OccupancyGrid.
+ *
+ * Supported formats (detected from the file contents):
+ *   - Stage .world files, the map( bitmap ... ) entry is loaded
+ *   - PNG bitmaps, stream-decoded one scanline at a time
+ *   - binary PGM (P5), memory-mapped
+ *   - headerless raw files such as 3large.raw, memory-mapped
+ *
+ * Bitmaps follow the Stage convention: white cells are free, anything else
+ * is an obstacle. Raw files are inverted: 0 and 1 bytes are free (as the
+ * original loader read them), anything else is an obstacle. A raw file has no header, so its size is taken from the
+ * .world file in the same directory whose bitmap has the same base name
+ * (3large.raw <=> bitmap "bitmaps/3large.png").
+ */
+public class MapLoader {
+
+	private static final byte PNG_SIGNATURE[] = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+
+	// mapping windows are kept well under the 2 GB MappedByteBuffer limit
+	private static final long MAX_MAPPING = 1L << 30;
+
+	// 8 byte lanes, see packNonzeroBytes()
+	private static final long LOW7  = 0x7f7f7f7f7f7f7f7fL;
+	private static final long HIGH1 = 0x8080808080808080L;
+	private static final long GATHER = 0x0102040810204080L;
+	private static final long LOW1  = 0x0101010101010101L;
+
+	// PGM headers are read through a window that grows up to this size
+	private static final int PGM_HEADER_WINDOW = 4096;
+	private static final int MAX_PGM_HEADER = 1 << 20;
+
+	// loaded map and its real-world dimensions
+	public static class LoadedMap {
+		public final OccupancyGrid grid;
+		public final double mpp;         // meters per map pixel
+		public final double worldwidth;  // meters
+		public final double worldheight; // meters
+
+		public LoadedMap(OccupancyGrid grid, double mpp, double worldwidth, double worldheight) {
+			this.grid = grid;
+			this.mpp = mpp;
+			this.worldwidth = worldwidth;
+			this.worldheight = worldheight;
+		}
+	}
+
+	// details read from the map( ... ) entry of a .world file
+	private static class WorldInfo {
+		String bitmap;            // path relative to the .world file
+		double sizex, sizey;      // meters
+		double mapresolution = -1;
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Entry Points
+	///////////////////////////////////////////////////////////////////
+
+	// load a map, detecting the format from the file contents
+	public static LoadedMap load(String filename) throws IOException {
+		File file = new File(filename);
+		byte magic[] = readMagic(file);
+
+		if(startsWith(magic,PNG_SIGNATURE)) {
+			return describe(loadPNG(file), findWorldFor(file));
+		}
+		if(magic.length >= 2 && magic[0] == 'P' && magic[1] == '5') {
+			return describe(loadPGM(file), findWorldFor(file));
+		}
+		if(filename.endsWith(".world")) {
+			return loadWorld(file);
+		}
+
+		// headerless raw file, size comes from the matching .world file
+		File world = findWorld(file);
+		if(world == null) {
+			throw new IOException("No .world file describes the size of " + filename);
+		}
+		WorldInfo info = parseWorld(world);
+		File bitmap = new File(world.getParentFile(), info.bitmap);
+		int dims[] = readDimensions(bitmap);
+		return describe(loadRaw(file, dims[0], dims[1]), info);
+	}
+
+	// load the bitmap referenced by the map( ... ) entry of a Stage .world file
+	public static LoadedMap loadWorld(File world) throws IOException {
+		WorldInfo info = parseWorld(world);
+		if(info.bitmap == null) {
+			throw new IOException("No map bitmap in " + world);
+		}
+		File bitmap = new File(world.getParentFile(), info.bitmap);
+		byte magic[] = readMagic(bitmap);
+		OccupancyGrid grid;
+		if(startsWith(magic,PNG_SIGNATURE)) {
+			grid = loadPNG(bitmap);
+		} else if(magic.length >= 2 && magic[0] == 'P' && magic[1] == '5') {
+			grid = loadPGM(bitmap);
+		} else {
+			throw new IOException("Unsupported bitmap format: " + bitmap);
+		}
+		return describe(grid, info);
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Raw and PGM
+	///////////////////////////////////////////////////////////////////
+
+	// memory-map a headerless width*height file of bytes, 0 and 1 are free
+	public static OccupancyGrid loadRaw(File file, int width, int height) throws IOException {
+		FileInputStream input = new FileInputStream(file);
+		try {
+			FileChannel channel = input.getChannel();
+			long expected = (long) width * height;
+			if(channel.size() != expected) {
+				throw new IOException(file + " is " + channel.size() + " bytes, expected " +
+				                      width + "x" + height + " = " + expected);
+			}
+			OccupancyGrid grid = new OccupancyGrid(width,height);
+			packMapped(channel, 0, grid, false);
+			return grid;
+		} finally {
+			input.close();
+		}
+	}
+
+	// memory-map a binary PGM (P5) file, maxval is free
+	public static OccupancyGrid loadPGM(File file) throws IOException {
+		FileInputStream input = new FileInputStream(file);
+		try {
+			FileChannel channel = input.getChannel();
+			int header[] = readPGMHeader(channel, file);
+			int width = header[0], height = header[1], maxval = header[2], offset = header[3];
+			int bytesperpx = (maxval > 255) ? 2 : 1;
+			long expected = offset + (long) width * height * bytesperpx;
+			if(channel.size() < expected) {
+				throw new IOException(file + " is truncated, expected " + expected + " bytes");
+			}
+
+			OccupancyGrid grid = new OccupancyGrid(width,height);
+			if(maxval == 255) {
+				packMapped(channel, offset, grid, true);
+			} else {
+				packMappedGeneric(channel, offset, grid, bytesperpx, maxval);
+			}
+			return grid;
+		} finally {
+			input.close();
+		}
+	}
+
+	// [width, height, maxval, raster offset] of a PGM file
+	// comment lines can make the header long, so the window is doubled until it holds it all
+	private static int[] readPGMHeader(FileChannel channel, File file) throws IOException {
+		long window = Math.min(channel.size(), PGM_HEADER_WINDOW);
+		while(true) {
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, window);
+			int fields[] = parsePGMHeader(header, file);
+			if(fields != null) {
+				return fields;
+			}
+			if(window == channel.size() || window >= MAX_PGM_HEADER) {
+				throw new IOException("PGM header of " + file + " does not end within " + window + " bytes");
+			}
+			window = Math.min(channel.size(), 2*window);
+		}
+	}
+
+	// header fields, or null if the header runs past the end of the buffer
+	private static int[] parsePGMHeader(MappedByteBuffer header, File file) throws IOException {
+		int limit = header.limit();
+		// magic, width, height, maxval, then a single whitespace byte
+		int fields[] = new int[4];
+		int pos = 2;
+		for(int f = 0; f < 3; f++) {
+			// skip whitespace and comments
+			boolean skipping = true;
+			while(skipping) {
+				if(pos >= limit) {
+					return null;
+				}
+				char c = (char) header.get(pos);
+				if(c == '#') {
+					while(pos < limit && header.get(pos) != '\n') { pos++; }
+				} else if(Character.isWhitespace(c)) {
+					pos++;
+				} else {
+					skipping = false;
+				}
+			}
+			int val = 0, digits = 0;
+			while(pos < limit && Character.isDigit((char) header.get(pos))) {
+				val = val*10 + (header.get(pos) - '0');
+				pos++;
+				digits++;
+			}
+			if(pos >= limit) {
+				return null;
+			}
+			if(digits == 0 || digits > 9) {
+				throw new IOException("Bad PGM header in " + file + " at byte " + pos);
+			}
+			fields[f] = val;
+		}
+		fields[3] = pos+1; // single whitespace before the raster
+		return fields;
+	}
+
+	// pack 8-bit cells straight from the mapped file into the grid words
+	// inverted == false: bytes other than 0 and 1 are obstacles (raw)
+	// inverted == true:  bytes other than 0xff are obstacles (PGM)
+	private static void packMapped(FileChannel channel, long offset, OccupancyGrid grid,
+			                       boolean inverted) throws IOException {
+		int width = grid.getWidth(), height = grid.getHeight();
+		int wordsperrow = grid.getWordsPerRow();
+		long words[] = grid.getWords();
+		long rowbytes = width;
+		int rowsperwindow = (int) Math.max(1, MAX_MAPPING / rowbytes);
+
+		for(int y0 = 0; y0 < height; y0 += rowsperwindow) {
+			int rows = Math.min(rowsperwindow, height - y0);
+			MappedByteBuffer buff = channel.map(FileChannel.MapMode.READ_ONLY,
+			                                    offset + y0 * rowbytes, rows * rowbytes);
+			buff.order(ByteOrder.LITTLE_ENDIAN);
+
+			for(int r = 0; r < rows; r++) {
+				int rowstart = (int) (r * rowbytes);
+				int wordstart = (y0 + r) * wordsperrow;
+				for(int w = 0; w < wordsperrow; w++) {
+					int x0 = w << 6;
+					int n = Math.min(64, width - x0);
+					long word = 0;
+					int b = 0;
+					// 8 cells per read
+					for(; b + 8 <= n; b += 8) {
+						long v = buff.getLong(rowstart + x0 + b);
+						v = inverted ? ~v : (v & ~LOW1);
+						word |= packNonzeroBytes(v) << b;
+					}
+					for(; b < n; b++) {
+						byte v = buff.get(rowstart + x0 + b);
+						if(inverted ? (v != (byte) 0xff) : ((v & 0xfe) != 0)) {
+							word |= 1L << b;
+						}
+					}
+					words[wordstart + w] = word;
+				}
+			}
+		}
+	}
+
+	// 8 or 16 bit cells with an arbitrary maxval
+	private static void packMappedGeneric(FileChannel channel, long offset, OccupancyGrid grid,
+			                              int bytesperpx, int maxval) throws IOException {
+		int width = grid.getWidth(), height = grid.getHeight();
+		long rowbytes = (long) width * bytesperpx;
+		int rowsperwindow = (int) Math.max(1, MAX_MAPPING / rowbytes);
+
+		for(int y0 = 0; y0 < height; y0 += rowsperwindow) {
+			int rows = Math.min(rowsperwindow, height - y0);
+			MappedByteBuffer buff = channel.map(FileChannel.MapMode.READ_ONLY,
+			                                    offset + y0 * rowbytes, rows * rowbytes);
+			for(int r = 0; r < rows; r++) {
+				int rowstart = (int) (r * rowbytes);
+				for(int x = 0; x < width; x++) {
+					int val;
+					if(bytesperpx == 1) {
+						val = buff.get(rowstart + x) & 0xff;
+					} else { // PGM samples are big-endian
+						val = buff.getShort(rowstart + 2*x) & 0xffff;
+					}
+					if(val != maxval) {
+						grid.setObstacleUnchecked(x, y0 + r);
+					}
+				}
+			}
+		}
+	}
+
+	// one bit per nonzero byte of v, byte i (little-endian) => bit i
+	private static long packNonzeroBytes(long v) {
+		long t = (((v & LOW7) + LOW7) | v) & HIGH1; // high bit of each nonzero byte
+		return ((t >>> 7) * GATHER) >>> 56;
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// PNG
+	///////////////////////////////////////////////////////////////////
+
+	// decode a non-interlaced PNG one scanline at a time, only two scanlines are kept
+	public static OccupancyGrid loadPNG(File file) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			byte sig[] = new byte[PNG_SIGNATURE.length];
+			input.readFully(sig);
+			if(!startsWith(sig,PNG_SIGNATURE)) {
+				throw new IOException("Not a PNG file: " + file);
+			}
+
+			// IHDR is always first
+			int length = input.readInt();
+			int type = input.readInt();
+			if(type != chunkType("IHDR") || length != 13) {
+				throw new IOException("Missing IHDR chunk: " + file);
+			}
+			int width = input.readInt();
+			int height = input.readInt();
+			int bitdepth = input.readUnsignedByte();
+			int colortype = input.readUnsignedByte();
+			input.readUnsignedByte(); // compression, always deflate
+			input.readUnsignedByte(); // filter method, always adaptive
+			int interlace = input.readUnsignedByte();
+			input.readInt(); // CRC
+			if(interlace != 0) {
+				throw new IOException("Interlaced PNG files are not supported: " + file);
+			}
+
+			int channels;
+			switch(colortype) {
+				case 0: channels = 1; break; // gray
+				case 2: channels = 3; break; // RGB
+				case 3: channels = 1; break; // palette
+				case 4: channels = 2; break; // gray + alpha
+				case 6: channels = 4; break; // RGBA
+				default: throw new IOException("Bad PNG color type " + colortype + ": " + file);
+			}
+
+			// read chunks up to the first IDAT, keeping the palette
+			boolean freeindex[] = null;
+			type = 0;
+			while(type != chunkType("IDAT")) {
+				length = input.readInt();
+				type = input.readInt();
+				if(type == chunkType("PLTE")) {
+					freeindex = new boolean[256];
+					for(int i = 0; i < length/3; i++) {
+						int r = input.readUnsignedByte();
+						int g = input.readUnsignedByte();
+						int b = input.readUnsignedByte();
+						freeindex[i] = (r == 255 && g == 255 && b == 255);
+					}
+					input.skipBytes(length - 3*(length/3));
+					input.readInt(); // CRC
+				} else if(type != chunkType("IDAT")) {
+					if(type == chunkType("IEND")) {
+						throw new IOException("No image data: " + file);
+					}
+					skipFully(input, length + 4); // data + CRC
+				}
+			}
+			if(colortype == 3 && freeindex == null) {
+				throw new IOException("Missing PNG palette: " + file);
+			}
+
+			int bitsperpx = bitdepth * channels;
+			int bpp = Math.max(1, bitsperpx / 8); // filter unit
+			int linebytes = (int) (((long) width * bitsperpx + 7) / 8);
+			byte curr[] = new byte[linebytes];
+			byte prev[] = new byte[linebytes];
+			int maxsample = (1 << bitdepth) - 1;
+
+			OccupancyGrid grid = new OccupancyGrid(width,height);
+			long words[] = grid.getWords();
+			int wordsperrow = grid.getWordsPerRow();
+
+			InflaterInputStream pixels = new InflaterInputStream(new IdatInputStream(input, length));
+			for(int y = 0; y < height; y++) {
+				int filter = pixels.read();
+				readFully(pixels, curr);
+				unfilter(filter, curr, prev, bpp);
+
+				int wordstart = y * wordsperrow;
+				long word = 0;
+				for(int x = 0; x < width; x++) {
+					boolean free;
+					if(colortype == 3) {
+						free = freeindex[sample(curr, x, bitdepth)];
+					} else if(colortype == 0 || colortype == 4) {
+						free = sample(curr, x*channels, bitdepth) == maxsample;
+					} else {
+						free = sample(curr, x*channels,   bitdepth) == maxsample &&
+						       sample(curr, x*channels+1, bitdepth) == maxsample &&
+						       sample(curr, x*channels+2, bitdepth) == maxsample;
+					}
+					if(!free) {
+						word |= 1L << x;
+					}
+					if((x & 63) == 63 || x == width-1) {
+						words[wordstart + (x >>> 6)] = word;
+						word = 0;
+					}
+				}
+
+				byte tmp[] = prev; prev = curr; curr = tmp;
+			}
+			return grid;
+		} finally {
+			input.close();
+		}
+	}
+
+	// i-th sample of a scanline
+	private static int sample(byte line[], int i, int bitdepth) {
+		switch(bitdepth) {
+			case 8:  return line[i] & 0xff;
+			case 16: return ((line[2*i] & 0xff) << 8) | (line[2*i+1] & 0xff);
+			default: // 1, 2 or 4 bits, packed from the most significant bit
+				int perbyte = 8 / bitdepth;
+				int shift = 8 - bitdepth * (1 + i % perbyte);
+				return ((line[i / perbyte] & 0xff) >>> shift) & ((1 << bitdepth) - 1);
+		}
+	}
+
+	// reverse the per-scanline PNG filter in place
+	private static void unfilter(int filter, byte curr[], byte prev[], int bpp) throws IOException {
+		int n = curr.length;
+		switch(filter) {
+			case 0: // none
+				break;
+			case 1: // sub
+				for(int i = bpp; i < n; i++) {
+					curr[i] += curr[i-bpp];
+				}
+				break;
+			case 2: // up
+				for(int i = 0; i < n; i++) {
+					curr[i] += prev[i];
+				}
+				break;
+			case 3: // average
+				for(int i = 0; i < n; i++) {
+					int a = (i >= bpp) ? (curr[i-bpp] & 0xff) : 0;
+					curr[i] += (a + (prev[i] & 0xff)) >>> 1;
+				}
+				break;
+			case 4: // paeth
+				for(int i = 0; i < n; i++) {
+					int a = (i >= bpp) ? (curr[i-bpp] & 0xff) : 0;
+					int b = prev[i] & 0xff;
+					int c = (i >= bpp) ? (prev[i-bpp] & 0xff) : 0;
+					int p = a + b - c;
+					int pa = Math.abs(p-a), pb = Math.abs(p-b), pc = Math.abs(p-c);
+					curr[i] += (pa <= pb && pa <= pc) ? a : (pb <= pc) ? b : c;
+				}
+				break;
+			default:
+				throw new IOException("Bad PNG filter type: " + filter);
+		}
+	}
+
+	// concatenated contents of consecutive IDAT chunks
+	private static class IdatInputStream extends InputStream {
+		private final DataInputStream input;
+		private int remaining;
+		private boolean done = false;
+
+		IdatInputStream(DataInputStream input, int firstlength) {
+			this.input = input;
+			this.remaining = firstlength;
+		}
+
+		private boolean nextChunk() throws IOException {
+			while(remaining == 0 && !done) {
+				input.readInt(); // CRC of the previous chunk
+				int length = input.readInt();
+				int type = input.readInt();
+				if(type == chunkType("IDAT")) {
+					remaining = length;
+				} else {
+					done = true;
+				}
+			}
+			return !done;
+		}
+
+		public int read() throws IOException {
+			if(!nextChunk()) {
+				return -1;
+			}
+			remaining--;
+			return input.read();
+		}
+
+		public int read(byte b[], int off, int len) throws IOException {
+			if(!nextChunk()) {
+				return -1;
+			}
+			int n = input.read(b, off, Math.min(len, remaining));
+			if(n > 0) {
+				remaining -= n;
+			}
+			return n;
+		}
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Stage .world Files
+	///////////////////////////////////////////////////////////////////
+
+	private static final Pattern BITMAP = Pattern.compile("bitmap\\s+\"([^\"]+)\"");
+	private static final Pattern SIZE = Pattern.compile("(?<![\\w_])size\\s*\\[\\s*([-\\d.eE]+)\\s+([-\\d.eE]+)\\s*\\]");
+	private static final Pattern MAPRES = Pattern.compile("map_resolution\\s+([-\\d.eE]+)");
+
+	// read the map( ... ) entry of a .world file, falls back on the top-level size
+	private static WorldInfo parseWorld(File world) throws IOException {
+		StringBuilder text = new StringBuilder();
+		Scanner scan = new Scanner(new FileReader(world));
+		try {
+			while(scan.hasNextLine()) {
+				String line = scan.nextLine();
+				int comment = line.indexOf('#');
+				text.append(comment >= 0 ? line.substring(0,comment) : line).append('\n');
+			}
+		} finally {
+			scan.close();
+		}
+
+		// split into the top level and the body of the map( ... ) entry
+		String all = text.toString();
+		StringBuilder toplevel = new StringBuilder();
+		String mapbody = null;
+		int depth = 0, bodystart = -1;
+		Matcher mapstart = Pattern.compile("(?<![\\w_])map\\s*\\(").matcher(all);
+		int mapopen = mapstart.find() ? mapstart.end()-1 : -1;
+		for(int i = 0; i < all.length(); i++) {
+			char c = all.charAt(i);
+			if(c == '(') {
+				if(depth == 0 && i == mapopen) { bodystart = i+1; }
+				depth++;
+			} else if(c == ')') {
+				depth--;
+				if(depth == 0 && bodystart >= 0 && mapbody == null) {
+					mapbody = all.substring(bodystart, i);
+				}
+			} else if(depth == 0) {
+				toplevel.append(c);
+			}
+		}
+
+		WorldInfo info = new WorldInfo();
+		Matcher m;
+		if(mapbody != null) {
+			if((m = BITMAP.matcher(mapbody)).find()) {
+				info.bitmap = m.group(1);
+			}
+			if((m = MAPRES.matcher(mapbody)).find()) {
+				info.mapresolution = Double.parseDouble(m.group(1));
+			}
+			if((m = SIZE.matcher(mapbody)).find()) {
+				info.sizex = Double.parseDouble(m.group(1));
+				info.sizey = Double.parseDouble(m.group(2));
+			}
+		}
+		if(info.sizex <= 0 && (m = SIZE.matcher(toplevel)).find()) {
+			info.sizex = Double.parseDouble(m.group(1));
+			info.sizey = Double.parseDouble(m.group(2));
+		}
+		return info;
+	}
+
+	// attach real-world dimensions, Stage stretches the bitmap over the map size
+	private static LoadedMap describe(OccupancyGrid grid, WorldInfo info) throws IOException {
+		double mpp, worldwidth, worldheight;
+		if(info.mapresolution > 0) {
+			mpp = info.mapresolution;
+		} else if(info.sizex > 0) {
+			mpp = info.sizex / grid.getWidth();
+		} else {
+			throw new IOException("No map size or map_resolution");
+		}
+		if(info.sizex > 0 && info.sizey > 0) {
+			worldwidth = info.sizex;
+			worldheight = info.sizey;
+		} else {
+			worldwidth = grid.getWidth() * mpp;
+			worldheight = grid.getHeight() * mpp;
+		}
+		return new LoadedMap(grid, mpp, worldwidth, worldheight);
+	}
+
+	// find the .world file whose map bitmap has the same base name as mapfile
+	private static File findWorld(File mapfile) throws IOException {
+		File dir = mapfile.getAbsoluteFile().getParentFile();
+		String base = baseName(mapfile.getName());
+		File files[] = dir.listFiles();
+		if(files == null) {
+			return null;
+		}
+		java.util.Arrays.sort(files); // deterministic choice
+		for(int i = 0; i < files.length; i++) {
+			if(files[i].getName().endsWith(".world")) {
+				WorldInfo info = parseWorld(files[i]);
+				if(info.bitmap != null && baseName(new File(info.bitmap).getName()).equals(base) &&
+				   new File(dir, info.bitmap).exists()) {
+					return files[i];
+				}
+			}
+		}
+		return null;
+	}
+
+	// .world details for a bitmap loaded directly
+	private static WorldInfo findWorldFor(File bitmap) throws IOException {
+		File world = findWorld(bitmap);
+		if(world == null) {
+			// bitmaps are usually one directory below the .world file
+			File parent = bitmap.getAbsoluteFile().getParentFile().getParentFile();
+			if(parent != null) {
+				world = findWorld(new File(parent, bitmap.getName()));
+			}
+		}
+		if(world == null) {
+			throw new IOException("No .world file describes the resolution of " + bitmap);
+		}
+		return parseWorld(world);
+	}
+
+	// read [width,height] from a PNG or PGM header
+	private static int[] readDimensions(File bitmap) throws IOException {
+		byte magic[] = readMagic(bitmap);
+		if(startsWith(magic,PNG_SIGNATURE)) {
+			DataInputStream input = new DataInputStream(new FileInputStream(bitmap));
+			try {
+				skipFully(input, PNG_SIGNATURE.length + 8); // signature, IHDR length and type
+				int dims[] = { input.readInt(), input.readInt() };
+				return dims;
+			} finally {
+				input.close();
+			}
+		}
+		if(magic.length >= 2 && magic[0] == 'P' && magic[1] == '5') {
+			FileInputStream input = new FileInputStream(bitmap);
+			try {
+				int header[] = readPGMHeader(input.getChannel(), bitmap);
+				int dims[] = { header[0], header[1] };
+				return dims;
+			} finally {
+				input.close();
+			}
+		}
+		throw new IOException("Unsupported bitmap format: " + bitmap);
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Helpers
+	///////////////////////////////////////////////////////////////////
+
+	private static byte[] readMagic(File file) throws IOException {
+		FileInputStream input = new FileInputStream(file);
+		try {
+			byte magic[] = new byte[PNG_SIGNATURE.length];
+			int n = 0, r = 0;
+			while(n < magic.length && (r = input.read(magic, n, magic.length-n)) > 0) {
+				n += r;
+			}
+			byte tmp[] = new byte[n];
+			System.arraycopy(magic, 0, tmp, 0, n);
+			return tmp;
+		} finally {
+			input.close();
+		}
+	}
+
+	private static boolean startsWith(byte data[], byte prefix[]) {
+		if(data.length < prefix.length) {
+			return false;
+		}
+		for(int i = 0; i < prefix.length; i++) {
+			if(data[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int chunkType(String name) {
+		return (name.charAt(0) << 24) | (name.charAt(1) << 16) | (name.charAt(2) << 8) | name.charAt(3);
+	}
+
+	private static String baseName(String name) {
+		int dot = name.lastIndexOf('.');
+		return (dot > 0) ? name.substring(0,dot) : name;
+	}
+
+	private static void readFully(InputStream input, byte buff[]) throws IOException {
+		int n = 0, r;
+		while(n < buff.length) {
+			r = input.read(buff, n, buff.length-n);
+			if(r < 0) {
+				throw new EOFException("Unexpected end of image data");
+			}
+			n += r;
+		}
+	}
+
+	private static void skipFully(DataInputStream input, int n) throws IOException {
+		while(n > 0) {
+			int skipped = input.skipBytes(n);
+			if(skipped <= 0) {
+				throw new EOFException();
+			}
+			n -= skipped;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+import java.util.SplittableRandom;
+
+/*
+ * MedialAxisSampler.java
+ *
+ * Medial axis retraction of uniform samples. Based on: Wilmarth, Amato and
+ * Stiller, "MAPRM: A Probabilistic Roadmap Planner with Sampling on the
+ * Medial Axis of the Free Space" (1999). Every uniform sample climbs the
+ * distance field away from its nearest obstacle until it reaches the ridge
+ * where the clearance stops growing, i.e. the medial axis. All samples of a
+ * room or hallway end up on its center line, and the center line runs
+ * through every doorway the room has.
+ */
+public class MedialAxisSampler implements Sampler {
+
+	// off the ridge, one step away from the nearest obstacle gains about one
+	// step length of clearance, on the ridge it gains clearly less
+	private static final double RIDGE_GAIN = 0.7;
+	private static final int MAX_STEPS = 512;
+
+	private static final int DX[] = { 1, 1, 0,-1,-1,-1, 0, 1};
+	private static final int DY[] = { 0, 1, 1, 1, 0,-1,-1,-1};
+	private static final double LENGTH[] = {1.0, Math.sqrt(2), 1.0, Math.sqrt(2), 1.0, Math.sqrt(2), 1.0, Math.sqrt(2)};
+
+	private final FreeSpaceIndex index;
+	private final DistanceField field;
+
+	public MedialAxisSampler(FreeSpaceIndex index, DistanceField field) {
+		if(index.size() == 0) {
+			throw new IllegalStateException("no valid points in map");
+		}
+		this.index = index;
+		this.field = field;
+	}
+
+	public void prepare(long seed) {
+		// nothing to prepare, the chunk streams carry all randomness
+	}
+
+	public boolean sample(long i, SplittableRandom rand, int pt[]) {
+		index.select(rand.nextLong(index.size()), pt);
+		retract(pt);
+		return true; // clearance only grows, so the point stays valid
+	}
+
+	// move pt uphill in the distance field until it is on the medial axis
+	void retract(int pt[]) {
+		int x = pt[0], y = pt[1];
+		float clearance = field.clearanceAt(x,y);
+		for(int step = 0; step < MAX_STEPS; step++) {
+			int best = -1;
+			double bestgain = RIDGE_GAIN;
+			for(int d = 0; d < 8; d++) {
+				double gain = (field.clearanceAt(x+DX[d], y+DY[d]) - clearance) / LENGTH[d];
+				if(gain >= bestgain) {
+					best = d;
+					bestgain = gain;
+				}
+			}
+			if(best < 0) {
+				break;
+			}
+			x += DX[best];
+			y += DY[best];
+			clearance = field.clearanceAtUnchecked(x,y);
+		}
+		pt[0] = x;
+		pt[1] = y;
+	}
+}
@@ -0,0 +1,368 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/*
+ * MissionPlanner.java
+ *
+ * Order in which to visit the destinations of a mission, which may be
+ * visited in any order, so that the total roadmap distance is short. The
+ * distances between the start and all destinations come from one
+ * DistanceMatrix. The matrix is kept for the whole mission and only
+ * computed again after edges were found blocked. The robot does not
+ * return, so a visiting order is an open path from the current stop.
+ *
+ * Up to MAX_EXACT_STOPS destinations the order is optimal (Held-Karp
+ * dynamic programming, O(2^n n^2)). Above that, a nearest neighbour
+ * order is improved by 2-opt (reverse a stretch) and Or-opt (move a run
+ * of up to three stops, possibly reversed) until neither finds a shorter
+ * path.
+ */
+public class MissionPlanner {
+
+	public static final int MAX_EXACT_STOPS = 12; // destinations solved exactly
+	public static final double UNREACHABLE = 1e9; // px, cost of a leg without a path
+
+	private final int stops[]; // start vertex, then the destination vertices
+	private DistanceMatrix matrix; // null when out of date
+
+	// start - vertex the mission starts from, destinations - vertices to visit
+	public MissionPlanner(int start, int destinations[]) {
+		stops = new int[destinations.length + 1];
+		stops[0] = start;
+		System.arraycopy(destinations, 0, stops, 1, destinations.length);
+	}
+
+	// edges were found blocked, so distances may have grown
+	public void edgesChanged() {
+		matrix = null;
+	}
+
+	// the matrix over the stops for graph, computed only if there is none for it yet
+	public DistanceMatrix getMatrix(RoadmapGraph graph) {
+		if(matrix == null || matrix.getGraph() != graph) {
+			long t = System.nanoTime();
+			matrix = new DistanceMatrix(graph, stops);
+			System.out.printf(">> MISSION MATRIX %d stops, %.1f ms\n", stops.length, (System.nanoTime() - t)/1e6); // DEBUG
+		}
+		return matrix;
+	}
+
+	// order in which to visit the vertices in remaining, starting from vertex from
+	// (both must be stops of this mission)
+	public int[] plan(RoadmapGraph graph, int from, int remaining[]) {
+		DistanceMatrix matrix = getMatrix(graph);
+		double cost[][] = new double[remaining.length + 1][remaining.length + 1];
+		int local[] = new int[remaining.length + 1]; // stop numbers, the start first
+		local[0] = matrix.indexOf(from);
+		for(int k = 0; k < remaining.length; k++) {
+			local[k+1] = matrix.indexOf(remaining[k]);
+		}
+		for(int a = 0; a < local.length; a++) {
+			for(int b = 0; b < local.length; b++) {
+				cost[a][b] = Math.min(matrix.distance(local[a], local[b]), UNREACHABLE);
+			}
+		}
+		int order[] = solve(cost);
+		int plan[] = new int[remaining.length];
+		for(int k = 0; k < plan.length; k++) {
+			plan[k] = remaining[order[k+1] - 1];
+		}
+		System.out.printf(">> MISSION ORDER %s length %.1f px (as given %.1f px)\n", Arrays.toString(plan),
+		                  length(cost, order), length(cost, identity(local.length))); // DEBUG
+		return plan;
+	}
+
+	// shortest open path over all stops of cost starting at stop 0: the stops in visiting order, 0 first
+	public static int[] solve(double cost[][]) {
+		if(cost.length - 1 <= MAX_EXACT_STOPS) {
+			return heldKarp(cost);
+		}
+		int order[] = nearestNeighbour(cost);
+		while(twoOpt(cost, order) | orOpt(cost, order)) {
+			// improve until neither move finds anything
+		}
+		return order;
+	}
+
+	public static double length(double cost[][], int order[]) {
+		double length = 0.0;
+		for(int k = 1; k < order.length; k++) {
+			length += cost[order[k-1]][order[k]];
+		}
+		return length;
+	}
+
+	private static int[] identity(int n) {
+		int order[] = new int[n];
+		for(int k = 0; k < n; k++) {
+			order[k] = k;
+		}
+		return order;
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Exact
+	///////////////////////////////////////////////////////////////////
+
+	// best[set][j] is the shortest path from stop 0 through the stops in set ending at j
+	// (stop j+1 of cost is bit j)
+	private static int[] heldKarp(double cost[][]) {
+		int n = cost.length - 1;
+		if(n == 0) {
+			return new int[1];
+		}
+		double best[][] = new double[1 << n][n];
+		for(int set = 1; set < (1 << n); set++) {
+			Arrays.fill(best[set], Double.POSITIVE_INFINITY);
+			for(int j = 0; j < n; j++) {
+				if((set & (1 << j)) == 0) {
+					continue;
+				}
+				int rest = set & ~(1 << j);
+				if(rest == 0) {
+					best[set][j] = cost[0][j+1];
+					continue;
+				}
+				for(int i = 0; i < n; i++) {
+					if((rest & (1 << i)) != 0) {
+						best[set][j] = Math.min(best[set][j], best[rest][i] + cost[i+1][j+1]);
+					}
+				}
+			}
+		}
+
+		// walk back from the best last stop
+		int order[] = new int[n+1];
+		int set = (1 << n) - 1;
+		int last = 0;
+		for(int j = 1; j < n; j++) {
+			if(best[set][j] < best[set][last]) {
+				last = j;
+			}
+		}
+		for(int k = n; k >= 1; k--) {
+			order[k] = last + 1;
+			int rest = set & ~(1 << last);
+			int prev = -1;
+			for(int i = 0; i < n && rest != 0; i++) {
+				if((rest & (1 << i)) != 0 && (prev < 0 || best[rest][i] + cost[i+1][last+1] <
+				                                          best[rest][prev] + cost[prev+1][last+1])) {
+					prev = i;
+				}
+			}
+			set = rest;
+			last = prev;
+		}
+		return order;
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Heuristic
+	///////////////////////////////////////////////////////////////////
+
+	private static int[] nearestNeighbour(double cost[][]) {
+		int n = cost.length;
+		int order[] = new int[n];
+		boolean visited[] = new boolean[n];
+		visited[0] = true;
+		for(int k = 1; k < n; k++) {
+			int next = -1;
+			for(int j = 1; j < n; j++) {
+				if(!visited[j] && (next < 0 || cost[order[k-1]][j] < cost[order[k-1]][next])) {
+					next = j;
+				}
+			}
+			order[k] = next;
+			visited[next] = true;
+		}
+		return order;
+	}
+
+	// reverse order[i..j] where that shortens the path, returns true if anything changed
+	// (roadmap distances are symmetric, so a reversed stretch costs the same inside)
+	private static boolean twoOpt(double cost[][], int order[]) {
+		int n = order.length;
+		boolean improved = false;
+		for(int i = 1; i < n-1; i++) {
+			for(int j = i+1; j < n; j++) {
+				double before = cost[order[i-1]][order[i]] + ((j < n-1) ? cost[order[j]][order[j+1]] : 0.0);
+				double after = cost[order[i-1]][order[j]] + ((j < n-1) ? cost[order[i]][order[j+1]] : 0.0);
+				if(after < before - 1e-9) {
+					reverse(order, i, j);
+					improved = true;
+				}
+			}
+		}
+		return improved;
+	}
+
+	// move a run order[i..i+len-1] of up to 3 stops (as it is or reversed) behind another stop
+	// where that shortens the path, returns true if anything changed
+	private static boolean orOpt(double cost[][], int order[]) {
+		int n = order.length;
+		boolean improved = false;
+		for(int len = 1; len <= 3; len++) {
+			for(int i = 1; i + len <= n; i++) {
+				int first = order[i], last = order[i+len-1];
+				int prev = order[i-1], next = (i+len < n) ? order[i+len] : -1;
+				double removed = cost[prev][first] + ((next >= 0) ? cost[last][next] - cost[prev][next] : 0.0);
+				// insert between order[p] and order[p+1], p outside the run
+				for(int p = 0; p < n; p++) {
+					if(p >= i-1 && p < i+len) {
+						continue;
+					}
+					int a = order[p], b = (p+1 < n) ? order[p+1] : -1;
+					double open = (b >= 0) ? cost[a][b] : 0.0;
+					double forward = cost[a][first] + ((b >= 0) ? cost[last][b] : 0.0) - open;
+					double backward = cost[a][last] + ((b >= 0) ? cost[first][b] : 0.0) - open;
+					if(Math.min(forward, backward) < removed - 1e-9) {
+						move(order, i, len, p, backward < forward);
+						improved = true;
+						break;
+					}
+				}
+			}
+		}
+		return improved;
+	}
+
+	private static void reverse(int order[], int i, int j) {
+		for(; i < j; i++, j--) {
+			int tmp = order[i]; order[i] = order[j]; order[j] = tmp;
+		}
+	}
+
+	// move order[i..i+len-1] behind order[p]
+	private static void move(int order[], int i, int len, int p, boolean reversed) {
+		int run[] = Arrays.copyOfRange(order, i, i+len);
+		if(reversed) {
+			reverse(run, 0, len-1);
+		}
+		int rest[] = new int[order.length - len];
+		System.arraycopy(order, 0, rest, 0, i);
+		System.arraycopy(order, i+len, rest, i, order.length - i - len);
+		int at = (p < i) ? p+1 : p+1-len; // position behind order[p] once the run is out
+		System.arraycopy(rest, 0, order, 0, at);
+		System.arraycopy(run, 0, order, at, len);
+		System.arraycopy(rest, at, order, at+len, rest.length - at);
+	}
+
+
+	// shortest open path over every order of the stops after order[k-1] (brute force, for testing)
+	private static double bruteForce(double cost[][], int order[], int k) {
+		if(k == order.length) {
+			return length(cost, order);
+		}
+		double best = Double.POSITIVE_INFINITY;
+		for(int i = k; i < order.length; i++) {
+			int swap = order[k]; order[k] = order[i]; order[i] = swap;
+			best = Math.min(best, bruteForce(cost, order, k+1));
+			swap = order[k]; order[k] = order[i]; order[i] = swap;
+		}
+		return best;
+	}
+
+	// straight-line distances between n random points in a 100 x 100 square
+	private static double[][] randomCosts(SplittableRandom rand, int n) {
+		double p[][] = new double[n][2];
+		for(int a = 0; a < n; a++) {
+			p[a][0] = 100.0 * rand.nextDouble();
+			p[a][1] = 100.0 * rand.nextDouble();
+		}
+		double cost[][] = new double[n][n];
+		for(int a = 0; a < n; a++) {
+			for(int b = 0; b < n; b++) {
+				cost[a][b] = Math.hypot(p[a][0] - p[b][0], p[a][1] - p[b][1]);
+			}
+		}
+		return cost;
+	}
+
+
+	// TEST - check solve against brute force on random instances, then compare tours of random
+	// stops on a roadmap: as given, heuristic and exact
+	// usage: java MissionPlanner [map_file] [num_pts] [num_dests] [connection] [seed]
+	public static void main(String args[]) throws IOException {
+		String mapfile = (args.length > 0) ? args[0] : ProbRoadMap.DEFAULT_MAP_FILE;
+		int numpts = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+		int numdests = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+		String spec = (args.length > 3) ? args[3] : "prmstar";
+		long seed = (args.length > 4) ? Long.parseLong(args[4]) : 42L;
+
+		// exact up to 8 destinations: as short as the best of all orders
+		SplittableRandom rand = new SplittableRandom(seed);
+		int instances = 300, wrong = 0;
+		for(int it = 0; it < instances; it++) {
+			double cost[][] = randomCosts(rand, 2 + rand.nextInt(8));
+			int order[] = solve(cost);
+			if(order[0] != 0 || Math.abs(length(cost, order) - bruteForce(cost, identity(cost.length), 1)) > 1e-6) {
+				wrong++;
+			}
+		}
+		// heuristic above MAX_EXACT_STOPS: must still visit every stop once, starting at the first
+		int larger = 50, invalid = 0;
+		for(int it = 0; it < larger; it++) {
+			double cost[][] = randomCosts(rand, MAX_EXACT_STOPS + 2 + rand.nextInt(60));
+			int order[] = solve(cost);
+			int check[] = order.clone();
+			Arrays.sort(check);
+			if(order[0] != 0 || !Arrays.equals(check, identity(cost.length))) {
+				invalid++;
+			}
+		}
+		System.out.printf("%d random instances of 1-8 destinations: %d not as short as brute force\n", instances, wrong);
+		System.out.printf("%d random instances of %d-%d destinations: %d not a tour of every stop\n",
+		                  larger, MAX_EXACT_STOPS + 1, MAX_EXACT_STOPS + 60, invalid);
+
+		MapLoader.LoadedMap map = MapLoader.load(mapfile);
+		ConfigurationSpace cspace = new ConfigurationSpace(map.grid);
+		DistanceField field = new DistanceField(map.grid);
+		FreeSpaceIndex index = new FreeSpaceIndex(cspace.getLayer(ProbRoadMap.POINT_BUFFER_ZONE));
+		EdgeValidator validator = new EdgeValidator(field, cspace, ProbRoadMap.PATH_BUFFER_ZONE-1);
+		int pts[][] = new int[numpts][2];
+		new ParallelSampler().sample(index, seed, pts, 0, numpts);
+		long pairs[] = ConnectionStrategy.parse(spec).candidatePairs(pts, index.size());
+		RoadmapGraph graph = new RoadmapGraph(pts, new ParallelEdgeBuilder().validate(validator, pts, pairs));
+		graph.fillStates(ProbRoadMap.EDGE_VALID);
+
+		// stops in the largest component, so every tour exists
+		UnionFind sets = new UnionFind(graph, ProbRoadMap.EDGE_VALID);
+		int largest = 0;
+		for(int v = 1; v < numpts; v++) {
+			largest = (sets.setSize(v) > sets.setSize(largest)) ? v : largest;
+		}
+		int stops[] = new int[numdests + 1];
+		for(int a = 0; a < stops.length; a++) {
+			do {
+				stops[a] = rand.nextInt(numpts);
+			} while(!sets.connected(stops[a], largest));
+		}
+		DistanceMatrix matrix = new DistanceMatrix(graph, stops);
+		double cost[][] = new double[stops.length][stops.length];
+		for(int a = 0; a < stops.length; a++) {
+			for(int b = 0; b < stops.length; b++) {
+				cost[a][b] = matrix.distance(a,b);
+			}
+		}
+
+		long t = System.nanoTime();
+		int heuristic[] = nearestNeighbour(cost);
+		while(twoOpt(cost, heuristic) | orOpt(cost, heuristic)) {
+		}
+		long theuristic = System.nanoTime() - t;
+		System.out.printf("%d destinations: as given %.1f px, nearest neighbour + 2-opt/Or-opt %.1f px (%.2f ms)\n",
+		                  numdests, length(cost, identity(stops.length)), length(cost, heuristic), theuristic/1e6);
+		if(numdests <= 16) {
+			t = System.nanoTime();
+			int exact[] = heldKarp(cost);
+			long texact = System.nanoTime() - t;
+			int check[] = exact.clone();
+			Arrays.sort(check);
+			System.out.printf("Held-Karp %.1f px (%.2f ms)%s\n", length(cost, exact), texact/1e6,
+			                  (exact[0] == 0 && Arrays.equals(check, identity(stops.length))) ? "" : " NOT A PERMUTATION");
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * OccupancyGrid.java
+ *
+ * Bit-packed obstacle map. Replaces the int[MAP_WIDTH][MAP_HEIGHT] array
+ * that ProbRoadMap used to keep (32 bits per cell, column-major).
+ */
+
+// one bit per map cell, stored row-major in long words
+// a set bit marks an obstacle, a clear bit marks free space
+// bits past the map width at the end of each row are always clear
+public class OccupancyGrid {
+
+	public static final int FREE = 1;     // same values the old int[][] obstaclemap used
+	public static final int OBSTACLE = 0;
+
+	private final int width;
+	private final int height;
+	private final int wordsperrow;
+	private final long words[];
+
+	// create a grid with every cell free
+	public OccupancyGrid(int width, int height) {
+		if(width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Invalid grid size: " + width + "x" + height);
+		}
+		this.width = width;
+		this.height = height;
+		this.wordsperrow = (width + 63) >>> 6;
+		this.words = new long[wordsperrow * height];
+	}
+
+	// copy constructor
+	public OccupancyGrid(OccupancyGrid other) {
+		this.width = other.width;
+		this.height = other.height;
+		this.wordsperrow = other.wordsperrow;
+		this.words = other.words.clone();
+	}
+
+	public int getWidth() { return width; }
+
+	public int getHeight() { return height; }
+
+	public int getWordsPerRow() { return wordsperrow; }
+
+	// raw storage, row y occupies words [y*wordsperrow, (y+1)*wordsperrow)
+	// callers that write to it must keep the padding bits clear
+	long[] getWords() { return words; }
+
+	public boolean inBounds(int x, int y) {
+		return x >= 0 && x < width && y >= 0 && y < height;
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Cell Access
+	///////////////////////////////////////////////////////////////////
+
+	// cells outside of the map are treated as obstacles
+	public boolean isFree(int x, int y) {
+		return inBounds(x,y) && isFreeUnchecked(x,y);
+	}
+
+	// caller guarantees 0 <= x < width and 0 <= y < height
+	public boolean isFreeUnchecked(int x, int y) {
+		return (words[y * wordsperrow + (x >>> 6)] & (1L << x)) == 0;
+	}
+
+	// FREE (1) or OBSTACLE (0), matching the old obstaclemap values
+	public int getVal(int x, int y) {
+		return isFree(x,y) ? FREE : OBSTACLE;
+	}
+
+	// mark a cell as an obstacle, cells outside of the map are ignored
+	public void setObstacle(int x, int y) {
+		if(inBounds(x,y)) {
+			setObstacleUnchecked(x,y);
+		}
+	}
+
+	public void setObstacleUnchecked(int x, int y) {
+		words[y * wordsperrow + (x >>> 6)] |= (1L << x);
+	}
+
+	// mark a cell as free space, cells outside of the map are ignored
+	public void setFree(int x, int y) {
+		if(inBounds(x,y)) {
+			setFreeUnchecked(x,y);
+		}
+	}
+
+	public void setFreeUnchecked(int x, int y) {
+		words[y * wordsperrow + (x >>> 6)] &= ~(1L << x);
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Range Queries
+	///////////////////////////////////////////////////////////////////
+
+	// determine if cells [minx,maxx] of row y are all free, 64 cells per test
+	// the range is clipped to the map, an empty range is free
+	public boolean isRowFree(int y, int minx, int maxx) {
+		if(y < 0 || y >= height) {
+			return false;
+		}
+		minx = Math.max(minx, 0);
+		maxx = Math.min(maxx, width-1);
+		if(minx > maxx) {
+			return true;
+		}
+
+		int rowstart = y * wordsperrow;
+		int first = rowstart + (minx >>> 6);
+		int last  = rowstart + (maxx >>> 6);
+		long firstmask = -1L << minx;
+		long lastmask  = -1L >>> (63 - (maxx & 63));
+
+		if(first == last) {
+			return (words[first] & firstmask & lastmask) == 0;
+		}
+		if((words[first] & firstmask) != 0) {
+			return false;
+		}
+		for(int i = first+1; i < last; i++) {
+			if(words[i] != 0) {
+				return false;
+			}
+		}
+		return (words[last] & lastmask) == 0;
+	}
+
+	// determine if the box [minx,maxx] x [miny,maxy] is free
+	// the box is clipped to the map, same as the old POINT_BUFFER_ZONE scan
+	public boolean isBoxFree(int minx, int maxx, int miny, int maxy) {
+		miny = Math.max(miny, 0);
+		maxy = Math.min(maxy, height-1);
+		for(int y = miny; y <= maxy; y++) {
+			if(!isRowFree(y,minx,maxx)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// number of obstacle cells in [minx,maxx] of row y, clipped to the map
+	public int countObstacles(int y, int minx, int maxx) {
+		if(y < 0 || y >= height) {
+			return 0;
+		}
+		minx = Math.max(minx, 0);
+		maxx = Math.min(maxx, width-1);
+		if(minx > maxx) {
+			return 0;
+		}
+
+		int rowstart = y * wordsperrow;
+		int first = rowstart + (minx >>> 6);
+		int last  = rowstart + (maxx >>> 6);
+		long firstmask = -1L << minx;
+		long lastmask  = -1L >>> (63 - (maxx & 63));
+
+		if(first == last) {
+			return Long.bitCount(words[first] & firstmask & lastmask);
+		}
+		int count = Long.bitCount(words[first] & firstmask);
+		for(int i = first+1; i < last; i++) {
+			count += Long.bitCount(words[i]);
+		}
+		return count + Long.bitCount(words[last] & lastmask);
+	}
+
+	// number of obstacle cells in the whole map
+	public int countObstacles() {
+		int count = 0;
+		for(int i = 0; i < words.length; i++) {
+			count += Long.bitCount(words[i]);
+		}
+		return count;
+	}
+
+	// first free cell at or after x in row y, or width if there is none
+	public int nextFree(int y, int x) {
+		if(x >= width) {
+			return width;
+		}
+		int rowstart = y * wordsperrow;
+		int i = x >>> 6;
+		long free = ~words[rowstart + i] & (-1L << x);
+		while(free == 0) {
+			if(++i == wordsperrow) {
+				return width;
+			}
+			free = ~words[rowstart + i];
+		}
+		return Math.min((i << 6) + Long.numberOfTrailingZeros(free), width);
+	}
+
+	// first obstacle cell at or after x in row y, or width if there is none
+	public int nextObstacle(int y, int x) {
+		if(x >= width) {
+			return width;
+		}
+		int rowstart = y * wordsperrow;
+		int i = x >>> 6;
+		long occupied = words[rowstart + i] & (-1L << x);
+		while(occupied == 0) {
+			if(++i == wordsperrow) {
+				return width;
+			}
+			occupied = words[rowstart + i];
+		}
+		return (i << 6) + Long.numberOfTrailingZeros(occupied);
+	}
+
+	// approximate heap footprint of the cell data in bytes
+	public long sizeInBytes() {
+		return 8L * words.length;
+	}
+}
@@ -0,0 +1,141 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * ParallelEdgeBuilder.java
+ *
+ * Validates candidate roadmap edges on a ForkJoinPool. The candidate pairs
+ * are cut into fixed slices of GRAIN pairs, each slice writes the pairs it
+ * accepts into its own buffer, and the buffers are concatenated in slice
+ * order afterwards. No locks are taken and nothing is shared while edges
+ * are tested, and the result is the accepted pairs in candidate order,
+ * exactly what a sequential loop produces.
+ */
+public class ParallelEdgeBuilder {
+
+	public static final int GRAIN = 512; // pairs per slice
+
+	private final ForkJoinPool pool;
+
+	public ParallelEdgeBuilder() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	public ParallelEdgeBuilder(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	// the pairs (see ConnectionStrategy.pair) whose segments are clear, in the order given
+	public long[] validate(EdgeValidator validator, int pts[][], long pairs[]) {
+		int numslices = (pairs.length + GRAIN-1) / GRAIN;
+		if(numslices <= 1) {
+			return validate(validator, pts, pairs, 0, pairs.length);
+		}
+		long buffers[][] = new long[numslices][];
+		pool.invoke(new SliceTask(validator, pts, pairs, buffers, 0, numslices));
+
+		// concatenate in slice order
+		int total = 0;
+		for(int s = 0; s < numslices; s++) {
+			total += buffers[s].length;
+		}
+		long edges[] = new long[total];
+		int count = 0;
+		for(int s = 0; s < numslices; s++) {
+			System.arraycopy(buffers[s], 0, edges, count, buffers[s].length);
+			count += buffers[s].length;
+		}
+		return edges;
+	}
+
+	// sequential version, pairs[from .. to-1]
+	public static long[] validate(EdgeValidator validator, int pts[][], long pairs[], int from, int to) {
+		long buffer[] = new long[to - from];
+		int count = 0;
+		for(int m = from; m < to; m++) {
+			int i = ConnectionStrategy.first(pairs[m]), j = ConnectionStrategy.second(pairs[m]);
+			if(validator.isPathClear(pts[i][0], pts[i][1], pts[j][0], pts[j][1])) {
+				buffer[count++] = pairs[m];
+			}
+		}
+		return Arrays.copyOf(buffer, count);
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Tasks
+	///////////////////////////////////////////////////////////////////
+
+	// validates slices [lo,hi), halving until a single slice is left
+	private static class SliceTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 8626715002125374559L;
+
+		private final EdgeValidator validator;
+		private final int pts[][];
+		private final long pairs[];
+		private final long buffers[][]; // accepted pairs of each slice
+		private final int lo, hi;
+
+		SliceTask(EdgeValidator validator, int pts[][], long pairs[], long buffers[][], int lo, int hi) {
+			this.validator = validator;
+			this.pts = pts;
+			this.pairs = pairs;
+			this.buffers = buffers;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		protected void compute() {
+			if(hi - lo > 1) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new SliceTask(validator, pts, pairs, buffers, lo, mid),
+				          new SliceTask(validator, pts, pairs, buffers, mid, hi));
+				return;
+			}
+			int from = lo * GRAIN;
+			int to = Math.min(from + GRAIN, pairs.length);
+			buffers[lo] = validate(validator, pts, pairs, from, to);
+		}
+	}
+
+
+	// TEST - compare parallel and sequential edge validation
+	// usage: java ParallelEdgeBuilder [map_file] [num_pts] [connection] [seed]
+	public static void main(String args[]) throws IOException {
+		String mapfile = (args.length > 0) ? args[0] : ProbRoadMap.DEFAULT_MAP_FILE;
+		int numpts = (args.length > 1) ? Integer.parseInt(args[1]) : 5000;
+		String spec = (args.length > 2) ? args[2] : "prmstar";
+		long seed = (args.length > 3) ? Long.parseLong(args[3]) : 42L;
+
+		MapLoader.LoadedMap map = MapLoader.load(mapfile);
+		ConfigurationSpace cspace = new ConfigurationSpace(map.grid);
+		DistanceField field = new DistanceField(map.grid);
+		FreeSpaceIndex index = new FreeSpaceIndex(cspace.getLayer(ProbRoadMap.POINT_BUFFER_ZONE));
+		EdgeValidator validator = new EdgeValidator(field, cspace, ProbRoadMap.PATH_BUFFER_ZONE-1);
+		int pts[][] = new int[numpts][2];
+		new ParallelSampler().sample(index, seed, pts, 0, numpts);
+		long pairs[] = ConnectionStrategy.parse(spec).candidatePairs(pts, index.size());
+
+		validate(validator, pts, pairs, 0, pairs.length); // warm up
+		long t = System.nanoTime();
+		long reference[] = validate(validator, pts, pairs, 0, pairs.length);
+		t = System.nanoTime() - t;
+		System.out.printf("sequential: %d of %d pairs, %.1f ms\n", reference.length, pairs.length, t/1e6);
+
+		int threads[] = {1, 2, 4, 8, 16, Runtime.getRuntime().availableProcessors()};
+		for(int i = 0; i < threads.length; i++) {
+			ForkJoinPool pool = new ForkJoinPool(threads[i]);
+			ParallelEdgeBuilder builder = new ParallelEdgeBuilder(pool);
+			builder.validate(validator, pts, pairs); // warm up
+			t = System.nanoTime();
+			long edges[] = builder.validate(validator, pts, pairs);
+			t = System.nanoTime() - t;
+			pool.shutdown();
+			System.out.printf("threads %2d: %.1f ms, %s\n", threads[i], t/1e6,
+			                  Arrays.equals(edges, reference) ? "identical to sequential" : "MISMATCH");
+		}
+	}
+}
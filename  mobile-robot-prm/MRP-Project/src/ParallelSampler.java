@@ -0,0 +1,217 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * ParallelSampler.java
+ *
+ * Reproducible parallel point sampling. Candidates are numbered and cut into
+ * chunks of CHUNK_SIZE, and every chunk draws from its own SplittableRandom
+ * stream, split off a root stream in chunk order. Chunks are forked onto a
+ * ForkJoinPool, and the points a Sampler accepts are merged in chunk order
+ * until the budget is filled. Neither the chunk boundaries, the streams nor
+ * the merge order depend on the pool, so a given seed yields the same
+ * points for any number of threads.
+ */
+public class ParallelSampler {
+
+	public static final int CHUNK_SIZE = 256; // candidates per stream, part of the seed contract
+
+	private static final int MAX_CHUNKS_PER_ROUND = 4096;
+
+	private final ForkJoinPool pool;
+
+	public ParallelSampler() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	public ParallelSampler(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	// fill pts[from .. to-1] with [x,y] cells drawn uniformly from index
+	public void sample(FreeSpaceIndex index, long seed, int pts[][], int from, int to) {
+		sample(new UniformSampler(index), seed, pts, from, to);
+	}
+
+	// fill pts[from .. to-1] from several samplers, the share of sampler k is ratios[k]
+	// (shares are rounded by largest remainder and filled in sampler order)
+	public void sample(Sampler samplers[], double ratios[], long seed, int pts[][], int from, int to) {
+		int count = to - from;
+		double total = 0.0;
+		for(int k = 0; k < ratios.length; k++) {
+			total += ratios[k];
+		}
+		int shares[] = new int[samplers.length];
+		double remainders[] = new double[samplers.length];
+		int assigned = 0;
+		for(int k = 0; k < samplers.length; k++) {
+			double exact = count * ratios[k] / total;
+			shares[k] = (int) exact;
+			remainders[k] = exact - shares[k];
+			assigned += shares[k];
+		}
+		while(assigned < count) {
+			int best = 0;
+			for(int k = 1; k < samplers.length; k++) {
+				if(remainders[k] > remainders[best]) {
+					best = k;
+				}
+			}
+			shares[best]++;
+			remainders[best] = -1.0;
+			assigned++;
+		}
+
+		SplittableRandom seeds = new SplittableRandom(seed);
+		for(int k = 0; k < samplers.length; k++) {
+			sample(samplers[k], seeds.nextLong(), pts, from, from + shares[k]);
+			from += shares[k];
+		}
+	}
+
+	// fill pts[from .. to-1] with [x,y] points accepted by sampler
+	public void sample(Sampler sampler, long seed, int pts[][], int from, int to) {
+		if(to <= from) {
+			return;
+		}
+		SplittableRandom root = new SplittableRandom(seed);
+		sampler.prepare(root.nextLong());
+
+		int count = from;
+		long firstchunk = 0;
+		long candidates = 0, accepted = 0;
+		while(count < to) {
+			// size the round from the acceptance rate so far, which only depends on the seed
+			double rate = (candidates == 0) ? 1.0 : Math.max((double) accepted / candidates, 1e-4);
+			long wanted = (long) Math.ceil((to - count) / rate * 1.1);
+			int numchunks = (int) Math.min((wanted + CHUNK_SIZE-1) / CHUNK_SIZE, MAX_CHUNKS_PER_ROUND);
+
+			// streams are split sequentially so chunk c always gets the same one
+			SplittableRandom streams[] = new SplittableRandom[numchunks];
+			for(int c = 0; c < numchunks; c++) {
+				streams[c] = root.split();
+			}
+			int buffers[][] = new int[numchunks][];
+			int counts[] = new int[numchunks];
+			pool.invoke(new ChunkTask(sampler, streams, firstchunk, buffers, counts, 0, numchunks));
+
+			// merge in chunk order
+			int roundaccepted = 0;
+			for(int c = 0; c < numchunks && count < to; c++) {
+				for(int j = 0; j < counts[c] && count < to; j++) {
+					pts[count][0] = buffers[c][2*j];
+					pts[count][1] = buffers[c][2*j+1];
+					count++;
+				}
+				roundaccepted += counts[c];
+			}
+			if(roundaccepted == 0 && numchunks == MAX_CHUNKS_PER_ROUND) {
+				throw new IllegalStateException("sampler found no valid points in " +
+				                                (candidates + (long) numchunks*CHUNK_SIZE) + " candidates");
+			}
+			candidates += (long) numchunks * CHUNK_SIZE;
+			accepted += roundaccepted;
+			firstchunk += numchunks;
+		}
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Tasks
+	///////////////////////////////////////////////////////////////////
+
+	// samples chunks [lo,hi) of a round, halving until a single chunk is left
+	private static class ChunkTask extends RecursiveAction {
+
+		private static final long serialVersionUID = -8494211216180138404L;
+
+		private final Sampler sampler;
+		private final SplittableRandom streams[];
+		private final long firstchunk;  // number of the round's chunk 0
+		private final int buffers[][]; // accepted points of each chunk, x,y interleaved
+		private final int counts[];
+		private final int lo, hi;
+
+		ChunkTask(Sampler sampler, SplittableRandom streams[], long firstchunk,
+		          int buffers[][], int counts[], int lo, int hi) {
+			this.sampler = sampler;
+			this.streams = streams;
+			this.firstchunk = firstchunk;
+			this.buffers = buffers;
+			this.counts = counts;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		protected void compute() {
+			if(hi - lo > 1) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new ChunkTask(sampler, streams, firstchunk, buffers, counts, lo, mid),
+				          new ChunkTask(sampler, streams, firstchunk, buffers, counts, mid, hi));
+				return;
+			}
+			SplittableRandom rand = streams[lo];
+			long first = (firstchunk + lo) * CHUNK_SIZE;
+			int buffer[] = new int[2*CHUNK_SIZE];
+			int pt[] = new int[2];
+			int n = 0;
+			for(int j = 0; j < CHUNK_SIZE; j++) {
+				if(sampler.sample(first + j, rand, pt)) {
+					buffer[2*n] = pt[0];
+					buffer[2*n+1] = pt[1];
+					n++;
+				}
+			}
+			buffers[lo] = buffer;
+			counts[lo] = n;
+		}
+	}
+
+
+	// TEST - check that the samples do not depend on the number of threads
+	// usage: java ParallelSampler [map_file] [num_pts] [seed]
+	public static void main(String args[]) throws IOException {
+		String mapfile = (args.length > 0) ? args[0] : ProbRoadMap.DEFAULT_MAP_FILE;
+		int numpts = (args.length > 1) ? Integer.parseInt(args[1]) : 1000000;
+		long seed = (args.length > 2) ? Long.parseLong(args[2]) : 42L;
+
+		MapLoader.LoadedMap map = MapLoader.load(mapfile);
+		ConfigurationSpace cspace = new ConfigurationSpace(map.grid);
+		OccupancyGrid layer = cspace.getLayer(ProbRoadMap.POINT_BUFFER_ZONE);
+
+		String names[] = {"uniform", "halton", "sobol"};
+		Sampler samplers[] = {new UniformSampler(new FreeSpaceIndex(layer)),
+		                      new HaltonSampler(layer), new SobolSampler(layer)};
+		int threads[] = {1, 2, 4, Runtime.getRuntime().availableProcessors()};
+		for(int s = 0; s < samplers.length; s++) {
+			int reference[][] = null;
+			for(int i = 0; i < threads.length; i++) {
+				ForkJoinPool pool = new ForkJoinPool(threads[i]);
+				ParallelSampler engine = new ParallelSampler(pool);
+				int pts[][] = new int[numpts][2];
+				engine.sample(samplers[s], seed, pts, 0, numpts); // warm up
+				long t = System.nanoTime();
+				engine.sample(samplers[s], seed, pts, 0, numpts);
+				t = System.nanoTime() - t;
+				pool.shutdown();
+
+				boolean same = true;
+				if(reference == null) {
+					reference = pts;
+				} else {
+					for(int j = 0; j < numpts && same; j++) {
+						same = Arrays.equals(pts[j], reference[j]);
+					}
+				}
+				for(int j = 0; j < numpts && same; j++) {
+					same = layer.isFree(pts[j][0], pts[j][1]);
+				}
+				System.out.printf("%-8s threads %2d: %.1f ms, %s\n", names[s], threads[i], t/1e6,
+				                  same ? "valid, identical to 1 thread" : "MISMATCH");
+			}
+		}
+	}
+}
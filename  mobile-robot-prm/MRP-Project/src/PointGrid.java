@@ -0,0 +1,263 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/*
+ * PointGrid.java
+ *
+ * Dynamic spatial index of roadmap points for nearest neighbour and radius
+ * queries. The map is cut into square cells, and each cell keeps a bucket
+ * of the points that lie in it. A point is inserted or removed in O(1)
+ * (amortized, plus the length of its bucket), so a point added after the
+ * roadmap was built finds its neighbours without rebuilding a KDTree over
+ * every point. Nearest neighbour queries search rings of cells outwards
+ * from the query cell until no closer point can be left.
+ */
+public class PointGrid {
+
+	public static final int DEFAULT_CELL = 32; // px
+
+	private final int cell;    // cell side in px
+	private final int cellsx, cellsy;
+	private int buckets[][];   // points in each cell
+	private int counts[];      // used length of each bucket
+	private int xs[], ys[];    // coordinates of each point by index
+	private boolean present[]; // indexes currently in the grid
+	private int size;
+
+	public PointGrid(int width, int height, int cell) {
+		this.cell = cell;
+		cellsx = Math.max(1, (width + cell-1) / cell);
+		cellsy = Math.max(1, (height + cell-1) / cell);
+		buckets = new int[cellsx * cellsy][];
+		counts = new int[cellsx * cellsy];
+		xs = new int[16];
+		ys = new int[16];
+		present = new boolean[16];
+	}
+
+	// grid over pts[0] .. pts[n-1]
+	public PointGrid(int width, int height, int cell, int pts[][], int n) {
+		this(width, height, cell);
+		ensureCapacity(n);
+		for(int i = 0; i < n; i++) {
+			insert(i, pts[i][0], pts[i][1]);
+		}
+	}
+
+	public int size() { return size; }
+
+	public boolean contains(int i) { return i < present.length && present[i]; }
+
+
+	///////////////////////////////////////////////////////////////////
+	// Changes
+	///////////////////////////////////////////////////////////////////
+
+	// add point i at (x,y), i must not be in the grid yet
+	public void insert(int i, int x, int y) {
+		if(i >= present.length) {
+			ensureCapacity(Math.max(i+1, present.length + (present.length >>> 1)));
+		}
+		xs[i] = x;
+		ys[i] = y;
+		present[i] = true;
+		int c = cellOf(x,y);
+		if(buckets[c] == null) {
+			buckets[c] = new int[4];
+		} else if(counts[c] == buckets[c].length) {
+			buckets[c] = Arrays.copyOf(buckets[c], 2 * counts[c]);
+		}
+		buckets[c][counts[c]++] = i;
+		size++;
+	}
+
+	// take point i out of the grid, does nothing if it is not in it
+	public void remove(int i) {
+		if(!contains(i)) {
+			return;
+		}
+		int c = cellOf(xs[i], ys[i]);
+		for(int m = 0; m < counts[c]; m++) {
+			if(buckets[c][m] == i) {
+				buckets[c][m] = buckets[c][--counts[c]]; // order within a cell does not matter
+				break;
+			}
+		}
+		present[i] = false;
+		size--;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if(capacity > present.length) {
+			xs = Arrays.copyOf(xs, capacity);
+			ys = Arrays.copyOf(ys, capacity);
+			present = Arrays.copyOf(present, capacity);
+		}
+	}
+
+	private int cellOf(int x, int y) {
+		return cellY(y) * cellsx + cellX(x);
+	}
+
+	private int cellX(double x) {
+		return (int) Math.max(0, Math.min(cellsx-1, Math.floor(x / cell)));
+	}
+
+	private int cellY(double y) {
+		return (int) Math.max(0, Math.min(cellsy-1, Math.floor(y / cell)));
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Queries
+	///////////////////////////////////////////////////////////////////
+
+	// indices of the (up to) k points closest to (qx,qy), nearest first, ties by index
+	// (same order as KDTree.nearest), returns the number of indices stored in out
+	public int nearest(int qx, int qy, int k, int out[]) {
+		k = Math.min(k, size);
+		if(k <= 0) {
+			return 0;
+		}
+		// best k so far, sorted by (squared distance, index)
+		long bestdist[] = new long[k];
+		int found = 0;
+		int cx = cellX(qx), cy = cellY(qy);
+		int maxring = Math.max(Math.max(cx, cellsx-1 - cx), Math.max(cy, cellsy-1 - cy));
+		for(int ring = 0; ring <= maxring; ring++) {
+			// the query can sit on the edge of its cell, so this ring is at least ring-1 cells away
+			long reach = (long) (ring-1) * cell;
+			if(found == k && ring > 0 && bestdist[k-1] <= reach * reach) {
+				break;
+			}
+			for(int y = cy - ring; y <= cy + ring; y++) {
+				if(y < 0 || y >= cellsy) {
+					continue;
+				}
+				// only the two end cells of the inner rows are on the ring
+				int step = (y == cy - ring || y == cy + ring) ? 1 : Math.max(1, 2*ring);
+				for(int x = cx - ring; x <= cx + ring; x += step) {
+					if(x < 0 || x >= cellsx) {
+						continue;
+					}
+					int c = y * cellsx + x;
+					for(int m = 0; m < counts[c]; m++) {
+						int i = buckets[c][m];
+						long dx = xs[i] - qx, dy = ys[i] - qy, d = dx*dx + dy*dy;
+						if(found == k && !closer(d, i, bestdist[k-1], out[k-1])) {
+							continue;
+						}
+						// insertion into the sorted best list
+						int p = (found < k) ? found++ : k-1;
+						while(p > 0 && closer(d, i, bestdist[p-1], out[p-1])) {
+							bestdist[p] = bestdist[p-1];
+							out[p] = out[p-1];
+							p--;
+						}
+						bestdist[p] = d;
+						out[p] = i;
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	private static boolean closer(long d, int i, long bestd, int besti) {
+		return d < bestd || (d == bestd && i < besti);
+	}
+
+	// indices of all points within radius of (qx,qy) (boundary included), in no particular order
+	public int[] withinRadius(int qx, int qy, double radius) {
+		long r2 = (long) Math.floor(radius * radius);
+		int found[] = new int[16];
+		int count = 0;
+		int x0 = cellX(qx - radius), x1 = cellX(qx + radius);
+		int y0 = cellY(qy - radius), y1 = cellY(qy + radius);
+		for(int y = y0; y <= y1; y++) {
+			for(int x = x0; x <= x1; x++) {
+				int c = y * cellsx + x;
+				for(int m = 0; m < counts[c]; m++) {
+					int i = buckets[c][m];
+					long dx = xs[i] - qx, dy = ys[i] - qy;
+					if(dx*dx + dy*dy <= r2) {
+						if(count == found.length) {
+							found = Arrays.copyOf(found, 2 * count);
+						}
+						found[count++] = i;
+					}
+				}
+			}
+		}
+		return Arrays.copyOf(found, count);
+	}
+
+	// approximate heap footprint in bytes
+	public long sizeInBytes() {
+		long bytes = 20L * counts.length + 9L * present.length;
+		for(int c = 0; c < buckets.length; c++) {
+			bytes += (buckets[c] != null) ? 4L * buckets[c].length : 0;
+		}
+		return bytes;
+	}
+
+
+	// TEST - insert and remove points one at a time and compare queries against a KDTree
+	// usage: java PointGrid [map_file] [num_pts] [queries] [seed]
+	public static void main(String args[]) throws IOException {
+		String mapfile = (args.length > 0) ? args[0] : ProbRoadMap.DEFAULT_MAP_FILE;
+		int numpts = (args.length > 1) ? Integer.parseInt(args[1]) : 5000;
+		int numqueries = (args.length > 2) ? Integer.parseInt(args[2]) : 200;
+		long seed = (args.length > 3) ? Long.parseLong(args[3]) : 42L;
+
+		MapLoader.LoadedMap map = MapLoader.load(mapfile);
+		OccupancyGrid grid = map.grid;
+		ConfigurationSpace cspace = new ConfigurationSpace(grid);
+		FreeSpaceIndex index = new FreeSpaceIndex(cspace.getLayer(ProbRoadMap.POINT_BUFFER_ZONE));
+		int pts[][] = new int[numpts + numqueries][2];
+		new ParallelSampler().sample(index, seed, pts, 0, pts.length);
+		ConnectionStrategy strategy = ConnectionStrategy.parse("prmstar");
+
+		long t = System.nanoTime();
+		PointGrid points = new PointGrid(grid.getWidth(), grid.getHeight(), DEFAULT_CELL, pts, numpts);
+		t = System.nanoTime() - t;
+		System.out.printf("%d points: %.1f ms to build, %.1f KB\n", numpts, t/1e6, points.sizeInBytes()/1024.0);
+
+		// add the query points one at a time, as addPoint does, and remove them again
+		int errors = 0;
+		long tgrid = 0, ttree = 0;
+		SplittableRandom rand = new SplittableRandom(seed);
+		for(int q = 0; q < numqueries; q++) {
+			int i = numpts + q;
+			int k = strategy.neighbours(i+1) + 1;
+			double r = 20 + rand.nextInt(80);
+			int near[] = new int[k], treenear[] = new int[k];
+
+			t = System.nanoTime();
+			points.insert(i, pts[i][0], pts[i][1]);
+			int found = points.nearest(pts[i][0], pts[i][1], k, near);
+			int inradius[] = points.withinRadius(pts[i][0], pts[i][1], r);
+			tgrid += System.nanoTime() - t;
+
+			t = System.nanoTime();
+			KDTree tree = new KDTree(Arrays.copyOf(pts, i+1));
+			int treefound = tree.nearest(pts[i][0], pts[i][1], k, treenear);
+			int treeradius[] = tree.withinRadius(pts[i][0], pts[i][1], r);
+			ttree += System.nanoTime() - t;
+
+			Arrays.sort(inradius);
+			Arrays.sort(treeradius);
+			if(found != treefound || !Arrays.equals(near, treenear) || !Arrays.equals(inradius, treeradius)) {
+				errors++;
+			}
+			if(q % 2 == 1) {
+				points.remove(i); // the removed ones must not come back in later queries
+				pts[i] = new int[] {-10000, -10000};
+			}
+		}
+		System.out.println("errors against KDTree: " + errors);
+		System.out.printf("insert + query: %.3f ms grid, %.3f ms rebuilding a KDTree\n",
+		                  tgrid/1e6/numqueries, ttree/1e6/numqueries);
+	}
+}
@@ -4,13 +4,10 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.Stack;
 
 import javax.swing.JFrame;
@@ -36,27 +33,64 @@ public class ProbRoadMap extends JFrame {
 	// The robot is [0.50,0.37] m, so use a circular structuring element with a radius of 0.50 m
 	// If MPP = 0.082, then structuring element should have a radius of 6.089 px => 7 px
 	// If the c-space were calculated, there would be < 4 px of space in the robotics lab doorway.
+	// (ConfigurationSpace computes it, see getCSpace().getLayer(ConfigurationSpace.radiusFor(ROBOT_RADIUS,mpp)))
 	// It is very unlikely that two PRM random pts would be generated to provide a suitable path in.
 	// Thus, consider using potential field motion for obstacle avoidance.
 	
 	// raw world map is a 1600*500 file containing byte values of either 0 or 255
-	private static final String filename = "../3large.raw";
-	public static final double WORLD_WIDTH = 131.2;
-	public static final double WORLD_HEIGHT = 41;
-	public static final int MAP_WIDTH  = 1600; // 131.2m
-	public static final int MAP_HEIGHT = 500;  // 41m
-	public static final double MPP = 0.082; // meters per map pixel
-	public static final int PATH_CHECK_INTERVAL = 1; // must be less than minimum obstacle width
+	// any format MapLoader detects works, the size comes from the file or its .world file
+	public static final String DEFAULT_MAP_FILE = "../3large.raw";
 	public static final int POINT_BUFFER_ZONE = 5;
 	public static final int PATH_BUFFER_ZONE = 4;
+	public static final double ROBOT_RADIUS = 0.50; // m
+	public static final byte EDGE_UNKNOWN = 0; // lazy roadmap edge, not yet checked
+	public static final byte EDGE_VALID = 1;
+	public static final byte EDGE_INVALID = 2;
+	public static final double NARROW_PASSAGE_SIGMA = 2*POINT_BUFFER_ZONE; // px, spread of gaussian / bridge pairs
+	public static final int NUM_LANDMARKS = 8; // ALT landmarks per roadmap
+	public static final int DENSIFY_BATCH = 100; // points added per round while required points are disconnected
+	public static final int MAX_DENSIFY_FACTOR = 4; // the roadmap may grow to this many times its first size
+	public static final long BUILD_TIME_BUDGET = 30000; // ms to connect the required points before giving up
+	
+	private double worldwidth, worldheight; // meters, 131.2 x 41 for 3large
+	private int mapwidth, mapheight;       // pixels, 1600 x 500 for 3large
+	private double mpp;                    // meters per map pixel, 0.082 for 3large
 	
 	private BufferedImage img;
 	private int scaledimwidth, scaledimheight;
+	private int linecolor; // color used by linevisitor
+	private final LineTraversal.PixelVisitor linevisitor = new LineTraversal.PixelVisitor() {
+		public boolean visit(int x, int y) {
+			img.setRGB(x,y,linecolor);
+			return true;
+		}
+	};
 	
 	private double realdestpts[][]; // destination points specified in meter offsets from robot starting location
-	private int obstaclemap[][]; // contains values of 1 (no obstacle) or 0 (obstacle)
-	private int mappts[][]; // [row,col] form, contains random points in PRM
-	private int adjmatrix[][]; // represents paths between PRM points
+	private OccupancyGrid obstaclemap; // bit-packed, row-major, see OccupancyGrid
+	private DistanceField distfield; // clearance of every map cell, null when out of date
+	private ConfigurationSpace cspace; // obstaclemap dilated per buffer radius, kept up to date
+	private FreeSpaceIndex freeindex; // valid sample cells, null when out of date
+	private ParallelSampler sampleengine = new ParallelSampler();
+	private String samplername; // point sampling strategy, see createSamplers()
+	private Sampler pointsamplers[]; // null when out of date
+	private double samplerratios[]; // share of the points of each sampler
+	private ConnectionStrategy connection; // which pairs of points are tested for edges
+	private ParallelEdgeBuilder edgebuilder = new ParallelEdgeBuilder();
+	private long seed; // master seed, the same seed gives the same roadmap
+	private SplittableRandom seedstream; // one seed per roadmap attempt, derived from seed
+	private EdgeValidator edgevalidator; // corridor test over distfield, null when out of date
+	private int mappts[][]; // [row,col] form, contains random points in PRM, has room for addPoint
+	private int numpts; // points in use, point i is vertex i of graph
+	private RoadmapGraph graph; // represents paths between PRM points, and the EDGE_* of every edge
+	private PointGrid pointindex; // mappts by map cell, finds the neighbours of added points
+	private UnionFind components; // connected by EDGE_VALID edges, null when out of date
+	private SearchContext searchcontext = new SearchContext(0); // reused by every planPath, holds the last path
+	private SearchContext reversecontext = new SearchContext(0); // reverse half of bidirectional searches
+	private LandmarkTable landmarks; // built on the first query of each graph
+	private IncrementalPlanner planner; // D* Lite tree of the last destination, kept across replans
+	private EdgeBucketGrid edgebuckets; // edges by map tile, and the tiles with new obstacles
+	private boolean lazy; // check edges only when a planned path uses them
 	private int mapdestpts[][]; // destination points in map coordinates
 	private int mapstartpts[][]; // initial robot starting points in map coordinates
 	
@@ -67,70 +101,95 @@ public class ProbRoadMap extends JFrame {
 	
 	// constructor
 	public ProbRoadMap(int numpts, double realdestpts[][]) {
+		this(DEFAULT_MAP_FILE, numpts, realdestpts);
+	}
+	
+	public ProbRoadMap(String mapfile, int numpts, double realdestpts[][]) {
+		this(mapfile, numpts, realdestpts, Retriever.seed, Retriever.sampler, 
+		     Retriever.connection, Retriever.lazy, 
+		     Retriever.cache ? new RoadmapCache(mapfile + RoadmapCache.SUFFIX, !Retriever.seedgiven) : null);
+	}
+	
+	public ProbRoadMap(String mapfile, int numpts, double realdestpts[][], long seed, 
+	                   String samplername, String connectionspec, boolean lazy) {
+		this(mapfile, numpts, realdestpts, seed, samplername, connectionspec, lazy, null);
+	}
+	
+	// cache - where built roadmaps are kept between runs, null to always build a new one
+	public ProbRoadMap(String mapfile, int numpts, double realdestpts[][], long seed, 
+	                   String samplername, String connectionspec, boolean lazy, RoadmapCache cache) {
 		this.realdestpts = realdestpts;
+		this.seed = seed;
+		this.seedstream = new SplittableRandom(seed);
+		this.samplername = samplername;
+		this.connection = ConnectionStrategy.parse(connectionspec);
+		this.lazy = lazy;
+		System.out.println("PRM seed: " + seed + " sampler: " + samplername + 
+		                   " connection: " + connection + (lazy ? " lazy" : "")); // rerun with -s to reproduce
 		
 		// System.out.println("Constructor..."); // DEBUG
-
-		// convert real destinations to map destination points
-		mapdestpts = new int[realdestpts.length][2];
-		for(int i = 0; i < realdestpts.length; i++) {
-			mapdestpts[i][0] = realDistToMapDist(realdestpts[i][0] + WORLD_WIDTH/2);
-			mapdestpts[i][1] = realDistToMapDist(WORLD_HEIGHT/2 - realdestpts[i][1]);
-		}
-		
-		/*
-		// DEBUG - hard-code map destination points
-		mapdestpts = new int[3][2];
-		mapdestpts[0][0] = 712; // upper hallway, right of red robot
-		mapdestpts[0][1] = 98;
-		mapdestpts[1][0] = 842; // robotics lab, right of white robot
-		mapdestpts[1][1] = 314;
-		mapdestpts[2][0] = 800; // to right of mapdestpt 0
-		mapdestpts[2][1] = 98;
-		*/
-		
-		System.out.println("Map destination points:");
-		Retriever.printPts(mapdestpts);
 		
 		try {
-			// create a 2D binary array using the world map
-			FileInputStream input = new FileInputStream(filename);
-			byte buff[] = new byte[MAP_HEIGHT * MAP_WIDTH];
-			input.read(buff);
-			
-			byte val = 0;
-			int count = 0;
-			obstaclemap = new int[MAP_WIDTH][MAP_HEIGHT];
-			for(int y = 0; y < MAP_HEIGHT; y++) {
-				for(int x = 0; x < MAP_WIDTH; x++) {
-					val = buff[(y * MAP_WIDTH) + x];
-					// invert intensities
-					if(val == 0) val = 1;
-					if(val < 0) val = 0;
-					if(val > 1) val = 0;
-					obstaclemap[x][y] = val;
-					count += 1;
-					// System.out.println("x: " + x + " y: " + y + " => " + val); // DEBUG
-				}
+			// load the world map straight into a bit-packed grid
+			MapLoader.LoadedMap map = MapLoader.load(mapfile);
+			obstaclemap = map.grid;
+			mapwidth = obstaclemap.getWidth();
+			mapheight = obstaclemap.getHeight();
+			mpp = map.mpp;
+			worldwidth = map.worldwidth;
+			worldheight = map.worldheight;
+			System.out.println("Loaded " + mapfile + ": " + mapwidth + "x" + mapheight + 
+			                   " px, " + mpp + " m/px"); // DEBUG
+			distfield = new DistanceField(obstaclemap);
+			cspace = new ConfigurationSpace(obstaclemap);
+
+			// convert real destinations to map destination points
+			mapdestpts = new int[realdestpts.length][2];
+			for(int i = 0; i < realdestpts.length; i++) {
+				mapdestpts[i][0] = realDistToMapDist(realdestpts[i][0] + worldwidth/2);
+				mapdestpts[i][1] = realDistToMapDist(worldheight/2 - realdestpts[i][1]);
 			}
-			// System.out.println("Create count: " + count); // DEBUG
+			
+			/*
+			// DEBUG - hard-code map destination points
+			mapdestpts = new int[3][2];
+			mapdestpts[0][0] = 712; // upper hallway, right of red robot
+			mapdestpts[0][1] = 98;
+			mapdestpts[1][0] = 842; // robotics lab, right of white robot
+			mapdestpts[1][1] = 314;
+			mapdestpts[2][0] = 800; // to right of mapdestpt 0
+			mapdestpts[2][1] = 98;
+			*/
+			
+			System.out.println("Map destination points:");
+			Retriever.printPts(mapdestpts);
 			
 			// create image
-			img = new BufferedImage(MAP_WIDTH,MAP_HEIGHT,BufferedImage.TYPE_INT_ARGB);
+			img = new BufferedImage(mapwidth,mapheight,BufferedImage.TYPE_INT_ARGB);
 			
 	        // scrollpane
 	        MapPanel mp = new MapPanel();
 	        JScrollPane scrollpane = new JScrollPane(mp);
 	        add(scrollpane);
 	        
-	        // generate points and edges	        
-			boolean valid = false;
-	        while(!valid) {
-	        	System.out.println("Computing probabilistic road map ..."); // DEBUG
+	        // reuse the roadmap built for this map and these settings last time, or generate points
+	        // and edges, then add points where the roadmap is still disconnected instead of starting over
+	        System.out.println("Computing probabilistic road map ..."); // DEBUG
+	        genStartPoints();
+	        long cachekey = RoadmapCache.settingsKey(cacheSettings(numpts));
+	        int repaired = (cache == null) ? -1 : loadRoadmap(cache, cachekey);
+	        if(repaired < 0) {
 	        	genAllPoints(numpts);
-	            genAllEdges();
-	            valid = checkPaths();
-	       }
+	        	genAllEdges();
+	        }
+	        int cachedpts = (repaired == 0) ? this.numpts : -1; // the roadmap on disk is up to date
+	        if(!densify(MAX_DENSIFY_FACTOR * numpts, BUILD_TIME_BUDGET)) {
+	        	throw new IllegalStateException("start and destination points still not connected with " + 
+	        	                                numpts + " roadmap points");
+	        }
+	        if(cache != null && this.numpts != cachedpts) { // built, repaired or densified
+	        	saveRoadmap(cache, cachekey);
+	        }
 	        
 	       // DEBUG
 	       draw();
@@ -152,11 +211,18 @@ public class ProbRoadMap extends JFrame {
 	
 	// convert from real meter distances to map pixel distances
 	public int realDistToMapDist(double realdist) {
-		return (int) (realdist / MPP); 
+		return (int) (realdist / mpp); 
 	}
 	// convert from map pixel distances to real meter distances
 	public float mapDistToRealDist(int mapdist) {
-		return (float) (mapdist * MPP); 
+		return (float) (mapdist * mpp); 
+	}
+	// real world offset of a point from the world origin, as createPath computes it
+	public float getRealX(int index) {
+		return mapDistToRealDist(mappts[index][0] - mapwidth/2);
+	}
+	public float getRealY(int index) {
+		return mapDistToRealDist(mapheight/2 - mappts[index][1]);
 	}
 	
 	
@@ -166,8 +232,8 @@ public class ProbRoadMap extends JFrame {
 	
 	// scale
     public void setScaleFactor(double scaleFactor) {
-        scaledimwidth = (int)(MAP_WIDTH * scaleFactor);
-        scaledimheight = (int)(MAP_HEIGHT * scaleFactor);
+        scaledimwidth = (int)(mapwidth * scaleFactor);
+        scaledimheight = (int)(mapheight * scaleFactor);
     }
 	
     // clear points and paths on map
@@ -178,9 +244,9 @@ public class ProbRoadMap extends JFrame {
 	// display the map
 	public void draw() {
 		int val, rgbval;
-		for(int y = 0; y < MAP_HEIGHT; y++) {
-			for(int x = 0; x < MAP_WIDTH; x++) {
-				val = obstaclemap[x][y]*255;
+		for(int y = 0; y < mapheight; y++) {
+			for(int x = 0; x < mapwidth; x++) {
+				val = obstaclemap.getVal(x,y)*255;
 				rgbval = (0xff << 24) | (val << 16) | (val << 8) | val;
 				img.setRGB(x,y,rgbval);
 			}
@@ -188,24 +254,26 @@ public class ProbRoadMap extends JFrame {
 		repaint();
 	}
 	
-	// draw all edges in adjmatrix
+	// draw all edges in graph, unchecked lazy edges in gray
 	public void drawAllEdges() {
 		int cval = Color.BLUE.getRGB();
-		for(int i = 0; i < mappts.length; i++) {
-			for(int j = i; j < mappts.length; j++) {
-				if(adjmatrix[i][j] > 0) {
-					drawLine(mappts[i],mappts[j],cval);
+		int uncheckedcval = Color.LIGHT_GRAY.getRGB();
+		for(int i = 0; i < numpts; i++) {
+			for(int e = graph.firstEdge(i); e < graph.endEdge(i); e++) {
+				int j = graph.target(e);
+				if(j > i && graph.state(e) != EDGE_INVALID) { // each edge once
+					drawLine(mappts[i],mappts[j],(graph.state(e) == EDGE_VALID) ? cval : uncheckedcval);
 				}
 			}
 		}
 		repaint();
 	}
 	
-	// draw all vertices in adjmatrix
+	// draw all vertices in graph
 	public void drawAllPoints() {
 		int cval = Color.RED.getRGB();
 		int x, y;
-		for(int i = 0; i < mappts.length; i++) {
+		for(int i = 0; i < numpts; i++) {
 			x = mappts[i][0];
 			y = mappts[i][1];
 			img.setRGB(x,y,cval);
@@ -238,32 +306,11 @@ public class ProbRoadMap extends JFrame {
 	}
 	
 	
-	// draw a line
+	// draw a line, leaving the end points untouched
 	private void drawLine(int startpt[], int endpt[], int cval) {
-		int x, y;
-		double oldy, oldx, curry, currx, endy, endx;
-		double theta, totaldist, dist, deltay, deltax;
-		
-		currx = startpt[0]; curry = startpt[1];
-		endx  = endpt[0]; endy  = endpt[1];
-		totaldist = Math.sqrt( Math.pow(endx-currx, 2) + Math.pow(endy-curry, 2) );
-		theta = Math.atan2(endy-curry, endx-currx);
-		dist = 0.0;
-		
-		while(dist < totaldist) {
-			// step along path
-			oldy = curry; oldx = currx;
-			deltay = Math.sin(theta);
-			deltax = Math.cos(theta);  
-			curry = curry + deltay;
-			currx = currx + deltax;
-			dist += Math.sqrt( Math.pow(currx-oldx, 2) + Math.pow(curry-oldy, 2) );
-			y = (int)Math.round(curry); x = (int)Math.round(currx);
-			
-			if(dist < totaldist) {
-				img.setRGB(x,y,cval);
-			}
-		}
+		int x0 = startpt[0], y0 = startpt[1], x1 = endpt[0], y1 = endpt[1];
+		linecolor = cval;
+		LineTraversal.segment(x0, y0, x1, y1, 1, LineTraversal.numSteps(x0,y0,x1,y1)-1, linevisitor);
 	}
 	
 	
@@ -285,34 +332,40 @@ public class ProbRoadMap extends JFrame {
     	repaint();
 	}
 	
+	// draw a path of point indexes
+	public void drawPath(int path[], int length) {
+		int cval = Color.GREEN.getRGB();
+		for(int i = 1; i < length; i++) {
+			drawLine(mappts[path[i-1]],mappts[path[i]],cval);
+		}
+		repaint();
+	}
+	
 	
 	///////////////////////////////////////////////////////////////////
 	// Map Generation Methods
 	///////////////////////////////////////////////////////////////////
 	
-	// add a new map point - don't do this often
+	// add a new map point, connected to its nearest points only
+	// costs O(degree), mappts and the graph grow with room to spare
 	public int addPoint(float realx, float realy) {
-		int x = realDistToMapDist(realx + WORLD_WIDTH/2);
-		int y = realDistToMapDist(WORLD_HEIGHT/2 - realy);
-		int numpts = mappts.length;
-		int tmppts[][] = new int[numpts+1][2];
-		
-		for(int i = 0; i < numpts; i++) {
-			tmppts[i][0] = mappts[i][0];
-			tmppts[i][1] = mappts[i][1];
+		int x = realDistToMapDist(realx + worldwidth/2);
+		int y = realDistToMapDist(worldheight/2 - realy);
+		return addMapPoint(x, y);
+	}
+	
+	// add a point in map coordinates, returns its index
+	private int addMapPoint(int x, int y) {
+		if(numpts == mappts.length) {
+			mappts = Arrays.copyOf(mappts, numpts + (numpts >>> 1) + 1); // rows are shared
 		}
-		tmppts[numpts][0] = x;
-		tmppts[numpts][1] = y;
-		mappts = tmppts; // reset
-		
-		// make room in the adjmatrix
-		int tmpmatrix[][] = new int[numpts+1][numpts+1];
-		for(int i = 0; i < numpts; i++) {
-			for(int j = 0; j < numpts; j++) {
-				tmpmatrix[i][j] = adjmatrix[i][j];
-			}
+		if(landmarks != null && !landmarks.isFor(graph)) {
+			landmarks = null; // out of step already, cannot follow the new vertex
 		}
-		adjmatrix = tmpmatrix;
+		int v = graph.addVertex();
+		mappts[v] = new int[] {x, y};
+		numpts = v+1;
+		pointindex.insert(v, x, y);
 		
 		// generate new edges
 		/*
@@ -320,72 +373,226 @@ public class ProbRoadMap extends JFrame {
 			genEdge(numpts,i);
 		}
 		*/
+		connectPoint(v);
 		
-		return numpts; // index of new point
+		return v; // index of new point
+	}
+	
+	// connect a new point to the neighbours the connection strategy picks for it,
+	// leaving the other edges and their states alone, and tell the planner about the new edges
+	private void connectPoint(int v) {
+		long freecells = connection.usesFreeSpace() ? getFreeSpaceIndex().size() : 0;
+		long pairs[] = connection.candidatePairs(pointindex, mappts, v, freecells);
+		if(!lazy) {
+			pairs = ParallelEdgeBuilder.validate(getCurrentEdgeValidator(), mappts, pairs, 0, pairs.length);
+		}
+		if(components != null) {
+			components.ensureVertices(numpts);
+		}
+		for(int m = 0; m < pairs.length; m++) {
+			int i = ConnectionStrategy.first(pairs[m]), j = ConnectionStrategy.second(pairs[m]);
+			graph.addEdge(mappts, i, j, lazy ? EDGE_UNKNOWN : EDGE_VALID);
+			edgebuckets.add(mappts, i, j);
+			if(!lazy && components != null) {
+				components.union(i, j);
+			}
+		}
+		if(landmarks != null) {
+			landmarks.addVertex(graph.getStates(), v); // before the planner looks at the new vertex
+		}
+		
+		if(planner != null) {
+			planner.setGraph(graph, mappts, graph.getStates());
+			for(int m = 0; m < pairs.length; m++) {
+				planner.edgeChanged(ConnectionStrategy.first(pairs[m]), ConnectionStrategy.second(pairs[m]), 
+				                    Double.POSITIVE_INFINITY);
+			}
+		}
+	}
+	
+	// remove a point added with addPoint, e.g. a robot position used as a start point once the
+	// robot has left it, in O(degree) plus the edge bucket tiles its edges cross
+	// removing the last added point frees its index for the next addPoint, any other keeps
+	// its index without edges
+	public void removePoint(int index) {
+		if(planner != null && (planner.getStart() == index || planner.getGoal() == index)) {
+			planner = null; // its search tree is anchored at the point
+		}
+		int neighbours[] = new int[graph.degree(index)];
+		float lengths[] = new float[neighbours.length];
+		for(int e = graph.firstEdge(index), m = 0; e < graph.endEdge(index); e++, m++) {
+			neighbours[m] = graph.target(e);
+			lengths[m] = (graph.state(e) == EDGE_INVALID) ? Float.POSITIVE_INFINITY : graph.length(e);
+		}
+		for(int m = 0; m < neighbours.length; m++) {
+			edgebuckets.remove(mappts, index, neighbours[m]); // else the pair could alias a later edge
+		}
+		if(landmarks != null && !landmarks.isFor(graph)) {
+			landmarks = null;
+		}
+		graph.removeVertex(index);
+		if(landmarks != null) {
+			landmarks.removeVertex(graph.getStates(), index);
+		}
+		pointindex.remove(index);
+		numpts = graph.numVertices();
+		components = null; // sets cannot be split
+		
+		if(planner != null) {
+			for(int m = 0; m < neighbours.length; m++) {
+				planner.edgeChanged(neighbours[m], index, lengths[m]);
+			}
+			planner.setGraph(graph, mappts, graph.getStates());
+		}
 	}
 	
 	// update the obstacle map with a new obstacle
 	public void setVal(float realx, float realy) {
-		int x = realDistToMapDist(realx + WORLD_WIDTH/2);
-		int y = realDistToMapDist(WORLD_HEIGHT/2 - realy);
-		obstaclemap[x][y] = 0;
+		int x = realDistToMapDist(realx + worldwidth/2);
+		int y = realDistToMapDist(worldheight/2 - realy);
+		if(!obstaclemap.isFree(x,y)) {
+			return; // already known (or off the map), nothing changes
+		}
+		cspace.addObstacle(x,y); // also marks obstaclemap
+		if(edgebuckets != null) {
+			edgebuckets.markDirty(x,y);
+		}
+		distfield = null; // recomputed on next use
+		freeindex = null;
+		pointsamplers = null;
+		edgevalidator = null;
 		// System.out.println(">> PRM SETVAL [" + x + ", " + y + "]"); // DEBUG 
 	}
 	
 	// determine if at least one path exists between all initial robot starting locations
 	// and all destination points
+	// answered by the components of the checked edges without a search, lazy roadmaps search
+	// (checking the edges on the way) only between points not yet joined by checked edges
 	private boolean checkPaths() {
 		System.out.println("Checking necessary paths ..."); // DEBUG
-		boolean valid = true;
-		int startindex, endindex;
 		int numchecks = mapstartpts.length + mapdestpts.length;
-		Node lastnode = null;
 		
 		// we know that all initial robot starting locations
 		// and all destination points appear first in mappts
-		for(int i = 1; i < numchecks && valid; i++) {
-			startindex = i-1; endindex = i;
-			System.out.print("Checking path " + startindex + " => " + endindex + " ... "); // DEBUG
-			
-			lastnode = planPath(i-1,i);
-			valid = (lastnode != null);
-			
-			// DEBUG
-			if(valid) {
-				System.out.println("valid");
-				drawPath(createPath(lastnode));
-			} else {
-				System.out.println("invalid");
+		for(int i = 1; i < numchecks; i++) {
+			if(!isConnected(i-1, i) && (!lazy || planPath(i-1, i) == null)) {
+				System.out.println("Checking path " + (i-1) + " => " + i + " ... invalid"); // DEBUG
+				return false;
 			}
 		}
-		return valid;
+		System.out.println("All " + numchecks + " points connected, " + 
+		                   getConnectivity().numSets() + " components"); // DEBUG
+		return true;
+	}
+	
+	// true if points i and j are joined by edges known to be clear, near O(1)
+	// (a lazy roadmap may still have a path over edges not checked yet)
+	public boolean isConnected(int i, int j) {
+		return getConnectivity().connected(i, j);
+	}
+	
+	// components of the EDGE_VALID edges, built again after edges were blocked or removed
+	private UnionFind getConnectivity() {
+		if(components == null) {
+			components = new UnionFind(graph, EDGE_VALID);
+		}
+		return components;
+	}
+	
+	// grow the roadmap until checkPaths passes, a batch of points at a time: most of each batch
+	// around the components of start and destination points that are cut off from the largest
+	// one, the rest from the usual samplers, and only the new points are connected
+	// the spread around the cut off components doubles every round
+	// returns false if maxpts points or budgetmillis ms are reached first
+	private boolean densify(int maxpts, long budgetmillis) {
+		long deadline = System.currentTimeMillis() + budgetmillis;
+		double sigma = 2*NARROW_PASSAGE_SIGMA;
+		for(int round = 0; !checkPaths(); round++) {
+			if(numpts >= maxpts || System.currentTimeMillis() > deadline) {
+				return false;
+			}
+			int batch[][] = new int[Math.min(DENSIFY_BATCH, maxpts - numpts)][2];
+			int targeted = batch.length - batch.length/4;
+			Sampler frontier = new FrontierSampler(cspace.getLayer(POINT_BUFFER_ZONE), mappts, 
+			                                       frontierVertices(), sigma);
+			if(pointsamplers == null) {
+				createSamplers(samplername);
+			}
+			sampleengine.sample(frontier, seedstream.nextLong(), batch, 0, targeted);
+			sampleengine.sample(pointsamplers, samplerratios, seedstream.nextLong(), batch, targeted, batch.length);
+			landmarks = null; // the batch bridges components, landmarks picked before would be dropped
+			for(int i = 0; i < batch.length; i++) {
+				addMapPoint(batch[i][0], batch[i][1]);
+			}
+			System.out.println("Densified round " + round + ": " + numpts + " points, sigma " + sigma + " px"); // DEBUG
+			sigma = Math.min(2*sigma, Math.max(mapwidth, mapheight) / 4.0);
+		}
+		return true;
+	}
+	
+	// the vertices in components, over the edges not known to be blocked, that hold a start or
+	// destination point but not the largest such component
+	private int[] frontierVertices() {
+		UnionFind sets = new UnionFind(numpts);
+		for(int u = 0; u < numpts; u++) {
+			for(int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+				if(graph.target(e) > u && graph.state(e) != EDGE_INVALID) {
+					sets.union(u, graph.target(e));
+				}
+			}
+		}
+		int numrequired = mapstartpts.length + mapdestpts.length;
+		int largest = 0;
+		for(int i = 1; i < numrequired; i++) {
+			if(sets.setSize(i) > sets.setSize(largest)) {
+				largest = i;
+			}
+		}
+		boolean cutoff[] = new boolean[numpts]; // by set representative
+		for(int i = 0; i < numrequired; i++) {
+			cutoff[sets.find(i)] = !sets.connected(i, largest);
+		}
+		int vertices[] = new int[numpts];
+		int count = 0;
+		for(int v = 0; v < numpts; v++) {
+			if(cutoff[sets.find(v)]) {
+				vertices[count++] = v;
+			}
+		}
+		return Arrays.copyOf(vertices, count);
+	}
+	
+	// convert the initial robot starting points to map coordinates
+	private void genStartPoints() {
+		int x,y;
+		double realx, realy;
+		mapstartpts = new int[RobotControl.all_initial_pos.length][2];
+		for(int i = 0; i < mapstartpts.length; i++) {
+			// convert real world offsets from world origin to map coordinates
+			realx = RobotControl.all_initial_pos[i][0];
+			realy = RobotControl.all_initial_pos[i][1];
+			x = realDistToMapDist(realx + worldwidth/2);
+			y = realDistToMapDist(worldheight/2 - realy);
+
+			System.out.println("startingpt: [" + realx + "," + realy + "] => [" + x + "," + y + "]"); // DEBUG
+			
+			mapstartpts[i][0] = x;
+			mapstartpts[i][1] = y;
+		}
 	}
 	
 	// generate random points
 	// numpts - number of random points to generate
 	private void genAllPoints(int numpts) {
-		int numstartpts = RobotControl.all_initial_pos.length;
+		int numstartpts = mapstartpts.length;
 		int numdestpts = mapdestpts.length;
-		mapstartpts = new int[numstartpts][2];
 		mappts = new int[numstartpts + numdestpts + numpts][2];
-		Random rand = new Random();
-		int x,y,count = 0;
-		double realx, realy;
+		int count = 0;
 
 		// add initial robot starting points
 		for(int i = 0; i < numstartpts; i++) {
-			// convert real world offsets from world origin to map coordinates
-			realx = RobotControl.all_initial_pos[i][0];
-			realy = RobotControl.all_initial_pos[i][1];
-			x = realDistToMapDist(realx + WORLD_WIDTH/2);
-			y = realDistToMapDist(WORLD_HEIGHT/2 - realy);
-
-			System.out.println("startingpt: [" + realx + "," + realy + "] => [" + x + "," + y + "]"); // DEBUG
-			
-			mapstartpts[count][0] = x;
-			mapstartpts[count][1] = y;
-			mappts[count][0] = x;
-			mappts[count][1] = y;
+			mappts[count][0] = mapstartpts[i][0];
+			mappts[count][1] = mapstartpts[i][1];
 			count += 1;
 		}
 		// add destination points
@@ -395,113 +602,239 @@ public class ProbRoadMap extends JFrame {
 			count += 1;
 		}
 		// generate random points
-		while(count < numdestpts + numpts) {
-			y = rand.nextInt(MAP_HEIGHT);
-			x = rand.nextInt(MAP_WIDTH);
-			
-			// determine if point is valid (no obstacle in buffer zone)
-			boolean valid = true;
-			int minx = Math.max(x-POINT_BUFFER_ZONE, 0);
-			int maxx = Math.min(x+POINT_BUFFER_ZONE, MAP_WIDTH-1);
-			int miny = Math.max(y-POINT_BUFFER_ZONE, 0);
-			int maxy = Math.min(y+POINT_BUFFER_ZONE, MAP_HEIGHT-1);
-			// System.out.println(">> minx: " + minx + " maxx: " + maxx + " miny: " + miny + " maxy: " + maxy); // DEBUG
-			
-			for(int i = minx; i <= maxx && valid; i++) {
-				for(int j = miny; j <= maxy && valid; j++) {
-					valid = (obstaclemap[i][j] != 0);
-				}
-			}
-			
-			if(valid) {
-				mappts[count][0] = x;
-				mappts[count][1] = y;
-				count += 1;
+		// every sampler only returns valid cells (no obstacle within POINT_BUFFER_ZONE),
+		// each attempt gets the next seed of the master stream
+		if(pointsamplers == null) {
+			createSamplers(samplername);
+		}
+		sampleengine.sample(pointsamplers, samplerratios, seedstream.nextLong(), mappts, count, mappts.length);
+		numpts = mappts.length;
+	}
+	
+	// point sampling strategies for a spec of the form name[:ratio],name[:ratio],...
+	// e.g. "uniform:0.6,bridge:0.2,medial:0.2", a missing ratio counts as 1
+	private void createSamplers(String spec) {
+		String parts[] = spec.split(",");
+		Sampler samplers[] = new Sampler[parts.length];
+		double ratios[] = new double[parts.length];
+		for(int k = 0; k < parts.length; k++) {
+			String part[] = parts[k].trim().split(":");
+			samplers[k] = createSampler(part[0]);
+			ratios[k] = (part.length > 1) ? Double.parseDouble(part[1]) : 1.0;
+			if(!(ratios[k] >= 0.0)) {
+				throw new IllegalArgumentException("bad sampler ratio: " + parts[k]);
 			}
 		}
+		pointsamplers = samplers;
+		samplerratios = ratios;
 	}
 	
-	// generate an edge
-	private void genEdge(int startindex, int endindex) {
-		int x, y;
-		double oldy, oldx, curry, currx, endy, endx;
-		double theta, totaldist, dist, deltay, deltax;
-		boolean cont;
-		
+	// point sampling strategy for a name
+	// uniform: independent uniform draws over the valid cells
+	// halton, sobol: low-discrepancy sequences, rotated / scrambled per roadmap
+	// gaussian: points near obstacle boundaries
+	// bridge: midpoints of short bridges between obstacles (doorways, gaps)
+	// medial: uniform points retracted onto the medial axis of free space
+	private Sampler createSampler(String name) {
+		OccupancyGrid pointspace = cspace.getLayer(POINT_BUFFER_ZONE);
+		if(name.equals("uniform")) {
+			return new UniformSampler(getFreeSpaceIndex());
+		} else if(name.equals("halton")) {
+			return new HaltonSampler(pointspace);
+		} else if(name.equals("sobol")) {
+			return new SobolSampler(pointspace);
+		} else if(name.equals("gaussian")) {
+			return new GaussianSampler(pointspace, NARROW_PASSAGE_SIGMA);
+		} else if(name.equals("bridge")) {
+			return new BridgeSampler(pointspace, NARROW_PASSAGE_SIGMA);
+		} else if(name.equals("medial")) {
+			return new MedialAxisSampler(getFreeSpaceIndex(), getDistanceField());
+		}
+		throw new IllegalArgumentException("unknown sampler: " + name);
+	}
+	
+	// determine if an edge is valid
+	private boolean genEdge(int startindex, int endindex) {
 		// determine if there are obstacles along the path
-		currx = mappts[startindex][0]; curry = mappts[startindex][1];
-		endx  = mappts[endindex][0];   endy  = mappts[endindex][1];
-		totaldist = Math.sqrt( Math.pow(endx-currx, 2) + Math.pow(endy-curry, 2) );
-		theta = Math.atan2(endy-curry, endx-currx);
-		dist = 0.0;
+		// no obstacle may be within PATH_BUFFER_ZONE-1 px of any Bresenham pixel
+		// (as far as the old left/right perpendicular probes reached)
+		return getEdgeValidator().isPathClear(mappts[startindex][0], mappts[startindex][1],
+		                                      mappts[endindex][0],   mappts[endindex][1]);
+	}
+	
+	// generate edges between points
+	public void genAllEdges() {
+		// determine if there is a path between the pairs of points the connection
+		// strategy picks (nearest neighbours, see ConnectionStrategy)
+		// the pairs are tested in parallel, the accepted ones come back in candidate order
+		// in lazy mode the pairs are kept unchecked, planPath checks the ones it uses
+		if(mappts.length > numpts) {
+			mappts = Arrays.copyOf(mappts, numpts); // drop the spare rows addPoint grew it by
+		}
+		long pairs[] = connection.candidatePairs(mappts, getFreeSpaceIndex().size());
+		if(lazy) {
+			graph = new RoadmapGraph(mappts, pairs); // all EDGE_UNKNOWN
+		} else {
+			long edges[] = edgebuilder.validate(getEdgeValidator(), mappts, pairs);
+			graph = new RoadmapGraph(mappts, edges);
+			graph.fillStates(EDGE_VALID);
+		}
+		indexRoadmap();
+	}
+	
+	// the indexes over a new graph
+	private void indexRoadmap() {
+		planner = null; // new graph
+		components = null;
+		pointindex = new PointGrid(mapwidth, mapheight, PointGrid.DEFAULT_CELL, mappts, numpts);
 		
-		cont = true;
-		while(dist < totaldist && cont) {
-			// step along path
-			oldy = curry; oldx = currx;
-			deltay = Math.sin(theta) * PATH_CHECK_INTERVAL;
-			deltax = Math.cos(theta) * PATH_CHECK_INTERVAL;  
-			curry = curry + deltay;
-			currx = currx + deltax;
-			dist += Math.sqrt( Math.pow(currx-oldx, 2) + Math.pow(curry-oldy, 2) );
-			y = (int)Math.round(curry); x = (int)Math.round(currx);
-			
-			/*
-			// determine if point is valid (no obstacle in buffer zone)
-			int minx = Math.max(x-PATH_BUFFER_ZONE, 0);
-			int maxx = Math.min(x+PATH_BUFFER_ZONE, MAP_WIDTH-1);
-			int miny = Math.max(y-PATH_BUFFER_ZONE, 0);
-			int maxy = Math.min(y+PATH_BUFFER_ZONE, MAP_HEIGHT-1);
-			// System.out.println(">> minx: " + minx + " maxx: " + maxx + " miny: " + miny + " maxy: " + maxy); // DEBUG
-			
-			for(int k = minx; k <= maxx && cont; k++) {
-				for(int l = miny; l <= maxy && cont; l++) {
-					cont = (obstaclemap[k][l] > 0);
+		// a tile holds the edges that pass within PATH_BUFFER_ZONE px (layer radius plus a px of
+		// Bresenham rounding), so new obstacles in it are the only ones that can block them
+		edgebuckets = new EdgeBucketGrid(mapwidth, mapheight, EdgeBucketGrid.DEFAULT_TILE, PATH_BUFFER_ZONE);
+		edgebuckets.addAll(graph, mappts);
+	}
+	
+	// everything besides the map and seed that decides which roadmap gets built
+	private String cacheSettings(int numpts) {
+		StringBuilder settings = new StringBuilder();
+		settings.append(numpts).append('|').append(samplername).append('|').append(connection);
+		settings.append('|').append(lazy).append('|').append(POINT_BUFFER_ZONE).append('|').append(PATH_BUFFER_ZONE);
+		settings.append('|').append(NARROW_PASSAGE_SIGMA).append('|').append(DENSIFY_BATCH);
+		for(int i = 0; i < mapstartpts.length; i++) {
+			settings.append('|').append(mapstartpts[i][0]).append(',').append(mapstartpts[i][1]);
+		}
+		for(int i = 0; i < mapdestpts.length; i++) {
+			settings.append('|').append(mapdestpts[i][0]).append(',').append(mapdestpts[i][1]);
+		}
+		return settings.toString();
+	}
+	
+	// take the roadmap from cache if there is one for these settings (and seed, unless the cache
+	// accepts any), checking the edges near the map tiles that changed since it was saved again
+	// returns the number of edges whose state changed that way, or -1 if there is no such roadmap
+	private int loadRoadmap(RoadmapCache cache, long cachekey) {
+		RoadmapCache.Entry entry = cache.load(cachekey, seed, obstaclemap);
+		if(entry == null) {
+			return -1;
+		}
+		if(entry.seed != seed) {
+			seed = entry.seed;
+			seedstream = new SplittableRandom(seed);
+			System.out.println("PRM seed: " + seed + " from " + cache.getFile()); // rerun with -s to reproduce
+		}
+		mappts = entry.pts;
+		numpts = entry.pts.length;
+		graph = entry.graph;
+		indexRoadmap();
+		components = new UnionFind(entry.component);
+		
+		// obstacles may have been added or removed in the changed tiles, so every edge near them
+		// is checked again, blocked ones included
+		int tile = edgebuckets.getTile();
+		for(int k = 0; k < entry.changedtiles.length; k++) {
+			int x0 = (entry.changedtiles[k] % entry.tilesx) * RoadmapCache.TILE;
+			int y0 = (entry.changedtiles[k] / entry.tilesx) * RoadmapCache.TILE;
+			for(int y = y0; y < Math.min(y0 + RoadmapCache.TILE, mapheight); y += tile) {
+				for(int x = x0; x < Math.min(x0 + RoadmapCache.TILE, mapwidth); x += tile) {
+					edgebuckets.markDirty(x,y);
 				}
 			}
-			*/
-			
-			// left
-			float ldeltay, ldeltax, ltheta = (float) (theta + Math.toRadians(90));
-			int ly, lx;
-			for(int l = 0; l < PATH_BUFFER_ZONE && cont; l++) {
-				ldeltay = (float) Math.sin(ltheta) * l;  ldeltax = (float) Math.cos(ltheta) * l;
-				ly = (int)Math.round(ldeltay+y); 		 lx = (int)Math.round(ldeltax+x);
-				// System.out.println("theta: " + Math.toDegrees(theta) + " ltheta: " + Math.toDegrees(ltheta) + 
-				//		           " ldeltay: " + ldeltay + " ldeltax: " + ldeltax + " y: " + y + " x: " + x + " ly:" + ly + " lx: " + lx); // DEBUG
-				cont = (obstaclemap[lx][ly] > 0);
+		}
+		long dirtyedges[] = edgebuckets.takeDirtyEdges();
+		int changed = 0;
+		for(int m = 0; m < dirtyedges.length; m++) {
+			int u = ConnectionStrategy.first(dirtyedges[m]), w = ConnectionStrategy.second(dirtyedges[m]);
+			byte state = EDGE_UNKNOWN;
+			if(!lazy) {
+				state = genEdge(u, w) ? EDGE_VALID : EDGE_INVALID;
 			}
-			
-			// right
-			float rdeltay, rdeltax, rtheta = (float) (theta - Math.toRadians(90));
-			int ry, rx;
-			for(int r = 1; r < PATH_BUFFER_ZONE && cont; r++) {
-				rdeltay = (float) Math.sin(rtheta) * r;  rdeltax = (float) Math.cos(rtheta) * r;
-				ry = (int)Math.round(rdeltay+y); 		 rx = (int)Math.round(rdeltax+x);
-				cont = (obstaclemap[rx][ry] > 0);
+			if(graph.state(graph.findEdge(u,w)) != state) {
+				graph.setState(u, w, state);
+				changed++;
 			}
-			
-			
 		}
-		// add valid points to adjacency matrix
-		if(cont) {
-			adjmatrix[startindex][endindex] = 1;
-			adjmatrix[endindex][startindex] = 1;
+		if(changed > 0) {
+			components = null;
 		}
+		System.out.println("Loaded roadmap from " + cache.getFile() + ": " + numpts + " points, " + 
+		                   entry.changedtiles.length + " changed map tiles, " + changed + 
+		                   " of " + dirtyedges.length + " edges near them changed"); // DEBUG
+		return changed;
 	}
 	
-	// generate edges between points
-	public void genAllEdges() {
-		// determine if there is a path between every pair of points
-		int numpts = mappts.length;
-		adjmatrix = new int[numpts][numpts];
+	// write the roadmap to cache, a roadmap that cannot be written is only built again next time
+	private void saveRoadmap(RoadmapCache cache, long cachekey) {
+		UnionFind sets = getConnectivity();
+		int component[] = new int[numpts];
 		for(int i = 0; i < numpts; i++) {
-			for(int j = i; j < numpts; j++) {
-				if(i != j) { // if not same point
-					genEdge(i,j);
+			component[i] = sets.find(i);
+		}
+		try {
+			cache.save(cachekey, seed, obstaclemap, mappts, numpts, graph, component);
+			System.out.println("Saved roadmap to " + cache.getFile()); // DEBUG
+		} catch (IOException e) {
+			System.out.println("!! Roadmap not saved to " + cache.getFile() + ": " + e.getMessage());
+		}
+	}
+	
+	// account for the obstacles added by setVal since the last call without rebuilding the roadmap:
+	// only the edges in map tiles with new obstacles are checked again, and the planner repairs
+	// its search tree around the ones that became blocked
+	// (lazy roadmaps mark them unchecked instead, planPath checks them if a path uses them)
+	// returns the number of edges found blocked
+	public int updateEdges() {
+		if(!edgebuckets.isDirty()) {
+			return 0; // nothing new
+		}
+		EdgeValidator validator = getCurrentEdgeValidator();
+		long dirtyedges[] = edgebuckets.takeDirtyEdges();
+		int blocked = 0;
+		for(int m = 0; m < dirtyedges.length; m++) {
+			int u = ConnectionStrategy.first(dirtyedges[m]), w = ConnectionStrategy.second(dirtyedges[m]);
+			int e = graph.findEdge(u,w);
+			if(e < 0 || graph.state(e) == EDGE_INVALID) {
+				continue; // edge of a removed point, or known to be blocked
+			}
+			byte state;
+			if(lazy) {
+				state = EDGE_UNKNOWN;
+			} else {
+				state = validator.isPathClear(mappts[u][0], mappts[u][1], mappts[w][0], mappts[w][1]) ? 
+				        EDGE_VALID : EDGE_INVALID;
+			}
+			graph.setState(u, w, state);
+			if(state == EDGE_INVALID) {
+				blocked++;
+				if(planner != null) {
+					planner.edgeChanged(u, w, graph.length(e));
 				}
 			}
 		}
+		if(blocked > 0 || lazy) {
+			components = null; // sets cannot be split
+		}
+		System.out.println(">> UPDATED EDGES rechecked: " + dirtyedges.length + " blocked: " + blocked); // DEBUG
+		return blocked;
+	}
+	
+	// check the unchecked edges along the path to destindex found by the last search,
+	// remembering the results
+	// returns false as soon as one of them is blocked
+	private boolean checkPathEdges(int destindex) {
+		for(int v = destindex; searchcontext.parent(v) >= 0; v = searchcontext.parent(v)) {
+			int u = searchcontext.parent(v);
+			int e = graph.findEdge(u, v);
+			if(graph.state(e) == EDGE_UNKNOWN) {
+				graph.setState(u, v, genEdge(u, v) ? EDGE_VALID : EDGE_INVALID);
+				if(components != null && graph.state(e) == EDGE_VALID) {
+					components.union(u, v);
+				}
+			}
+			if(graph.state(e) == EDGE_INVALID) {
+				return false;
+			}
+		}
+		return true;
 	}
 	
 	/*
@@ -553,92 +886,113 @@ public class ProbRoadMap extends JFrame {
 	// Path Planning Methods
 	///////////////////////////////////////////////////////////////////
 	
-	// plan path using A* search and return the last node in the path if a path exists
+	// Two planners answer queries, both with the ALT landmark heuristic of getLandmarks():
+	// planPath(int,int) (the Node API) runs a bidirectional ALT search from scratch,
+	// planPath(int,int,int[]) (used by RobotControl) keeps a D* Lite tree per destination
+	
+	// plan path and return the last node in the path if a path exists
 	// indexes specify points in mappts
-	// algorithm based on: http://en.wikipedia.org/wiki/A*_search_algorithm
+	// lazy roadmaps: search optimistically, check the edges of the path found,
+	// and search again without any that turned out to be blocked
+	// algorithm based on: Bohlin and Kavraki, "Path Planning Using Lazy PRM" (2000)
 	public Node planPath(int startindex, int destindex) {
-		int endx, endy;
-		int numpts = mappts.length;
-		double fscore, tmpgscore, hscore;
-		boolean tmpbetter;
-		Node xnode, ynode;
-		
-		endx = mappts[destindex][0]; endy = mappts[destindex][1];
-		NodeComparator comparator = new NodeComparator();
-		
-		// keep sets in sorted order
-		List<Node> openset = new ArrayList<Node>();
-		List<Node> closedset = new ArrayList<Node>();
-		
-		fscore = Math.sqrt( Math.pow(endx-mappts[startindex][0], 2) 
-				          + Math.pow(endy-mappts[startindex][1], 2) );
-		xnode = new Node(startindex,fscore);
-		openset.add(xnode);
-		
-		while(!openset.isEmpty()) {
-			// determine node in openset with lowest fscore (straight-line distance to dest)
-			xnode = openset.get(0);
-			// System.out.println(">> xnode: " + xnode.index); // DEBUG
-				
-			if(xnode.index == destindex) {
-				return xnode;
+		if(searchPath(startindex, destindex, null) < 0) {
+			return null;
+		}
+		return AStarSearch.createNodes(searchcontext, destindex);
+	}
+	
+	// plan path into a caller-supplied buffer of point indexes, start first
+	// the D* Lite search tree towards destindex is kept, so planning to the same destination
+	// again (after the robot moved, points were added or updateEdges found blocked edges)
+	// only repairs the part of the tree that changed
+	// returns the number of points on the path (only the first path.length are stored),
+	// or -1 if no path exists
+	public int planPath(int startindex, int destindex, int path[]) {
+		if(planner == null || planner.getGoal() != destindex) {
+			planner = new IncrementalPlanner(graph, mappts, graph.getStates(), startindex, destindex);
+		} else if(planner.getStart() != startindex) {
+			planner.moveStart(startindex);
+		}
+		planner.setLandmarks(getLandmarks());
+		while(planner.computePath() && !checkPlannerEdges()) {
+			// blocked lazy edges were reported to the planner, repair and try again
+		}
+		return planner.copyPath(path);
+	}
+	
+	// check the unchecked edges along the planner's current path, reporting blocked ones to it
+	// returns false as soon as one of them is blocked
+	private boolean checkPlannerEdges() {
+		for(int u = planner.getStart(); u != planner.getGoal(); u = planner.next(u)) {
+			int v = planner.next(u);
+			int e = graph.findEdge(u, v);
+			if(graph.state(e) == EDGE_UNKNOWN) {
+				boolean clear = getCurrentEdgeValidator().isPathClear(mappts[u][0], mappts[u][1], 
+				                                                      mappts[v][0], mappts[v][1]);
+				graph.setState(u, v, clear ? EDGE_VALID : EDGE_INVALID);
+				if(clear && components != null) {
+					components.union(u, v);
+				}
+				if(!clear) {
+					planner.edgeChanged(u, v, graph.length(e));
+					return false;
+				}
 			}
-			
-			// System.out.println("Try to remove from openset: " + xnode + " (" + xnode.fscore + ") from: " + openset); // DEBUG
-			if(!openset.remove(xnode)) {
-				System.err.println("Could not remove: " + xnode);
-				System.exit(1);
+		}
+		return true;
+	}
+	
+	// bidirectional ALT search over the edges not known to be blocked, repeated while lazy edges fail
+	private int searchPath(int startindex, int destindex, int path[]) {
+		int length;
+		do {
+			length = BidirectionalSearch.search(graph, mappts, graph.getStates(), startindex, destindex,
+			                                    getLandmarks(), searchcontext, reversecontext, null);
+		} while(length >= 0 && !checkPathEdges(destindex));
+		if(length >= 0 && path != null) {
+			searchcontext.copyPath(destindex, path);
+		}
+		return length;
+	}
+	
+	// landmark table for the graph as it is now, built once per roadmap: it follows the points
+	// addPoint and removePoint change, and edges found blocked since only make distances longer
+	private LandmarkTable getLandmarks() {
+		if(landmarks == null || !landmarks.isFor(graph)) {
+			landmarks = new LandmarkTable(graph, graph.getStates(), NUM_LANDMARKS);
+		}
+		return landmarks;
+	}
+	
+	// length of a path in px
+	public double pathCost(int path[], int length) {
+		double cost = 0.0;
+		for(int i = 1; i < length; i++) {
+			cost += AStarSearch.distance(mappts[path[i-1]][0], mappts[path[i-1]][1],
+			                             mappts[path[i]][0],   mappts[path[i]][1]);
+		}
+		return cost;
+	}
+	
+	// skip the points of a path that a clear straight segment can go past: from each point kept,
+	// go to the farthest later point in sight (greedy shortcutting, checked against the map as it
+	// is now, with the same corridor as edges)
+	// the path is shortened in place, returns its new length
+	public int shortcutPath(int path[], int length) {
+		EdgeValidator validator = getCurrentEdgeValidator();
+		int count = (length > 0) ? 1 : 0;
+		for(int i = 0; i < length-1; ) {
+			int j = length-1;
+			while(j > i+1 && !validator.isPathClear(mappts[path[i]][0], mappts[path[i]][1], 
+			                                        mappts[path[j]][0], mappts[path[j]][1])) {
+				j--;
 			}
-			// System.out.println("Try to add to closedset: " + xnode + " to: " + closedset); // DEBUG
-			closedset.add(xnode);
-			
-			// iterate over xnode neighbors
-			for(int y = 0; y < numpts; y++) {
-				ynode = new Node(y,0.0);
-				// System.out.println(">> >> ynode: " + ynode.index + ", " + 
-				//		(adjmatrix[xnode.index][ynode.index] > 0) + " && " + !closedset.contains(ynode)); // DEBUG
-				if(adjmatrix[xnode.index][ynode.index] > 0 && !closedset.contains(ynode)) { // if unchecked neighbor
-					
-					// System.out.println(">> >> checking"); // DEBUG
-					
-					// attempt to calculate distance from start along optimal path
-					tmpgscore = xnode.gscore + 
-					         Math.sqrt( Math.pow(mappts[ynode.index][0]-mappts[xnode.index][0], 2) 
-									  + Math.pow(mappts[ynode.index][1]-mappts[xnode.index][1], 2) );
-					hscore = Math.sqrt( Math.pow(endx-mappts[ynode.index][0], 2) 
-					                  + Math.pow(endy-mappts[ynode.index][1], 2) );
-					/*
-					System.out.println(">> >> tmpgscore: " + tmpgscore); // DEBUG
-					System.out.println(xnode.index); // DEBUG
-					System.out.println(pts[xnode.index][0]); // DEBUG
-					System.out.println(pts[xnode.index][1]); // DEBUG
-					System.out.println(ynode.index); // DEBUG
-					System.out.println(pts[ynode.index][0]); // DEBUG
-					System.out.println(pts[ynode.index][1]); // DEBUG
-					*/
-					
-					tmpbetter = false;
-					if(!openset.contains(ynode)) {
-						// System.out.println("Try to add to openset: " + ynode + " to: " + openset); // DEBUG
-						openset.add(ynode);
-						tmpbetter = true;
-					} else if(tmpgscore < ynode.gscore) {
-						tmpbetter = true;
-					}
-					
-					// if best found so far
-					if(tmpbetter) {
-						// since we modified the node, we need to resort the openset
-						ynode.prev = xnode;
-						ynode.gscore = tmpgscore;
-						ynode.fscore = ynode.gscore + hscore;
-						Collections.sort(openset,comparator);
-					}
-				}
-			}	
+			path[count++] = path[j];
+			i = j;
 		}
-		// if we made it this far without returning, a path cannot be formed
-		return null;
+		System.out.println(">> SHORTCUT PATH points: " + length + " => " + count); // DEBUG
+		return count;
 	}
 	
 	// create a path in stack form by recursing from the last path node to the first
@@ -661,8 +1015,8 @@ public class ProbRoadMap extends JFrame {
     		node = iter.next();
     		node.mapx = mappts[node.index][0];
     		node.mapy = mappts[node.index][1];
-    		node.realx = mapDistToRealDist(node.mapx - MAP_WIDTH/2);
-    		node.realy = mapDistToRealDist(MAP_HEIGHT/2 - node.mapy);
+    		node.realx = mapDistToRealDist(node.mapx - mapwidth/2);
+    		node.realy = mapDistToRealDist(mapheight/2 - node.mapy);
     	}
 		return nodepath;
 	}
@@ -692,11 +1046,107 @@ public class ProbRoadMap extends JFrame {
     }
 	
 	/*
-	 * 
+	 * 1 if free, 0 if obstacle (or outside of the map)
 	 */
 	public int getObstacleMapVal( int x, int y )
 	{
-	    return obstaclemap[x][y];
+	    return obstaclemap.getVal( x, y );
+	}
+	
+	/*
+	 * 
+	 */
+	public OccupancyGrid getObstacleMap()
+	{
+		return obstaclemap;
+	}
+	
+	/*
+	 * configuration space layers of the current obstacle map
+	 */
+	public ConfigurationSpace getCSpace()
+	{
+		return cspace;
+	}
+	
+	/*
+	 * current roadmap graph
+	 */
+	public RoadmapGraph getGraph()
+	{
+		return graph;
+	}
+	
+	/*
+	 * number of roadmap points, including the ones added with addPoint
+	 */
+	public int getNumPoints()
+	{
+		return numpts;
+	}
+	
+	/*
+	 * master seed of the random roadmap
+	 */
+	public long getSeed()
+	{
+		return seed;
+	}
+	
+	/*
+	 * valid sample cells of the current obstacle map
+	 */
+	public FreeSpaceIndex getFreeSpaceIndex()
+	{
+		if(freeindex == null) {
+			freeindex = new FreeSpaceIndex( cspace.getLayer(POINT_BUFFER_ZONE) );
+		}
+		return freeindex;
+	}
+	
+	/*
+	 * distance field of the current obstacle map
+	 */
+	public DistanceField getDistanceField()
+	{
+		if( distfield == null )
+		{
+			distfield = new DistanceField( obstaclemap );
+		}
+		return distfield;
+	}
+	
+	/*
+	 * sphere-traced corridor test for edges
+	 */
+	public EdgeValidator getEdgeValidator()
+	{
+		if( edgevalidator == null )
+		{
+			edgevalidator = new EdgeValidator( getDistanceField(), cspace, PATH_BUFFER_ZONE-1 );
+		}
+		return edgevalidator;
+	}
+	
+	/*
+	 * corridor test for a few edges that does not wait for the distance field:
+	 * sphere-traced while the field is current, c-space layer only after setVal
+	 */
+	private EdgeValidator getCurrentEdgeValidator()
+	{
+		if( edgevalidator == null && distfield == null )
+		{
+			return new EdgeValidator( cspace, PATH_BUFFER_ZONE-1 );
+		}
+		return getEdgeValidator();
+	}
+	
+	/*
+	 * distance in map pixels from a map cell to the nearest obstacle
+	 */
+	public float clearanceAt( int x, int y )
+	{
+		return getDistanceField().clearanceAt( x, y );
 	}
 	
 	/*
@@ -704,7 +1154,7 @@ public class ProbRoadMap extends JFrame {
 	 */
 	public double get_world_height()
 	{
-		return WORLD_HEIGHT;
+		return worldheight;
 	}
 	
 	/*
@@ -712,7 +1162,60 @@ public class ProbRoadMap extends JFrame {
 	 */
 	public double get_world_width()
 	{
-		return WORLD_WIDTH;
+		return worldwidth;
+	}
+	
+	/*
+	 * meters per map pixel
+	 */
+	public double get_mpp()
+	{
+		return mpp;
+	}
+	
+	
+	// TEST - add points with addPoint, rebuild every edge with genAllEdges over the grown points,
+	// and compare the paths of both planners (opens the map window, like RobotControl)
+	// usage: java ProbRoadMap [map_file] [num_pts] [added_pts] [seed]
+	public static void main(String args[]) {
+		String mapfile = (args.length > 0) ? args[0] : DEFAULT_MAP_FILE;
+		int numpts = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+		int numadded = (args.length > 2) ? Integer.parseInt(args[2]) : 100;
+		long seed = (args.length > 3) ? Long.parseLong(args[3]) : 42L;
+		
+		ProbRoadMap prm = new ProbRoadMap(mapfile, numpts, new double[0][2], seed, "uniform", "prmstar", false);
+		FreeSpaceIndex index = prm.getFreeSpaceIndex();
+		SplittableRandom rand = new SplittableRandom(seed);
+		int pt[] = new int[2];
+		for(int i = 0; i < numadded; i++) {
+			index.select(rand.nextLong(index.size()), pt);
+			prm.addPoint(prm.mapDistToRealDist(pt[0] - prm.mapwidth/2), prm.mapDistToRealDist(prm.mapheight/2 - pt[1]));
+		}
+		int addededges = prm.getGraph().numEdges();
+		prm.genAllEdges();
+		System.out.printf("%d points after %d addPoint calls: %d edges connected incrementally, %d by genAllEdges\n",
+		                  prm.getNumPoints(), numadded, addededges, prm.getGraph().numEdges());
+		
+		int numqueries = 200, found = 0, mismatches = 0;
+		int path[] = new int[prm.getNumPoints()];
+		for(int q = 0; q < numqueries; q++) {
+			int s = rand.nextInt(prm.getNumPoints()), d = rand.nextInt(prm.getNumPoints());
+			int length = prm.planPath(s, d, path);
+			Node node = prm.planPath(s, d);
+			double cost = 0.0;
+			for(Node n = node; n != null && n.prev != null; n = n.prev) {
+				cost += AStarSearch.distance(prm.mappts[n.index][0], prm.mappts[n.index][1],
+				                             prm.mappts[n.prev.index][0], prm.mappts[n.prev.index][1]);
+			}
+			if((length < 0) != (node == null) ||
+			   (length >= 0 && Math.abs(prm.pathCost(path, length) - cost) > 1e-3 * Math.max(1.0, cost))) {
+				mismatches++;
+			}
+			found += (length < 0) ? 0 : 1;
+		}
+		System.out.printf("%d queries, %d paths, %d cost mismatches between D* Lite and bidirectional ALT\n",
+		                  numqueries, found, mismatches);
+		prm.dispose();
 	}
 }
 
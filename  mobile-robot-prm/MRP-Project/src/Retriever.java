@@ -17,6 +17,12 @@ import java.util.Scanner;
 public class Retriever {
 	
 	public static boolean interactive = false;
+	public static long seed = System.nanoTime(); // master seed of the roadmap, set with -s
+	public static boolean seedgiven = false; // without -s a cached roadmap of any seed will do
+	public static String sampler = "uniform"; // roadmap point sampler, set with -m
+	public static String connection = "prmstar"; // roadmap edge candidates, set with -c
+	public static boolean lazy = false; // check roadmap edges only when a path uses them, set with -l
+	public static boolean cache = true; // keep roadmaps in map_file.roadmap between runs, turned off with -n
 	
 	// process the data points file
 	private static double[][] readPts(String filename) throws FileNotFoundException {
@@ -83,6 +89,30 @@ public class Retriever {
 			double realdestpts[][] = null;
 			RobotControl rc = null;
 			
+			// optional leading roadmap options, the rest is parsed by count
+			while(args.length >= 1 && (args[0].equals("-s") || args[0].equals("-m") || 
+			                           args[0].equals("-c") || args[0].equals("-l") || args[0].equals("-n"))) {
+				int used = 2;
+				if(args[0].equals("-l")) {
+					lazy = true;
+					used = 1;
+				} else if(args[0].equals("-n")) {
+					cache = false;
+					used = 1;
+				} else if(args.length < 2) {
+					break;
+				} else if(args[0].equals("-s")) {
+					seed = Long.parseLong(args[1]);
+					seedgiven = true;
+				} else if(args[0].equals("-m")) {
+					sampler = args[1];
+				} else {
+					connection = args[1];
+				}
+				String tmpargs[] = new String[args.length-used];
+				System.arraycopy(args, used, tmpargs, 0, tmpargs.length);
+				args = tmpargs;
+			}
 
 			if(args.length == 1) {
 				rc = new RobotControl();
@@ -103,8 +133,8 @@ public class Retriever {
 				realdestpts = readPts(args[3]);
 				interactive = true;
 			}else{
-				System.out.println("Usage: java Retriever [-i] pts_file");
-				System.out.println("Usage: java Retriever [-i] host port pts_file");
+				System.out.println("Usage: java Retriever [-s seed] [-m sampler] [-c connection] [-l] [-n] [-i] pts_file");
+				System.out.println("Usage: java Retriever [-s seed] [-m sampler] [-c connection] [-l] [-n] [-i] host port pts_file");
 			}
 
 			if(rc != null) {
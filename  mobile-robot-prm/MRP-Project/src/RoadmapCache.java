@@ -0,0 +1,371 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/*
+ * RoadmapCache.java
+ *
+ * Keeps a built roadmap on disk, so a run on an unchanged map with the same
+ * settings starts from the saved roadmap instead of sampling and connecting
+ * a new one.
+ *
+ * File layout (big endian):
+ *   magic "PRMC", format version
+ *   settings key and seed
+ *   map width and height, then one 64-bit hash per TILE x TILE px tile
+ *   number of points, then each point as zigzag varint deltas from the previous one
+ *   per point, the number of neighbours with a higher index, then for each of them
+ *     (gap to the previous neighbour << 2 | edge state) as a varint
+ *   per point, the id of its connected component (over EDGE_VALID edges) as a varint
+ *
+ * Rows are sorted, so the gaps are small and most edges take 1-2 bytes.
+ * A file whose key and seed match is loaded even if some tiles of the map
+ * changed, as long as few did. The caller then checks the edges near those
+ * tiles again rather than building a new roadmap.
+ */
+public class RoadmapCache {
+
+	public static final String SUFFIX = ".roadmap"; // cache file of a map file
+	public static final int FORMAT_VERSION = 1;
+	public static final int TILE = 64; // px, one word of an OccupancyGrid row
+	public static final double MAX_CHANGED_TILES = 0.1; // share of the map a repair may cover
+
+	private static final int MAGIC = 0x50524d43; // "PRMC"
+
+	private final File file;
+	private final boolean anyseed; // a file built from any seed will do
+
+	// cache in filename, anyseed accepts a roadmap built from another seed
+	// (for runs that did not ask for a particular seed)
+	public RoadmapCache(String filename, boolean anyseed) {
+		this.file = new File(filename);
+		this.anyseed = anyseed;
+	}
+
+	public File getFile() { return file; }
+
+	// roadmap read back from a cache file
+	public static class Entry {
+		public final long seed;
+		public final int pts[][];
+		public final RoadmapGraph graph;
+		public final int component[];    // component id of each point
+		public final int changedtiles[]; // tile indexes (ty * tilesx + tx) that differ from the map now
+		public final int tilesx;
+
+		Entry(long seed, int pts[][], RoadmapGraph graph, int component[], int changedtiles[], int tilesx) {
+			this.seed = seed;
+			this.pts = pts;
+			this.graph = graph;
+			this.component = component;
+			this.changedtiles = changedtiles;
+			this.tilesx = tilesx;
+		}
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Keys
+	///////////////////////////////////////////////////////////////////
+
+	// 64-bit FNV-1a hash of the build settings, e.g. "500|uniform|prmstar|..."
+	public static long settingsKey(String settings) {
+		long hash = 0xcbf29ce484222325L;
+		byte bytes[] = (FORMAT_VERSION + "|" + settings).getBytes(StandardCharsets.UTF_8);
+		for(int i = 0; i < bytes.length; i++) {
+			hash = (hash ^ (bytes[i] & 0xff)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	// hash of every TILE x TILE tile of grid, row-major
+	public static long[] tileHashes(OccupancyGrid grid) {
+		long words[] = grid.getWords();
+		int wordsperrow = grid.getWordsPerRow();
+		int tilesy = (grid.getHeight() + TILE-1) / TILE;
+		long hashes[] = new long[wordsperrow * tilesy];
+		for(int y = 0; y < grid.getHeight(); y++) {
+			int row = (y / TILE) * wordsperrow;
+			for(int w = 0; w < wordsperrow; w++) {
+				hashes[row + w] = mix(hashes[row + w] + words[y * wordsperrow + w] + y);
+			}
+		}
+		return hashes;
+	}
+
+	// splitmix64 finalizer
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Loading
+	///////////////////////////////////////////////////////////////////
+
+	// the cached roadmap for the settings, seed and map, or null if there is none that fits
+	// (no file, other settings or seed, another map size, or too many changed tiles)
+	public Entry load(long settings, long seed, OccupancyGrid grid) {
+		if(!file.isFile()) {
+			return null;
+		}
+		try {
+			FileInputStream input = new FileInputStream(file);
+			try {
+				FileChannel channel = input.getChannel();
+				MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				return read(in, settings, seed, grid);
+			} finally {
+				input.close();
+			}
+		} catch(IOException e) {
+			System.out.println("!! Roadmap cache " + file + " unreadable: " + e.getMessage());
+			return null;
+		} catch(BufferUnderflowException e) {
+			System.out.println("!! Roadmap cache " + file + " is truncated");
+			return null;
+		}
+	}
+
+	private Entry read(MappedByteBuffer in, long settings, long seed, OccupancyGrid grid) throws IOException {
+		if(in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+			return null;
+		}
+		long filesettings = in.getLong(), fileseed = in.getLong();
+		if(filesettings != settings || (fileseed != seed && !anyseed)) {
+			return null;
+		}
+		if(in.getInt() != grid.getWidth() || in.getInt() != grid.getHeight()) {
+			return null;
+		}
+
+		// map tiles
+		long hashes[] = tileHashes(grid);
+		int changed[] = new int[hashes.length];
+		int numchanged = 0;
+		for(int t = 0; t < hashes.length; t++) {
+			if(in.getLong() != hashes[t]) {
+				changed[numchanged++] = t;
+			}
+		}
+		if(numchanged > MAX_CHANGED_TILES * hashes.length) {
+			return null;
+		}
+
+		// points
+		int numpts = readVarint(in);
+		int pts[][] = new int[numpts][2];
+		int x = 0, y = 0;
+		for(int i = 0; i < numpts; i++) {
+			x += unzigzag(readVarint(in));
+			y += unzigzag(readVarint(in));
+			pts[i][0] = x;
+			pts[i][1] = y;
+		}
+
+		// upper half of each row, then the full graph
+		long edges[] = new long[16];
+		byte states[] = new byte[16];
+		int numedges = 0;
+		for(int i = 0; i < numpts; i++) {
+			int count = readVarint(in);
+			int j = i;
+			for(int m = 0; m < count; m++) {
+				int code = readVarint(in);
+				j += code >>> 2;
+				if(j >= numpts || j <= i) {
+					throw new IOException("bad edge " + i + "-" + j);
+				}
+				if(numedges == edges.length) {
+					edges = Arrays.copyOf(edges, 2 * numedges);
+					states = Arrays.copyOf(states, 2 * numedges);
+				}
+				edges[numedges] = ConnectionStrategy.pair(i, j);
+				states[numedges++] = (byte) (code & 3);
+			}
+		}
+		RoadmapGraph graph = new RoadmapGraph(pts, Arrays.copyOf(edges, numedges));
+		for(int m = 0; m < numedges; m++) {
+			if(states[m] != ProbRoadMap.EDGE_UNKNOWN) {
+				graph.setState(ConnectionStrategy.first(edges[m]), ConnectionStrategy.second(edges[m]), states[m]);
+			}
+		}
+
+		int component[] = new int[numpts];
+		for(int i = 0; i < numpts; i++) {
+			component[i] = readVarint(in);
+		}
+		return new Entry(fileseed, pts, graph, component, Arrays.copyOf(changed, numchanged), grid.getWordsPerRow());
+	}
+
+	private static int readVarint(MappedByteBuffer in) throws IOException {
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7) {
+			int b = in.get();
+			value |= (b & 0x7f) << shift;
+			if(b >= 0) {
+				return value;
+			}
+		}
+		throw new IOException("bad varint");
+	}
+
+	private static int unzigzag(int v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Saving
+	///////////////////////////////////////////////////////////////////
+
+	// write the roadmap over points 0 .. numpts-1 of pts, replacing the file in one step
+	// component holds the component id of every point
+	public void save(long settings, long seed, OccupancyGrid grid, int pts[][], int numpts,
+	                 RoadmapGraph graph, int component[]) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(settings);
+			out.writeLong(seed);
+			out.writeInt(grid.getWidth());
+			out.writeInt(grid.getHeight());
+			long hashes[] = tileHashes(grid);
+			for(int t = 0; t < hashes.length; t++) {
+				out.writeLong(hashes[t]);
+			}
+
+			writeVarint(out, numpts);
+			int x = 0, y = 0;
+			for(int i = 0; i < numpts; i++) {
+				writeVarint(out, zigzag(pts[i][0] - x));
+				writeVarint(out, zigzag(pts[i][1] - y));
+				x = pts[i][0];
+				y = pts[i][1];
+			}
+
+			for(int i = 0; i < numpts; i++) {
+				// rows are sorted, the neighbours above i are the tail of the row
+				int first = graph.endEdge(i);
+				while(first > graph.firstEdge(i) && graph.target(first-1) > i) {
+					first--;
+				}
+				writeVarint(out, graph.endEdge(i) - first);
+				int j = i;
+				for(int e = first; e < graph.endEdge(i); e++) {
+					writeVarint(out, ((graph.target(e) - j) << 2) | graph.state(e));
+					j = graph.target(e);
+				}
+			}
+
+			for(int i = 0; i < numpts; i++) {
+				writeVarint(out, component[i]);
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void writeVarint(DataOutputStream out, int value) throws IOException {
+		while((value & ~0x7f) != 0) {
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int zigzag(int v) {
+		return (v << 1) ^ (v >> 31);
+	}
+
+
+	// TEST - save a roadmap, load it back, and load it again after a few obstacles were added
+	// usage: java RoadmapCache [map_file] [num_pts] [connection] [seed]
+	public static void main(String args[]) throws IOException {
+		String mapfile = (args.length > 0) ? args[0] : ProbRoadMap.DEFAULT_MAP_FILE;
+		int numpts = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+		String spec = (args.length > 2) ? args[2] : "prmstar";
+		long seed = (args.length > 3) ? Long.parseLong(args[3]) : 42L;
+
+		long t = System.nanoTime();
+		MapLoader.LoadedMap map = MapLoader.load(mapfile);
+		OccupancyGrid grid = map.grid;
+		ConfigurationSpace cspace = new ConfigurationSpace(grid);
+		DistanceField field = new DistanceField(grid);
+		FreeSpaceIndex index = new FreeSpaceIndex(cspace.getLayer(ProbRoadMap.POINT_BUFFER_ZONE));
+		EdgeValidator validator = new EdgeValidator(field, cspace, ProbRoadMap.PATH_BUFFER_ZONE-1);
+		int pts[][] = new int[numpts][2];
+		new ParallelSampler().sample(index, seed, pts, 0, numpts);
+		long pairs[] = ConnectionStrategy.parse(spec).candidatePairs(pts, index.size());
+		RoadmapGraph graph = new RoadmapGraph(pts, new ParallelEdgeBuilder().validate(validator, pts, pairs));
+		graph.fillStates(ProbRoadMap.EDGE_VALID);
+		UnionFind sets = new UnionFind(graph, ProbRoadMap.EDGE_VALID);
+		int component[] = new int[numpts];
+		for(int i = 0; i < numpts; i++) {
+			component[i] = sets.find(i);
+		}
+		long tbuild = System.nanoTime() - t;
+
+		File tmp = File.createTempFile("roadmap", ".cache");
+		tmp.deleteOnExit();
+		RoadmapCache cache = new RoadmapCache(tmp.getPath(), false);
+		long settings = settingsKey(numpts + "|uniform|" + spec);
+		t = System.nanoTime();
+		cache.save(settings, seed, grid, pts, numpts, graph, component);
+		long tsave = System.nanoTime() - t;
+
+		int rounds = 5;
+		Entry entry = null;
+		long tload = 0;
+		for(int round = 0; round < rounds; round++) { // only the last round is reported, the rest warm up
+			t = System.nanoTime();
+			entry = cache.load(settings, seed, grid);
+			tload = System.nanoTime() - t;
+		}
+		int errors = 0;
+		for(int i = 0; i < numpts; i++) {
+			if(entry.pts[i][0] != pts[i][0] || entry.pts[i][1] != pts[i][1] || entry.component[i] != component[i] ||
+			   entry.graph.degree(i) != graph.degree(i)) {
+				errors++;
+				continue;
+			}
+			for(int e = graph.firstEdge(i), f = entry.graph.firstEdge(i); e < graph.endEdge(i); e++, f++) {
+				if(entry.graph.target(f) != graph.target(e) || entry.graph.state(f) != graph.state(e) ||
+				   entry.graph.length(f) != graph.length(e)) {
+					errors++;
+				}
+			}
+		}
+		System.out.printf("%d points, %d edges: %d errors after a round trip\n", numpts, graph.numEdges(), errors);
+		System.out.printf("%.1f KB on disk (%.1f KB of map tile hashes), %.1f KB as CSR in memory\n",
+		                  tmp.length()/1024.0, 8.0 * tileHashes(grid).length/1024.0, graph.sizeInBytes()/1024.0);
+		System.out.printf("build %.1f ms (map, distance field, sampling, edges), save %.1f ms, load %.1f ms\n",
+		                  tbuild/1e6, tsave/1e6, tload/1e6);
+
+		// a few new obstacle cells in two places, the rest of the map is unchanged
+		grid.setObstacle(100, 100);
+		grid.setObstacle(101, 101);
+		grid.setObstacle(900, 300);
+		entry = cache.load(settings, seed, grid);
+		System.out.println("after 3 new obstacle cells: " + ((entry == null) ? "miss" :
+		                   entry.changedtiles.length + " changed tiles to repair"));
+		System.out.println("other seed: " + ((cache.load(settings, seed+1, grid) == null) ? "miss" : "hit") +
+		                   ", any seed: " + ((new RoadmapCache(tmp.getPath(), true).load(settings, seed+1, grid) == null) ?
+		                   "miss" : "hit"));
+	}
+}
@@ -0,0 +1,360 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/*
+ * RoadmapGraph.java
+ *
+ * Undirected roadmap graph in compressed sparse row form. The edges of
+ * vertex v are the slots firstEdge(v) .. endEdge(v)-1, each holding the
+ * neighbour, the precomputed length of the edge in px and its state
+ * (ProbRoadMap.EDGE_*). Neighbours are sorted, and every edge is stored
+ * once per end point. Memory is O(V + E), where the old adjacency matrix
+ * needed V^2 ints.
+ *
+ * The graph can grow after it is built. Each row has some slack, a row
+ * that fills up moves to the end of the slot arrays with twice the room,
+ * and the arrays are packed again once enough rows have moved. Adding a
+ * vertex with its edges therefore costs O(degree) amortized, and so does
+ * removing one, e.g. a temporary start point. Slots move when the graph
+ * changes, so slot numbers are only good until the next change.
+ */
+public class RoadmapGraph {
+
+	private int numvertices;
+	private int numedges;
+	private int start[];      // edges of v are start[v] .. start[v]+degree[v]-1
+	private int degree[];
+	private int room[];       // slots reserved for the row of v
+	private int targets[];    // neighbour of each edge slot
+	private float lengths[];  // length of each edge slot in px
+	private byte states[];    // EDGE_* of each edge slot
+	private int numslots;     // slots handed out to rows, the rest of the arrays is free
+	private int freeslots;    // slots left behind by rows that moved
+	private int version;      // changes whenever vertices or edges do
+
+	// graph over pts with the given edges (see ConnectionStrategy.pair), sorted, i < j, no duplicates
+	public RoadmapGraph(int pts[][], long edges[]) {
+		this(pts.length, pts, edges);
+	}
+
+	// same with numvertices >= pts.length vertices, vertices without a point have no edges
+	// every edge starts out EDGE_UNKNOWN
+	public RoadmapGraph(int numvertices, int pts[][], long edges[]) {
+		this.numvertices = numvertices;
+		numedges = edges.length;
+		start = new int[numvertices];
+		degree = new int[numvertices];
+		room = new int[numvertices];
+		targets = new int[2 * edges.length];
+		lengths = new float[2 * edges.length];
+		states = new byte[2 * edges.length];
+		numslots = 2 * edges.length;
+
+		// degrees, then prefix sums
+		for(int m = 0; m < edges.length; m++) {
+			degree[ConnectionStrategy.first(edges[m])]++;
+			degree[ConnectionStrategy.second(edges[m])]++;
+		}
+		for(int v = 1; v < numvertices; v++) {
+			start[v] = start[v-1] + degree[v-1];
+		}
+		System.arraycopy(degree, 0, room, 0, numvertices);
+
+		// for vertex v the pairs (i,v) with i < v come before the pairs (v,j),
+		// each in increasing order, so filling in pair order keeps rows sorted
+		int fill[] = Arrays.copyOf(start, numvertices);
+		for(int m = 0; m < edges.length; m++) {
+			int i = ConnectionStrategy.first(edges[m]), j = ConnectionStrategy.second(edges[m]);
+			float length = length(pts, i, j);
+			targets[fill[i]] = j;
+			lengths[fill[i]++] = length;
+			targets[fill[j]] = i;
+			lengths[fill[j]++] = length;
+		}
+	}
+
+	private static float length(int pts[][], int i, int j) {
+		double dx = pts[j][0] - pts[i][0], dy = pts[j][1] - pts[i][1];
+		return (float) Math.sqrt(dx*dx + dy*dy);
+	}
+
+	public int numVertices() { return numvertices; }
+
+	public int numEdges() { return numedges; }
+
+	// changes whenever vertices or edges are added or removed (not when states change)
+	public int getVersion() { return version; }
+
+
+	///////////////////////////////////////////////////////////////////
+	// Queries
+	///////////////////////////////////////////////////////////////////
+
+	public int firstEdge(int v) { return start[v]; }
+
+	public int endEdge(int v) { return start[v] + degree[v]; }
+
+	public int degree(int v) { return degree[v]; }
+
+	// neighbour at the other end of edge slot e
+	public int target(int e) { return targets[e]; }
+
+	// length in px of edge slot e
+	public float length(int e) { return lengths[e]; }
+
+	// ProbRoadMap.EDGE_* of edge slot e
+	public byte state(int e) { return states[e]; }
+
+	// the state of every edge slot, for searches that take a state array
+	// the array is replaced when the graph grows, so get it again after a change
+	public byte[] getStates() { return states; }
+
+	// edge slot from i to j, or -1 if there is no such edge
+	public int findEdge(int i, int j) {
+		int e = Arrays.binarySearch(targets, start[i], start[i] + degree[i], j);
+		return (e >= 0) ? e : -1;
+	}
+
+	public boolean hasEdge(int i, int j) {
+		return findEdge(i,j) >= 0;
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Changes
+	///////////////////////////////////////////////////////////////////
+
+	// set the state of edge i-j at both ends
+	public void setState(int i, int j, byte state) {
+		states[findEdge(i,j)] = state;
+		states[findEdge(j,i)] = state;
+	}
+
+	// set the state of every edge
+	public void fillStates(byte state) {
+		Arrays.fill(states, state);
+	}
+
+	// append a vertex without edges, returns its number
+	public int addVertex() {
+		if(numvertices == start.length) {
+			int capacity = Math.max(numvertices + 1, numvertices + (numvertices >>> 1));
+			start = Arrays.copyOf(start, capacity);
+			degree = Arrays.copyOf(degree, capacity);
+			room = Arrays.copyOf(room, capacity);
+		}
+		int v = numvertices++;
+		start[v] = numslots;
+		degree[v] = 0;
+		room[v] = 0;
+		version++;
+		return v;
+	}
+
+	// add edge i-j between points of pts, there must not be one yet
+	public void addEdge(int pts[][], int i, int j, byte state) {
+		float length = length(pts, i, j);
+		insertSlot(i, j, length, state);
+		insertSlot(j, i, length, state);
+		numedges++;
+		version++;
+	}
+
+	// remove every edge of v, the last vertex is removed altogether, others stay without edges
+	public void removeVertex(int v) {
+		for(int e = start[v]; e < start[v] + degree[v]; e++) {
+			removeSlot(targets[e], v);
+		}
+		numedges -= degree[v];
+		freeslots += room[v];
+		degree[v] = 0;
+		room[v] = 0;
+		if(v == numvertices-1) {
+			numvertices--;
+		}
+		version++;
+	}
+
+	// put target t into the sorted row of u
+	private void insertSlot(int u, int t, float length, byte state) {
+		if(degree[u] == room[u]) {
+			growRow(u);
+		}
+		int lo = start[u], hi = lo + degree[u];
+		int e = -Arrays.binarySearch(targets, lo, hi, t) - 1;
+		System.arraycopy(targets, e, targets, e+1, hi-e);
+		System.arraycopy(lengths, e, lengths, e+1, hi-e);
+		System.arraycopy(states, e, states, e+1, hi-e);
+		targets[e] = t;
+		lengths[e] = length;
+		states[e] = state;
+		degree[u]++;
+	}
+
+	// take target t out of the row of u
+	private void removeSlot(int u, int t) {
+		int lo = start[u], hi = lo + degree[u];
+		int e = Arrays.binarySearch(targets, lo, hi, t);
+		System.arraycopy(targets, e+1, targets, e, hi-e-1);
+		System.arraycopy(lengths, e+1, lengths, e, hi-e-1);
+		System.arraycopy(states, e+1, states, e, hi-e-1);
+		degree[u]--;
+	}
+
+	// double the room of the row of u
+	private void growRow(int u) {
+		int newroom = Math.max(4, 2 * room[u]);
+		if(start[u] + room[u] == numslots && start[u] + newroom <= targets.length) {
+			numslots = start[u] + newroom; // last row, grows in place
+			room[u] = newroom;
+			return;
+		}
+		if(numslots + newroom > targets.length) {
+			pack(newroom);
+		}
+		int from = start[u];
+		System.arraycopy(targets, from, targets, numslots, degree[u]);
+		System.arraycopy(lengths, from, lengths, numslots, degree[u]);
+		System.arraycopy(states, from, states, numslots, degree[u]);
+		freeslots += room[u];
+		start[u] = numslots;
+		room[u] = newroom;
+		numslots += newroom;
+	}
+
+	// copy the rows, keeping their room, into new arrays with space for extra more slots
+	// and a half again as many as are used, so packing is amortized over many inserts
+	private void pack(int extra) {
+		int used = numslots - freeslots;
+		int capacity = used + extra + (used >>> 1);
+		int newtargets[] = new int[capacity];
+		float newlengths[] = new float[capacity];
+		byte newstates[] = new byte[capacity];
+		int slot = 0;
+		for(int v = 0; v < numvertices; v++) {
+			System.arraycopy(targets, start[v], newtargets, slot, degree[v]);
+			System.arraycopy(lengths, start[v], newlengths, slot, degree[v]);
+			System.arraycopy(states, start[v], newstates, slot, degree[v]);
+			start[v] = slot;
+			slot += room[v];
+		}
+		targets = newtargets;
+		lengths = newlengths;
+		states = newstates;
+		numslots = slot;
+		freeslots = 0;
+	}
+
+	// approximate heap footprint in bytes
+	public long sizeInBytes() {
+		return 12L * start.length + 9L * targets.length;
+	}
+
+
+	// TEST - build a roadmap, grow it one vertex at a time and shrink it again,
+	// comparing against an adjacency matrix, and report sizes on a map
+	// usage: java RoadmapGraph [map_file] [num_pts] [connection] [seed]
+	public static void main(String args[]) throws IOException {
+		String mapfile = (args.length > 0) ? args[0] : ProbRoadMap.DEFAULT_MAP_FILE;
+		int numpts = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+		String spec = (args.length > 2) ? args[2] : "prmstar";
+		long seed = (args.length > 3) ? Long.parseLong(args[3]) : 42L;
+		int numadded = numpts / 5;
+
+		MapLoader.LoadedMap map = MapLoader.load(mapfile);
+		ConfigurationSpace cspace = new ConfigurationSpace(map.grid);
+		DistanceField field = new DistanceField(map.grid);
+		FreeSpaceIndex index = new FreeSpaceIndex(cspace.getLayer(ProbRoadMap.POINT_BUFFER_ZONE));
+		EdgeValidator validator = new EdgeValidator(field, cspace, ProbRoadMap.PATH_BUFFER_ZONE-1);
+		int pts[][] = new int[numpts][2];
+		new ParallelSampler().sample(index, seed, pts, 0, numpts);
+		long pairs[] = ConnectionStrategy.parse(spec).candidatePairs(pts, index.size());
+		long edges[] = new ParallelEdgeBuilder().validate(validator, pts, pairs);
+
+		// the edges among the first points up front, the last ones added a vertex at a time
+		int base = numpts - numadded;
+		long baseedges[] = new long[edges.length];
+		int count = 0;
+		for(int m = 0; m < edges.length; m++) {
+			if(ConnectionStrategy.second(edges[m]) < base) {
+				baseedges[count++] = edges[m];
+			}
+		}
+		int added[][] = new int[numadded][0]; // earlier neighbours of each added vertex
+		for(int m = 0; m < edges.length; m++) {
+			int i = ConnectionStrategy.first(edges[m]), j = ConnectionStrategy.second(edges[m]);
+			if(j >= base) {
+				added[j-base] = Arrays.copyOf(added[j-base], added[j-base].length + 1);
+				added[j-base][added[j-base].length-1] = i;
+			}
+		}
+		RoadmapGraph graph = new RoadmapGraph(base, pts, Arrays.copyOf(baseedges, count));
+		long t = System.nanoTime();
+		for(int v = base; v < numpts; v++) {
+			graph.addVertex();
+			for(int m = 0; m < added[v-base].length; m++) {
+				graph.addEdge(pts, added[v-base][m], v, ProbRoadMap.EDGE_VALID);
+			}
+		}
+		t = System.nanoTime() - t;
+
+		// dense reference
+		boolean adj[][] = new boolean[numpts][numpts];
+		for(int m = 0; m < edges.length; m++) {
+			int i = ConnectionStrategy.first(edges[m]), j = ConnectionStrategy.second(edges[m]);
+			adj[i][j] = adj[j][i] = true;
+		}
+		System.out.println("errors against adjacency matrix: " + compare(graph, adj, numpts));
+		System.out.printf("%d vertices, %d edges: %.1f KB sparse, %.1f KB as int[n][n]\n",
+		                  graph.numVertices(), graph.numEdges(), graph.sizeInBytes()/1024.0,
+		                  4.0 * graph.numVertices() * graph.numVertices() / 1024.0);
+		System.out.printf("%d vertices added one at a time: %.1f us per vertex\n",
+		                  numadded, t/1e3/numadded);
+
+		// remove a random half of the added vertices, then the rest from the end
+		SplittableRandom rand = new SplittableRandom(seed);
+		for(int r = 0; r < numadded / 2; r++) {
+			int v = base + rand.nextInt(numadded);
+			graph.removeVertex(v);
+			for(int w = 0; w < numpts; w++) {
+				adj[v][w] = adj[w][v] = false;
+			}
+		}
+		System.out.println("errors after removing vertices: " + compare(graph, adj, numpts));
+		for(int v = numpts-1; v >= base; v--) {
+			graph.removeVertex(v);
+		}
+		System.out.println("vertices after removing the added ones: " + graph.numVertices() +
+		                   ", edges: " + graph.numEdges() + " (" + count + " expected)");
+	}
+
+	private static int compare(RoadmapGraph graph, boolean adj[][], int n) {
+		int errors = 0;
+		int numedges = 0;
+		for(int i = 0; i < n; i++) {
+			int degree = 0;
+			for(int j = 0; j < n; j++) {
+				if(adj[i][j] != graph.hasEdge(i,j)) {
+					errors++;
+				}
+				if(adj[i][j]) {
+					degree++;
+				}
+			}
+			if(degree != graph.degree(i)) {
+				errors++;
+			}
+			numedges += degree;
+			for(int e = graph.firstEdge(i); e < graph.endEdge(i); e++) {
+				if(e+1 < graph.endEdge(i) && graph.target(e) >= graph.target(e+1)) {
+					errors++; // rows must be sorted
+				}
+				if(graph.state(e) != graph.state(graph.findEdge(graph.target(e), i))) {
+					errors++; // both ends agree
+				}
+			}
+		}
+		return errors + ((numedges/2 != graph.numEdges()) ? 1 : 0);
+	}
+}
@@ -5,7 +5,8 @@
  *      Author: jjr0192
  */
 
-import java.util.Stack;
+
+import java.util.Arrays;
 
 import javaclient2.PlayerClient;
 import javaclient2.Position2DInterface;
@@ -76,9 +77,12 @@ public class RobotControl {
 	private Position2DInterface pp = null;
 	private SonarInterface sp = null;
 	private ProbRoadMap prm = null;
+	private MissionPlanner mission = null;
 	private PositionQueue pq = null;
 	
 	private float planneddist;
+	private int path[] = new int[64]; // reused path buffer, point indexes
+	private int pathlength;
 	private int loc_robot = -1;
 	private boolean runRobot = true;
 	
@@ -272,28 +276,49 @@ public class RobotControl {
 		// prm.setVisible(true);
 		// prm.pack();
 		
+		// destinations may be visited in any order, take the one with the shortest roadmap tour
+		int dests[] = new int[realdestpts.length];
+		for(int k = 0; k < dests.length; k++) {
+			dests[k] = 8 + k;
+		}
+		mission = new MissionPlanner(startindex, dests);
+		int order[] = mission.plan(prm.getGraph(), startindex, dests);
+		
 		boolean pathsuccess = true;
-		for(int d = 8; d < realdestpts.length + 8 && pathsuccess; d++) {
+		for(int k = 0; k < order.length && pathsuccess; k++) {
+			int d = order[k];
 		
 			// plan and follow next path
+			int firsttmp = prm.getNumPoints(); // robot positions added on the way to d start here
+			boolean replanned = false;
 			pathsuccess = false;
 			while(!pathsuccess) {
 				System.out.println("\n######################### PLAN NEXT PATH #########################");
 				
 				// Stack<Node> nodepath = prm.createPath(prm.planPath(startindex,8)); // robot 0 -> dest 0
 				
-				Stack<Node> nodepath = prm.createPath(prm.planPath(startindex,d)); // robot 0 -> dest 0
+				// plan into the reused path buffer, grow it only if the path does not fit
+				pathlength = prm.planPath(startindex,d,path); // robot 0 -> dest 0
+				if(pathlength > path.length) {
+					path = new int[2*pathlength];
+					pathlength = prm.planPath(startindex,d,path);
+				}
+				if(pathlength < 0) {
+					throw new IllegalStateException("no path from point " + startindex + " to point " + d);
+				}
+				pathlength = prm.shortcutPath(path,pathlength); // fewer waypoints to stop and turn at
 				
 				prm.reset();
-				prm.drawPath(nodepath);
+				prm.drawPath(path,pathlength);
 				prm.drawAllPoints();
 				Retriever.pause(); // see path
 				
-				pathsuccess = followPath(nodepath);
+				pathsuccess = followPath(path,pathlength);
 				
 				if(!pathsuccess) {
 					startindex = prm.addPoint(cx,cy); // add current robot position as point in map
-					prm.genAllEdges(); // account for new obstacles
+					prm.updateEdges(); // account for new obstacles, only edges near them are checked again
+					replanned = true;
 					prm.reset();
 					// prm.drawAllEdges();
 					// prm.drawAllPoints();
@@ -303,6 +328,18 @@ public class RobotControl {
 			
 			startindex = d;
 			
+			// the added robot positions were only needed as start points, drop them newest first
+			// so their indexes are reused
+			for(int i = prm.getNumPoints()-1; i >= firsttmp; i--) {
+				prm.removePoint(i);
+			}
+			
+			// new obstacles may have made other legs longer, order the rest again from here
+			if(replanned && k+1 < order.length) {
+				mission.edgesChanged();
+				int rest[] = mission.plan(prm.getGraph(), d, Arrays.copyOfRange(order, k+1, order.length));
+				System.arraycopy(rest, 0, order, k+1, rest.length);
+			}
 		}
 		
 		if(pathsuccess) { 
@@ -317,18 +354,15 @@ public class RobotControl {
 		System.exit(0); // TODO - probably a more graceful way
 	}
 	
-	// instruct the robot to move along a path
-	private boolean followPath(Stack<Node> nodepath) {
-		Stack<Node> tmpnodepath = new Stack<Node>(); // don't modify the original
-		tmpnodepath.addAll(nodepath);
-		
-		planneddist = (float) (tmpnodepath.firstElement().gscore*ProbRoadMap.MPP);
-		System.out.println(">> START FOLLOWPATH length: " + tmpnodepath.size() + 
+	// instruct the robot to move along a path of point indexes
+	private boolean followPath(int path[], int pathlength) {
+		planneddist = (float) (prm.pathCost(path,pathlength)*prm.get_mpp());
+		System.out.println(">> START FOLLOWPATH length: " + pathlength + 
 				           " planned dist: " + planneddist); // DEBUG
 		pq.tic();
 		
 		// TODO - HACK - set robot's current odometry (should localize instead)
-		Node currnode = tmpnodepath.pop();
+		// path[0] is the start point
 		if(first) {
 			// pq.setOdometry(currnode.realx,currnode.realy, ctheta);
 			readPosition();
@@ -338,10 +372,9 @@ public class RobotControl {
 		relocalize();
 		
 		boolean success = true;
-		while(!tmpnodepath.isEmpty() && success) {
-			currnode = tmpnodepath.pop();
-			// goTo(currnode.realx, currnode.realy);
-			success = potentialFieldMotion(currnode.realx,currnode.realy);
+		for(int i = 1; i < pathlength && success; i++) {
+			// goTo(prm.getRealX(path[i]), prm.getRealY(path[i]));
+			success = potentialFieldMotion(prm.getRealX(path[i]),prm.getRealY(path[i]));
 			
 			if( success )
 			{
@@ -902,7 +935,7 @@ public class RobotControl {
 					
 					// distance sweep
 					for(int p = 0; p < 3; p++) {
-						dist = (float) (range + (p * ProbRoadMap.MPP));
+						dist = (float) (range + (p * prm.get_mpp()));
 		
 						// determine grid cell
 						rtheta = ctheta + theta;
@@ -1182,6 +1215,9 @@ public class RobotControl {
 	 * calculate the virtual sonar ranges that are use as a method to 
 	 * relocalize 
 	 * 
+	 * each sonar is a ray cast from the robot's position on the map,
+	 * cell by cell (see LineTraversal.ray), until it enters an obstacle
+	 * 
 	 */
 	private float[] calculateRanges()
 	{
@@ -1195,55 +1231,37 @@ public class RobotControl {
 	     */
 	    int distance = 5;
 	    
-	    boolean checkRadRange = true;
-	    int y = 0;	    
-	    float dy, dx, dtheta = 0;
+	    double mpp = prm.get_mpp();
 	    
+	    // robot position in (continuous) map coordinates, map y points down
+	    double mapx = ( cx + prm.get_world_width()/2 ) / mpp;
+	    double mapy = ( prm.get_world_height()/2 - cy ) / mpp;
 	    
 	    for( int x = 0; x < degrees.length; ++x )
 	    {
-		checkRadRange = true;
-		y = 0;
+		// one sin/cos per sonar, none per pixel
+		double dtheta = ctheta + Math.toRadians( degrees[x] );
+		double mapdist = LineTraversal.ray( mapx, mapy, Math.cos( dtheta ), -Math.sin( dtheta ),
+						    distance, sonarvisitor );
 		
-		while ( checkRadRange && y <= distance )
-		{
-		    dtheta = ctheta + degrees[x];
-		    dy = ( float ) ( Math.sin( dtheta ) * distance );
-		    dx = ( float ) ( Math.cos( dtheta ) * distance );
-		    
-		    
-		    int mapx = prm.realDistToMapDist( dx + prm.get_world_width()/2 );
-		    
-		    int mapy = prm.realDistToMapDist( prm.get_world_height()/2 - dy );
-		    
-		    //System.out.println( "\n\ndx = " + dx + "\tdy = " + dy + "\n\n" );
-		    //System.out.println( "\n\nmapx = " + mapx + "\tmapy = " + mapy + "\n\n" );
-		    
-		    /*
-		     * if there is no "real" obstacle at this location, go to 
-		     * the next.pixel and check.
-		     * otherwise, break, since there is one
-		     *
-		     *
-		     * if there is no real obstacle, go to the next pixel
-		     */
-		    if( prm.getObstacleMapVal( mapx, //implement this function and make the other two public
-		    		mapy ) != 1 )
-		    {
-			
-			calculatedRanges[x] = prm.mapDistToRealDist( y );
-			
-			//System.out.println( "calculatedRanges[" + x + "] = " +  calculatedRanges[x] );
-			++y;
-		    }
-		    else // if there is obstacle, then just break out of it 
-			// and go to the next virtual sonar and calculate the ranges
-		    {
-			checkRadRange = false;
-		    }
-		}
+		calculatedRanges[x] = ( float ) ( mapdist * mpp );
+		
+		//System.out.println( "calculatedRanges[" + x + "] = " +  calculatedRanges[x] );
 	    }
 	    
 	    return calculatedRanges;
 	}
+	
+	/*
+	 * 
+	 * stops a virtual sonar ray at the first obstacle cell
+	 * 
+	 */
+	private final LineTraversal.PixelVisitor sonarvisitor = new LineTraversal.PixelVisitor()
+	{
+	    public boolean visit( int x, int y )
+	    {
+		return prm.getObstacleMap().isFree( x, y );
+	    }
+	};
 }
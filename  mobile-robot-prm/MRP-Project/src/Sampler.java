@@ -0,0 +1,19 @@
+import java.util.SplittableRandom;
+
+/*
+ * Sampler.java
+ *
+ * Strategy for generating roadmap points. ParallelSampler asks for numbered
+ * candidates in parallel and keeps the accepted ones in candidate order, so
+ * a sampler must produce the same candidate for the same number, seed and
+ * stream no matter which thread asks.
+ */
+public interface Sampler {
+
+	// called once per roadmap before any candidate is drawn, seed is derived from the master seed
+	void prepare(long seed);
+
+	// store candidate i in pt as [x,y] and return true if it is a valid point
+	// rand is the stream of the chunk that contains i
+	boolean sample(long i, SplittableRandom rand, int pt[]);
+}
@@ -0,0 +1,170 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.SplittableRandom;
+
+/*
+ * SearchContext.java
+ *
+ * Reusable workspace for AStarSearch. The g-score, parent and heap arrays
+ * are sized to the roadmap once and kept between queries. Instead of
+ * clearing them, every query bumps a generation counter, and a vertex's
+ * entries only count when its stamp matches the current generation. A
+ * query therefore touches only the vertices it reaches and, once the
+ * arrays are large enough, allocates nothing.
+ */
+public class SearchContext {
+
+	private int generation;
+	private int seen[];     // generation in which gscore / parent were last set
+	private int closed[];   // generation in which the vertex was expanded
+	private double gscore[];
+	private int parent[];
+	private IndexedMinHeap open;
+
+	public SearchContext(int capacity) {
+		allocate(capacity);
+	}
+
+	public int capacity() { return seen.length; }
+
+	// make room for numvertices vertices, grows by half again to amortize addPoint
+	public void ensureCapacity(int numvertices) {
+		if(numvertices > seen.length) {
+			allocate(Math.max(numvertices, seen.length + (seen.length >>> 1)));
+		}
+	}
+
+	// start a new query, invalidates the results of the last one
+	void begin() {
+		open.clear();
+		generation++;
+		if(generation == Integer.MAX_VALUE) {
+			// stamps would wrap, start over with zeroed arrays
+			allocate(seen.length);
+			generation = 1;
+		}
+	}
+
+	private void allocate(int capacity) {
+		seen = new int[capacity];
+		closed = new int[capacity];
+		gscore = new double[capacity];
+		parent = new int[capacity];
+		open = new IndexedMinHeap(capacity);
+		generation = 0;
+	}
+
+
+	///////////////////////////////////////////////////////////////////
+	// Vertex State
+	///////////////////////////////////////////////////////////////////
+
+	IndexedMinHeap getOpenSet() { return open; }
+
+	boolean isSeen(int v) { return seen[v] == generation; }
+
+	boolean isClosed(int v) { return closed[v] == generation; }
+
+	void close(int v) { closed[v] = generation; }
+
+	// record a (better) way to reach v
+	void reach(int v, double g, int from) {
+		seen[v] = generation;
+		gscore[v] = g;
+		parent[v] = from;
+	}
+
+	// cost from the start to v in the last query, infinite if v was not reached
+	public double gscore(int v) {
+		return isSeen(v) ? gscore[v] : Double.POSITIVE_INFINITY;
+	}
+
+	// predecessor of v on the best path found in the last query, -1 at the start
+	public int parent(int v) {
+		return isSeen(v) ? parent[v] : -1;
+	}
+
+	// number of vertices on the path from the start to dest, which must have been reached
+	public int pathLength(int dest) {
+		int length = 0;
+		for(int v = dest; v >= 0; v = parent[v]) {
+			length++;
+		}
+		return length;
+	}
+
+	// write the path from the start to dest into path, as far as it fits
+	// returns the number of vertices on the whole path
+	public int copyPath(int dest, int path[]) {
+		int length = pathLength(dest);
+		int i = length;
+		for(int v = dest; v >= 0; v = parent[v]) {
+			i--;
+			if(i < path.length) {
+				path[i] = v;
+			}
+		}
+		return length;
+	}
+
+
+	// TEST - count the bytes allocated by repeated queries on a roadmap
+	// usage: java SearchContext [map_file] [num_pts] [seed]
+	public static void main(String args[]) throws IOException {
+		String mapfile = (args.length > 0) ? args[0] : ProbRoadMap.DEFAULT_MAP_FILE;
+		int numpts = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+		long seed = (args.length > 2) ? Long.parseLong(args[2]) : 42L;
+
+		MapLoader.LoadedMap map = MapLoader.load(mapfile);
+		ConfigurationSpace cspace = new ConfigurationSpace(map.grid);
+		DistanceField field = new DistanceField(map.grid);
+		FreeSpaceIndex index = new FreeSpaceIndex(cspace.getLayer(ProbRoadMap.POINT_BUFFER_ZONE));
+		EdgeValidator validator = new EdgeValidator(field, cspace, ProbRoadMap.PATH_BUFFER_ZONE-1);
+		int pts[][] = new int[numpts][2];
+		new ParallelSampler().sample(index, seed, pts, 0, numpts);
+		long pairs[] = ConnectionStrategy.parse("prmstar").candidatePairs(pts, index.size());
+		RoadmapGraph graph = new RoadmapGraph(pts, new ParallelEdgeBuilder().validate(validator, pts, pairs));
+
+		int numqueries = 10000;
+		int queries[] = new int[2*numqueries];
+		SplittableRandom rand = new SplittableRandom(seed);
+		for(int q = 0; q < queries.length; q++) {
+			queries[q] = rand.nextInt(numpts);
+		}
+		SearchContext context = new SearchContext(numpts);
+		int path[] = new int[numpts];
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+		for(int round = 0; round < 2; round++) { // first round warms up
+			int errors = 0;
+			long checksum = 0;
+			long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			long t = System.nanoTime();
+			for(int q = 0; q < numqueries; q++) {
+				int length = AStarSearch.search(graph, pts, null, queries[2*q], queries[2*q+1], context, path);
+				checksum += length;
+			}
+			t = System.nanoTime() - t;
+			bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+
+			// same answers as fresh searches
+			for(int q = 0; q < 200; q++) {
+				int length = AStarSearch.search(graph, pts, null, queries[2*q], queries[2*q+1], context, path);
+				Node node = AStarSearch.search(graph, pts, null, queries[2*q], queries[2*q+1]);
+				for(int i = length-1; i >= 0; i--, node = node.prev) {
+					if(node == null || node.index != path[i]) {
+						errors++;
+						break;
+					}
+				}
+				if(length < 0 && node != null) {
+					errors++;
+				}
+			}
+			if(round == 1) {
+				System.out.printf("%d queries: %.3f ms/query, %d bytes allocated, %d mismatches against fresh searches (checksum %d)\n",
+				                  numqueries, t/1e6/numqueries, bytes, errors, checksum);
+			}
+		}
+	}
+}
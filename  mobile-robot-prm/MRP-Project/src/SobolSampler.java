@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+/*
+ * SobolSampler.java
+ *
+ * Low-discrepancy samples from the first two dimensions of the Sobol
+ * sequence, spread over the whole map and kept where a c-space layer is
+ * free. Each roadmap draws a new Owen scramble, using the hash based nested
+ * uniform scramble of Burley, "Practical Hash-based Owen Scrambling" (2020),
+ * which keeps the stratification of the sequence while randomizing it.
+ */
+public class SobolSampler implements Sampler {
+
+	// generator matrix columns of dimension 1 (x+1, the Pascal matrix mod 2)
+	private static final int DIRECTIONS[] = new int[32];
+	static {
+		DIRECTIONS[0] = 1 << 31;
+		for(int k = 1; k < 32; k++) {
+			DIRECTIONS[k] = DIRECTIONS[k-1] ^ (DIRECTIONS[k-1] >>> 1);
+		}
+	}
+
+	private final OccupancyGrid layer;
+	private int seedx, seedy; // scramble of this roadmap
+
+	public SobolSampler(OccupancyGrid layer) {
+		this.layer = layer;
+	}
+
+	public void prepare(long seed) {
+		SplittableRandom rand = new SplittableRandom(seed);
+		seedx = rand.nextInt();
+		seedy = rand.nextInt();
+	}
+
+	public boolean sample(long i, SplittableRandom rand, int pt[]) {
+		int index = (int) i; // the sequence repeats after 2^32 points
+		double u = toUnit(scramble(Integer.reverse(index), seedx));
+		double v = toUnit(scramble(sobol1(index), seedy));
+		int x = (int) (u * layer.getWidth());
+		int y = (int) (v * layer.getHeight());
+		pt[0] = x;
+		pt[1] = y;
+		return layer.isFree(x,y);
+	}
+
+	// dimension 1 of point i as a 32 bit fraction (dimension 0 is Integer.reverse(i))
+	static int sobol1(int i) {
+		int r = 0;
+		for(int k = 0; i != 0; k++, i >>>= 1) {
+			if((i & 1) != 0) {
+				r ^= DIRECTIONS[k];
+			}
+		}
+		return r;
+	}
+
+	// nested uniform scramble of a 32 bit fraction
+	static int scramble(int x, int seed) {
+		x = Integer.reverse(x);
+		// Laine-Karras permutation, every bit only depends on the bits below it
+		x += seed;
+		x ^= x * 0x6c50b47c;
+		x ^= x * 0xb82f1e52;
+		x ^= x * 0xc7afe638;
+		x ^= x * 0x8d22f6e6;
+		return Integer.reverse(x);
+	}
+
+	// 32 bit fraction to [0,1)
+	static double toUnit(int x) {
+		return (x & 0xffffffffL) * 0x1.0p-32;
+	}
+
+
+	// TEST - compare the coverage of the point samplers on a map
+	// usage: java SobolSampler [map_file] [num_pts] [seed]
+	public static void main(String args[]) throws IOException {
+		String mapfile = (args.length > 0) ? args[0] : ProbRoadMap.DEFAULT_MAP_FILE;
+		int numpts = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+		long seed = (args.length > 2) ? Long.parseLong(args[2]) : 42L;
+
+		MapLoader.LoadedMap map = MapLoader.load(mapfile);
+		ConfigurationSpace cspace = new ConfigurationSpace(map.grid);
+		OccupancyGrid layer = cspace.getLayer(ProbRoadMap.POINT_BUFFER_ZONE);
+		FreeSpaceIndex index = new FreeSpaceIndex(layer);
+		ParallelSampler engine = new ParallelSampler();
+
+		String names[] = {"uniform", "halton", "sobol"};
+		Sampler samplers[] = {new UniformSampler(index), new HaltonSampler(layer), new SobolSampler(layer)};
+		int trials = 20;
+		for(int s = 0; s < samplers.length; s++) {
+			// dispersion: largest distance from a valid cell to the nearest sample
+			double worst = 0.0, total = 0.0;
+			SplittableRandom seeds = new SplittableRandom(seed);
+			for(int t = 0; t < trials; t++) {
+				int pts[][] = new int[numpts][2];
+				engine.sample(samplers[s], seeds.nextLong(), pts, 0, numpts);
+				OccupancyGrid marks = new OccupancyGrid(layer.getWidth(), layer.getHeight());
+				for(int i = 0; i < numpts; i++) {
+					marks.setObstacle(pts[i][0], pts[i][1]);
+				}
+				DistanceField field = new DistanceField(marks);
+				double dispersion = 0.0;
+				for(int y = 0; y < layer.getHeight(); y++) {
+					for(int x = 0; x < layer.getWidth(); x++) {
+						if(layer.isFreeUnchecked(x,y)) {
+							dispersion = Math.max(dispersion, field.clearanceAtUnchecked(x,y));
+						}
+					}
+				}
+				worst = Math.max(worst, dispersion);
+				total += dispersion;
+			}
+			System.out.printf("%-8s dispersion over %d roadmaps of %d points: mean %.1f px, worst %.1f px\n",
+			                  names[s], trials, numpts, total/trials, worst);
+		}
+	}
+}
@@ -0,0 +1,28 @@
+import java.util.SplittableRandom;
+
+/*
+ * UniformSampler.java
+ *
+ * Independent uniform samples over the valid cells of a FreeSpaceIndex.
+ * Every candidate is accepted.
+ */
+public class UniformSampler implements Sampler {
+
+	private final FreeSpaceIndex index;
+
+	public UniformSampler(FreeSpaceIndex index) {
+		if(index.size() == 0) {
+			throw new IllegalStateException("no valid points in map");
+		}
+		this.index = index;
+	}
+
+	public void prepare(long seed) {
+		// nothing to prepare, the chunk streams carry all randomness
+	}
+
+	public boolean sample(long i, SplittableRandom rand, int pt[]) {
+		index.select(rand.nextLong(index.size()), pt);
+		return true;
+	}
+}
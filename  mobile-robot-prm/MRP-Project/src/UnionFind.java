@@ -0,0 +1,196 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/*
+ * UnionFind.java
+ *
+ * Disjoint sets over roadmap vertices, for tracking connected components
+ * while edges are added. Union by size and path halving make every
+ * operation O(alpha(n)), effectively constant, so "can point i reach point
+ * j" is answered without a search. Vertices can be appended at any time.
+ * Sets cannot be split again, so a removed or blocked edge means building
+ * the sets again from the remaining edges.
+ */
+public class UnionFind {
+
+	private int parent[];   // parent of each vertex, roots are their own parent
+	private int size[];     // number of vertices under each root
+	private int numvertices;
+	private int numsets;
+
+	public UnionFind(int numvertices) {
+		parent = new int[Math.max(numvertices, 16)];
+		size = new int[parent.length];
+		for(int v = 0; v < numvertices; v++) {
+			add();
+		}
+	}
+
+	// sets of the edges of graph in the given state (ProbRoadMap.EDGE_*)
+	public UnionFind(RoadmapGraph graph, byte state) {
+		this(graph.numVertices());
+		for(int u = 0; u < graph.numVertices(); u++) {
+			for(int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+				if(graph.target(e) > u && graph.state(e) == state) {
+					union(u, graph.target(e));
+				}
+			}
+		}
+	}
+
+	// sets saved as labels, label[v] is any vertex in the set of v (such as find(v))
+	public UnionFind(int label[]) {
+		this(label.length);
+		for(int v = 0; v < label.length; v++) {
+			union(v, label[v]);
+		}
+	}
+
+	public int numVertices() { return numvertices; }
+
+	public int numSets() { return numsets; }
+
+	// append a vertex in a set of its own, returns its number
+	public int add() {
+		if(numvertices == parent.length) {
+			parent = Arrays.copyOf(parent, numvertices + (numvertices >>> 1));
+			size = Arrays.copyOf(size, parent.length);
+		}
+		int v = numvertices++;
+		parent[v] = v;
+		size[v] = 1;
+		numsets++;
+		return v;
+	}
+
+	// append vertices up to numvertices
+	public void ensureVertices(int numvertices) {
+		while(this.numvertices < numvertices) {
+			add();
+		}
+	}
+
+	// representative of the set of v
+	public int find(int v) {
+		while(parent[v] != v) {
+			parent[v] = parent[parent[v]]; // path halving
+			v = parent[v];
+		}
+		return v;
+	}
+
+	// join the sets of u and v, returns false if they were already one set
+	public boolean union(int u, int v) {
+		int a = find(u), b = find(v);
+		if(a == b) {
+			return false;
+		}
+		if(size[a] < size[b]) {
+			int tmp = a; a = b; b = tmp;
+		}
+		parent[b] = a;
+		size[a] += size[b];
+		numsets--;
+		return true;
+	}
+
+	public boolean connected(int u, int v) {
+		return find(u) == find(v);
+	}
+
+	// number of vertices in the set of v
+	public int setSize(int v) {
+		return size[find(v)];
+	}
+
+
+	// TEST - compare with breadth first labels while edges are added and time reachability
+	// questions against A*
+	// usage: java UnionFind [map_file] [num_pts] [connection] [seed]
+	public static void main(String args[]) throws IOException {
+		String mapfile = (args.length > 0) ? args[0] : ProbRoadMap.DEFAULT_MAP_FILE;
+		int numpts = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+		String spec = (args.length > 2) ? args[2] : "knn:4";
+		long seed = (args.length > 3) ? Long.parseLong(args[3]) : 42L;
+
+		MapLoader.LoadedMap map = MapLoader.load(mapfile);
+		ConfigurationSpace cspace = new ConfigurationSpace(map.grid);
+		DistanceField field = new DistanceField(map.grid);
+		FreeSpaceIndex index = new FreeSpaceIndex(cspace.getLayer(ProbRoadMap.POINT_BUFFER_ZONE));
+		EdgeValidator validator = new EdgeValidator(field, cspace, ProbRoadMap.PATH_BUFFER_ZONE-1);
+		int pts[][] = new int[numpts][2];
+		new ParallelSampler().sample(index, seed, pts, 0, numpts);
+		long pairs[] = ConnectionStrategy.parse(spec).candidatePairs(pts, index.size());
+		long edges[] = new ParallelEdgeBuilder().validate(validator, pts, pairs);
+		RoadmapGraph graph = new RoadmapGraph(pts, edges);
+
+		// edges in random order, checking against labels from scratch every so often
+		SplittableRandom rand = new SplittableRandom(seed);
+		long order[] = edges.clone();
+		for(int m = order.length-1; m > 0; m--) {
+			int r = rand.nextInt(m+1);
+			long tmp = order[m]; order[m] = order[r]; order[r] = tmp;
+		}
+		UnionFind sets = new UnionFind(numpts);
+		int errors = 0;
+		for(int m = 0; m < order.length; m++) {
+			sets.union(ConnectionStrategy.first(order[m]), ConnectionStrategy.second(order[m]));
+			if(m % (order.length/10 + 1) == 0 || m == order.length-1) {
+				long prefix[] = Arrays.copyOf(order, m+1);
+				Arrays.sort(prefix);
+				int label[] = labels(new RoadmapGraph(pts, prefix));
+				for(int u = 0; u < numpts; u++) {
+					for(int k = 0; k < 4; k++) {
+						int v = rand.nextInt(numpts);
+						if(sets.connected(u,v) != (label[u] == label[v])) {
+							errors++;
+						}
+					}
+				}
+			}
+		}
+		System.out.printf("%d vertices, %d edges, %d components, %d errors against breadth first labels\n",
+		                  numpts, edges.length, sets.numSets(), errors);
+
+		int numqueries = 2000;
+		int connected = 0, found = 0;
+		SearchContext context = new SearchContext(numpts);
+		long t = System.nanoTime();
+		for(int q = 0; q < numqueries; q++) {
+			connected += sets.connected(q % numpts, (q * 7919) % numpts) ? 1 : 0;
+		}
+		long tsets = System.nanoTime() - t;
+		t = System.nanoTime();
+		for(int q = 0; q < numqueries; q++) {
+			found += (AStarSearch.search(graph, pts, null, q % numpts, (q * 7919) % numpts, context, null) >= 0) ? 1 : 0;
+		}
+		long tsearch = System.nanoTime() - t;
+		System.out.printf("%d reachability questions (%d / %d yes): %.3f us union-find, %.1f us A* each\n",
+		                  numqueries, connected, found, tsets/1e3/numqueries, tsearch/1e3/numqueries);
+	}
+
+	private static int[] labels(RoadmapGraph graph) {
+		int label[] = new int[graph.numVertices()];
+		Arrays.fill(label, -1);
+		int queue[] = new int[graph.numVertices()];
+		for(int s = 0; s < label.length; s++) {
+			if(label[s] >= 0) {
+				continue;
+			}
+			int head = 0, tail = 0;
+			queue[tail++] = s;
+			label[s] = s;
+			while(head < tail) {
+				int x = queue[head++];
+				for(int e = graph.firstEdge(x); e < graph.endEdge(x); e++) {
+					if(label[graph.target(e)] < 0) {
+						label[graph.target(e)] = s;
+						queue[tail++] = graph.target(e);
+					}
+				}
+			}
+		}
+		return label;
+	}
+}